@@ -0,0 +1,63 @@
+package com.stevezeidner.movementgauge;
+
+import com.stevezeidner.movementgauge.core.FixedPointFormatter;
+import com.stevezeidner.movementgauge.core.Utility;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+
+public class FixedPointFormatterTest extends TestCase {
+
+    private static String text(FixedPointFormatter formatter) {
+        return new String(formatter.getChars(), 0, formatter.length());
+    }
+
+    public void testFormatsLikeRoundedFloat() {
+        FixedPointFormatter formatter = new FixedPointFormatter(2);
+        float[] values = {0f, 5f, 5.678f, 12.3f, -3.456f, 1.005f, 99.999f, -0.001f, 0.07f};
+        for (float value : values) {
+            formatter.reset();
+            formatter.format(value);
+            assertEquals("" + Utility.round(value, 2), text(formatter));
+        }
+    }
+
+    public void testMatchesRoundedFloatForRandomValues() {
+        FixedPointFormatter formatter = new FixedPointFormatter(2);
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            float value = (random.nextFloat() - 0.5f) * 2000f;
+            formatter.reset();
+            formatter.format(value);
+            assertEquals("" + Utility.round(value, 2), text(formatter));
+        }
+    }
+
+    public void testReportsChangeOnlyWhenDigitsChange() {
+        FixedPointFormatter formatter = new FixedPointFormatter(2);
+        assertTrue(formatter.format(1.231f));
+        assertFalse(formatter.format(1.234f));
+        assertEquals("1.23", text(formatter));
+        assertTrue(formatter.format(1.235f));
+        assertEquals("1.24", text(formatter));
+    }
+
+    public void testReusesBuffer() {
+        FixedPointFormatter formatter = new FixedPointFormatter(2);
+        char[] buffer = formatter.getChars();
+        formatter.format(123.45f);
+        formatter.format(-6.7f);
+        assertSame(buffer, formatter.getChars());
+        assertEquals("-6.7", text(formatter));
+    }
+
+    public void testRejectsUnsupportedDecimals() {
+        try {
+            new FixedPointFormatter(0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
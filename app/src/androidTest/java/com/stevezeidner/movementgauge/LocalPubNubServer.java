@@ -0,0 +1,285 @@
+package com.stevezeidner.movementgauge;
+
+import org.json.JSONException;
+import org.json.JSONTokener;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal stand-in for the PubNub REST endpoint on a local port. It answers publish requests the
+ * way PubNub does and hands every message to a listener, so a load run can see what actually
+ * arrived and when. It can also delay responses and fail a share of requests to exercise the
+ * retry path. Anything other than a publish gets an empty success.
+ *
+ * Each connection is served on its own thread and kept alive for as long as the client wants.
+ */
+class LocalPubNubServer {
+
+    /**
+     * Receives every message that was published successfully, on a connection thread
+     */
+    interface MessageListener {
+        /**
+         * @param message the published JSON value, e.g. a JSONObject or JSONArray
+         */
+        void onMessage(String channel, Object message, long receivedNanos);
+    }
+
+    private static class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private static final String PUBLISH_OK = "[1,\"Sent\",\"%d\"]";
+    private static final String PUBLISH_ERROR = "[0,\"Internal Server Error\",\"0\"]";
+
+    private final MessageListener listener;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    private ServerSocket serverSocket;
+
+    private volatile int responseDelayMs = 0;
+    private float failureRate = 0; // guarded by failureLock
+    private float failureCredit = 0;
+    private final Object failureLock = new Object();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failuresInjected = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    LocalPubNubServer(MessageListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Listen on an ephemeral port on the loopback interface
+     */
+    void start() throws IOException {
+        serverSocket = new ServerSocket(0, 512, InetAddress.getByName("127.0.0.1"));
+        connections.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        });
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @param delayMs time to wait before answering each request
+     */
+    void setResponseDelayMs(int delayMs) {
+        this.responseDelayMs = delayMs;
+    }
+
+    /**
+     * Fail an exact share of publish requests, spread evenly and starting with the first, so a
+     * short run sees failures as surely as a long one
+     *
+     * @param rate share of publish requests, 0 to 1, answered with a server error
+     */
+    void setFailureRate(float rate) {
+        synchronized (failureLock) {
+            this.failureRate = rate;
+            this.failureCredit = rate > 0 ? 1 - rate : 0;
+        }
+    }
+
+    long getRequestCount() {
+        return requests.get();
+    }
+
+    long getFailuresInjected() {
+        return failuresInjected.get();
+    }
+
+    /**
+     * @return bytes of request lines, headers and bodies received
+     */
+    long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignore) {
+        }
+        connections.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            connections.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            while ((requestLine = readLine(in)) != null) {
+                if (requestLine.length() == 0) {
+                    continue;
+                }
+                long bytes = requestLine.length() + 2;
+                int contentLength = 0;
+                boolean close = false;
+                String header;
+                while ((header = readLine(in)) != null && header.length() > 0) {
+                    bytes += header.length() + 2;
+                    String lower = header.toLowerCase();
+                    if (lower.startsWith("content-length:")) {
+                        contentLength = Integer.parseInt(lower.substring(15).trim());
+                    } else if (lower.startsWith("connection:") && lower.contains("close")) {
+                        close = true;
+                    }
+                }
+                byte[] body = readBody(in, contentLength);
+                bytes += 2 + body.length;
+                bytesReceived.addAndGet(bytes);
+                requests.incrementAndGet();
+
+                respond(out, handle(requestLine, body, System.nanoTime()));
+                if (close) {
+                    break;
+                }
+            }
+        } catch (SocketException ignore) {
+            // client went away or the server stopped
+        } catch (IOException ignore) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    private Response handle(String requestLine, byte[] body, long receivedNanos) {
+        if (responseDelayMs > 0) {
+            try {
+                Thread.sleep(responseDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // GET /publish/<pub>/<sub>/<signature>/<channel>/<callback>/<message>?<query> HTTP/1.1
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 2) {
+            return new Response(400, PUBLISH_ERROR);
+        }
+        String path = parts[1];
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        String[] segments = path.split("/");
+        if (segments.length < 2 || !"publish".equals(segments[1])) {
+            return new Response(200, "[]");
+        }
+
+        synchronized (failureLock) {
+            failureCredit += failureRate;
+            if (failureCredit >= 1) {
+                failureCredit -= 1;
+                failuresInjected.incrementAndGet();
+                return new Response(500, PUBLISH_ERROR);
+            }
+        }
+
+        try {
+            String channel = decode(segments[5]);
+            String message = segments.length > 7 ? decode(segments[7]) : new String(body, "UTF-8");
+            listener.onMessage(channel, new JSONTokener(message).nextValue(), receivedNanos);
+        } catch (JSONException e) {
+            return new Response(400, PUBLISH_ERROR);
+        } catch (RuntimeException e) {
+            return new Response(400, PUBLISH_ERROR);
+        } catch (UnsupportedEncodingException e) {
+            return new Response(400, PUBLISH_ERROR);
+        }
+        // timetokens are tenths of a microsecond since the epoch
+        return new Response(200, String.format(PUBLISH_OK, System.currentTimeMillis() * 10000L));
+    }
+
+    private static String decode(String segment) throws UnsupportedEncodingException {
+        return URLDecoder.decode(segment.replace("+", "%2B"), "UTF-8");
+    }
+
+    private static void respond(OutputStream out, Response response) throws IOException {
+        int status = response.status;
+        byte[] body = response.body.getBytes("UTF-8");
+        String reason = status == 200 ? "OK" : status == 500 ? "Internal Server Error" : "Bad Request";
+        String head = "HTTP/1.1 " + status + " " + reason + "\r\n"
+                + "Content-Type: text/javascript; charset=\"UTF-8\"\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "Connection: keep-alive\r\n\r\n";
+        out.write(head.getBytes("US-ASCII"));
+        out.write(body);
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int end = line.length();
+                if (end > 0 && line.charAt(end - 1) == '\r') {
+                    line.setLength(end - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    private static byte[] readBody(InputStream in, int length) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(length);
+        byte[] buffer = new byte[Math.max(1, Math.min(length, 8192))];
+        while (body.size() < length) {
+            int read = in.read(buffer, 0, Math.min(buffer.length, length - body.size()));
+            if (read < 0) {
+                break;
+            }
+            body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+}
@@ -0,0 +1,276 @@
+package com.stevezeidner.movementgauge;
+
+import com.stevezeidner.movementgauge.core.Constants;
+import com.stevezeidner.movementgauge.engine.PipelineLatency;
+import com.stevezeidner.movementgauge.network.PipelinedPublisher;
+import com.stevezeidner.movementgauge.network.PublishJournal;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+public class PipelinedPublisherTest extends TestCase {
+    private File directory;
+
+    /**
+     * Transport that holds every message until the test completes it
+     */
+    private static class ManualTransport implements PipelinedPublisher.Transport {
+        final List<JSONArray> messages = new ArrayList<JSONArray>();
+        final List<List<PublishJournal.Entry>> entries = new ArrayList<List<PublishJournal.Entry>>();
+        final List<PipelinedPublisher.Completion> completions = new ArrayList<PipelinedPublisher.Completion>();
+
+        @Override
+        public synchronized void send(JSONArray message, List<PublishJournal.Entry> messageEntries,
+                                      PipelinedPublisher.Completion completion) {
+            messages.add(message);
+            entries.add(messageEntries);
+            completions.add(completion);
+            notifyAll();
+        }
+
+        synchronized void awaitMessages(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (messages.size() < count && System.currentTimeMillis() < deadline) {
+                wait(50);
+            }
+            assertTrue("expected " + count + " messages, got " + messages.size(), messages.size() >= count);
+        }
+
+        synchronized PipelinedPublisher.Completion completion(int index) {
+            return completions.get(index);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("pipeline", "");
+        directory.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void awaitCondition(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.holds() && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertTrue(condition.holds());
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    public void testKeepsWindowOfMessagesInFlight() throws Exception {
+        ManualTransport transport = new ManualTransport();
+        final PipelinedPublisher publisher = new PipelinedPublisher(directory, transport, 2);
+        publisher.publish("a");
+        publisher.publish("b");
+        transport.awaitMessages(2);
+
+        // window is full, so this one waits
+        publisher.publish("c");
+        awaitCondition(new Condition() {
+            @Override
+            public boolean holds() {
+                return publisher.isSaturated();
+            }
+        });
+        assertEquals(2, publisher.getMessagesSent());
+
+        transport.completion(0).onSuccess();
+        transport.awaitMessages(3);
+        assertEquals("c", transport.messages.get(2).getString(0));
+        publisher.shutdown();
+    }
+
+    public void testCoalescesWhileSaturated() throws Exception {
+        ManualTransport transport = new ManualTransport();
+        PipelinedPublisher publisher = new PipelinedPublisher(directory, transport, 1);
+        publisher.publish("a");
+        transport.awaitMessages(1);
+        publisher.publish("b");
+        publisher.publish("c");
+        publisher.publish("d");
+
+        transport.completion(0).onSuccess();
+        transport.awaitMessages(2);
+        JSONArray second = transport.messages.get(1);
+        assertEquals(3, second.length());
+        assertEquals("b", second.getString(0));
+        assertEquals("d", second.getString(2));
+        publisher.shutdown();
+    }
+
+    public void testFailedMessageIsRetriedAndBacksOff() throws Exception {
+        ManualTransport transport = new ManualTransport();
+        final PipelinedPublisher publisher = new PipelinedPublisher(directory, transport, 2);
+        publisher.publish("a");
+        transport.awaitMessages(1);
+
+        transport.completion(0).onFailure();
+        awaitCondition(new Condition() {
+            @Override
+            public boolean holds() {
+                return publisher.getFailureCount() == 1 && publisher.isSaturated();
+            }
+        });
+
+        // retried after the initial backoff
+        transport.awaitMessages(2);
+        assertEquals("a", transport.messages.get(1).getString(0));
+        transport.completion(1).onSuccess();
+        awaitCondition(new Condition() {
+            @Override
+            public boolean holds() {
+                return publisher.getBatchesAcknowledged() == 1;
+            }
+        });
+        publisher.shutdown();
+    }
+
+    public void testRetryCoalescesBatchesJournaledDuringBackoff() throws Exception {
+        ManualTransport transport = new ManualTransport();
+        final PipelinedPublisher publisher = new PipelinedPublisher(directory, transport, 2);
+        publisher.publish("a");
+        transport.awaitMessages(1);
+        publisher.publish("b");
+        transport.awaitMessages(2);
+
+        // "b" is still in flight when "a" fails, so only "a" and what follows is resent
+        transport.completion(0).onFailure();
+        awaitCondition(new Condition() {
+            @Override
+            public boolean holds() {
+                return publisher.getFailureCount() == 1;
+            }
+        });
+        publisher.publish("c");
+        publisher.publish("d");
+
+        transport.awaitMessages(3);
+        JSONArray retry = transport.messages.get(2);
+        assertEquals(3, retry.length());
+        assertEquals("a", retry.getString(0));
+        assertEquals("c", retry.getString(1));
+        assertEquals("d", retry.getString(2));
+        publisher.shutdown();
+    }
+
+    public void testShutdownDropsPendingRetry() throws Exception {
+        ManualTransport transport = new ManualTransport();
+        final PipelinedPublisher publisher = new PipelinedPublisher(directory, transport, 1);
+        publisher.publish("a");
+        transport.awaitMessages(1);
+
+        transport.completion(0).onFailure();
+        awaitCondition(new Condition() {
+            @Override
+            public boolean holds() {
+                return publisher.getFailureCount() == 1;
+            }
+        });
+        publisher.shutdown();
+
+        // the retry would have gone out after the initial backoff
+        TimeUnit.MILLISECONDS.sleep(Constants.PUBLISH_RETRY_INITIAL_MS * 2);
+        assertEquals(1, transport.messages.size());
+    }
+
+    public void testSecondPublisherWaitsForTheFirst() throws Exception {
+        ManualTransport first = new ManualTransport();
+        PipelinedPublisher old = new PipelinedPublisher(directory, first, 1);
+        old.publish("a");
+        first.awaitMessages(1);
+
+        ManualTransport second = new ManualTransport();
+        PipelinedPublisher current = new PipelinedPublisher(directory, second, 1);
+        current.publish("b");
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertTrue(second.messages.isEmpty());
+
+        // the unacknowledged batch goes out first, and the new one is numbered after it
+        old.shutdown();
+        second.awaitMessages(1);
+        assertEquals("a", second.messages.get(0).getString(0));
+        second.completion(0).onSuccess();
+        second.awaitMessages(2);
+        assertEquals("b", second.messages.get(1).getString(0));
+        assertTrue(second.entries.get(1).get(0).sequence > second.entries.get(0).get(0).sequence);
+        current.shutdown();
+    }
+
+    public void testRecordsFlushToAckPerBatch() throws Exception {
+        ManualTransport transport = new ManualTransport();
+        final PipelinedPublisher publisher = new PipelinedPublisher(directory, transport, 1);
+        final PipelineLatency latency = new PipelineLatency();
+        publisher.setLatency(latency);
+        long before = System.currentTimeMillis();
+        publisher.publish("a");
+        transport.awaitMessages(1);
+        publisher.publish("b");
+        publisher.publish("c");
+
+        transport.completion(0).onSuccess();
+        transport.awaitMessages(2);
+        List<PublishJournal.Entry> second = transport.entries.get(1);
+        assertEquals(2, second.size());
+        assertEquals(transport.entries.get(0).get(0).sequence + 1, second.get(0).sequence);
+        assertEquals(second.get(0).sequence + 1, second.get(1).sequence);
+        assertTrue(second.get(0).getFlushedAtMs() >= before);
+
+        transport.completion(1).onSuccess();
+        awaitCondition(new Condition() {
+            @Override
+            public boolean holds() {
+                return latency.getHistogram(PipelineLatency.STAGE_FLUSH_TO_ACK).getCount() == 3;
+            }
+        });
+        publisher.shutdown();
+    }
+
+    public void testSharedThreadOutlivesOnePublisher() throws Exception {
+        ScheduledExecutorService shared = Executors.newSingleThreadScheduledExecutor();
+        ManualTransport first = new ManualTransport();
+        ManualTransport second = new ManualTransport();
+        PipelinedPublisher one = new PipelinedPublisher(new File(directory, "one"), first, 1, shared);
+        PipelinedPublisher two = new PipelinedPublisher(new File(directory, "two"), second, 1, shared);
+        one.publish("a");
+        two.publish("b");
+        first.awaitMessages(1);
+        second.awaitMessages(1);
+
+        one.shutdown();
+        second.completion(0).onSuccess();
+        two.publish("c");
+        second.awaitMessages(2);
+        assertEquals("c", second.messages.get(1).getString(0));
+        assertFalse(shared.isShutdown());
+
+        two.shutdown();
+        shared.shutdown();
+        assertTrue(shared.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,94 @@
+package com.stevezeidner.movementgauge;
+
+import com.stevezeidner.movementgauge.network.PublishJournal;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+
+public class PublishJournalTest extends TestCase {
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("journal", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    public void testEntriesSurviveReopen() throws IOException {
+        PublishJournal journal = new PublishJournal(directory, 1024);
+        journal.append("first");
+        journal.append("second");
+
+        PublishJournal reopened = new PublishJournal(directory, 1024);
+        List<PublishJournal.Entry> entries = reopened.peek(10, 1024);
+        assertEquals(2, entries.size());
+        assertEquals("first", entries.get(0).getPayload());
+        assertEquals("second", entries.get(1).getPayload());
+
+        // new entries continue after the recovered ones
+        reopened.append("third");
+        assertEquals("third", reopened.peek(10, 1024).get(2).getPayload());
+    }
+
+    public void testSequencesKeepIncreasingAfterDrainAndReopen() throws IOException {
+        PublishJournal journal = new PublishJournal(directory, 1024);
+        journal.append("a");
+        PublishJournal.Entry last = journal.append("b");
+        journal.remove(journal.peek(10, 1024));
+        assertEquals(0, journal.size());
+
+        PublishJournal reopened = new PublishJournal(directory, 1024);
+        assertTrue(reopened.append("c").sequence > last.sequence);
+    }
+
+    public void testRemoveAcknowledged() throws IOException {
+        PublishJournal journal = new PublishJournal(directory, 1024);
+        journal.append("a");
+        journal.append("b");
+        journal.append("c");
+
+        journal.remove(journal.peek(2, 1024));
+        assertEquals(1, journal.size());
+        assertEquals("c", new PublishJournal(directory, 1024).peek(10, 1024).get(0).getPayload());
+    }
+
+    public void testPeekCoalescesWithinByteLimit() throws IOException {
+        PublishJournal journal = new PublishJournal(directory, 1024);
+        journal.append("0123456789");
+        journal.append("0123456789");
+        journal.append("0123456789");
+
+        assertEquals(2, journal.peek(10, 25).size());
+        // a single oversized entry still goes out on its own
+        assertEquals(1, journal.peek(10, 5).size());
+    }
+
+    public void testOldestEntriesEvictedOverBudget() throws IOException {
+        PublishJournal journal = new PublishJournal(directory, 25);
+        journal.append("0123456789");
+        journal.append("abcdefghij");
+        journal.append("ABCDEFGHIJ");
+
+        assertEquals(2, journal.size());
+        assertEquals(1, journal.getEvictedCount());
+        assertEquals("abcdefghij", journal.peek(10, 1024).get(0).getPayload());
+    }
+}
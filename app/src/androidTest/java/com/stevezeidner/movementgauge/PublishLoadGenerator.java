@@ -0,0 +1,521 @@
+package com.stevezeidner.movementgauge;
+
+import com.stevezeidner.movementgauge.core.Constants;
+import com.stevezeidner.movementgauge.engine.AdaptiveFlushPolicy;
+import com.stevezeidner.movementgauge.engine.ChannelShards;
+import com.stevezeidner.movementgauge.engine.FleetAggregator;
+import com.stevezeidner.movementgauge.engine.FleetSnapshot;
+import com.stevezeidner.movementgauge.engine.LatencyHistogram;
+import com.stevezeidner.movementgauge.engine.MovementEngine;
+import com.stevezeidner.movementgauge.engine.SampleBatchCodec;
+import com.stevezeidner.movementgauge.engine.SampleBatcher;
+import com.stevezeidner.movementgauge.engine.SampleSink;
+import com.stevezeidner.movementgauge.engine.SwingingDoorCompressor;
+import com.stevezeidner.movementgauge.engine.TraceReader;
+import com.stevezeidner.movementgauge.network.BatchEnvelope;
+import com.stevezeidner.movementgauge.network.PipelinedPublisher;
+import com.stevezeidner.movementgauge.network.PubNub;
+
+import org.json.JSONArray;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs many simulated devices through the app's publish path at once and measures what reaches a
+ * {@link LocalPubNubServer}. Every device replays an accelerometer trace in real time through its
+ * own {@link MovementEngine}, batches the output the way MainActivity does (adaptive flushing,
+ * swinging-door reduction, backpressure) and publishes through its own {@link PubNub} wrapper and
+ * journal. Sample timestamps come from System.nanoTime(), so the server can tell how long each
+ * point took from the sensor to the endpoint, and feeds everything into a {@link FleetAggregator}
+ * the way a subscriber would.
+ *
+ * Devices share a few PubNub clients and publish threads, and each batch buffer only holds what
+ * a device produces in twice the latency target, so a device costs little more than its engine,
+ * batcher and journal and thousands of them fit in one process. Nothing here needs a device
+ * either; the run works the same on a JVM host.
+ */
+class PublishLoadGenerator {
+    private static final String CHANNEL = Constants.PUBNUB_CHANNEL;
+    private static final long TICK_MS = 20;
+    private static final long DRAIN_TIMEOUT_MS = 60000;
+    private static final int CLIENTS = 8;
+
+    /**
+     * Raw accelerometer samples that devices replay in a loop
+     */
+    static class Trace {
+        final float[] x;
+        final float[] y;
+        final float[] z;
+        final int length;
+        final long periodNanos;
+
+        Trace(float[] x, float[] y, float[] z, int length, long periodNanos) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.length = length;
+            this.periodNanos = periodNanos;
+        }
+
+        /**
+         * Someone alternating between sitting still and walking, with sensor noise throughout
+         *
+         * @param seconds length of the loop
+         * @param rateHz  sampling rate
+         * @param seed    random seed
+         */
+        static Trace synthetic(int seconds, int rateHz, long seed) {
+            int length = seconds * rateHz;
+            float[] x = new float[length];
+            float[] y = new float[length];
+            float[] z = new float[length];
+            Random random = new Random(seed);
+
+            boolean walking = false;
+            int phaseEnd = 0;
+            float stepHz = 2.0f;
+            float amplitude = 0;
+            for (int i = 0; i < length; i++) {
+                if (i >= phaseEnd) {
+                    walking = !walking;
+                    phaseEnd = i + rateHz * (2 + random.nextInt(6));
+                    stepHz = 1.6f + random.nextFloat() * 0.8f;
+                    amplitude = walking ? 2.0f + random.nextFloat() * 3.0f : 0;
+                }
+                double t = (double) i / rateHz;
+                float bounce = (float) (amplitude * Math.sin(2 * Math.PI * stepHz * t));
+                float sway = (float) (amplitude * 0.4 * Math.sin(Math.PI * stepHz * t));
+                x[i] = sway + (float) random.nextGaussian() * 0.05f;
+                y[i] = 0.3f + (float) random.nextGaussian() * 0.05f;
+                z[i] = 9.81f + bounce + (float) random.nextGaussian() * 0.05f;
+            }
+            return new Trace(x, y, z, length, 1000000000L / rateHz);
+        }
+
+        /**
+         * Load a recorded trace. Devices replay it at its average sampling rate.
+         *
+         * @param in trace written by TraceWriter; closed when done
+         */
+        static Trace recorded(InputStream in) throws IOException {
+            TraceReader reader = new TraceReader(in);
+            try {
+                int capacity = 1024;
+                long[] timestamps = new long[capacity];
+                float[] x = new float[capacity];
+                float[] y = new float[capacity];
+                float[] z = new float[capacity];
+                int length = 0;
+                while (reader.next()) {
+                    if (length == capacity) {
+                        capacity *= 2;
+                        timestamps = copyOf(timestamps, capacity);
+                        x = copyOf(x, capacity);
+                        y = copyOf(y, capacity);
+                        z = copyOf(z, capacity);
+                    }
+                    timestamps[length] = reader.getTimestamp();
+                    x[length] = reader.getX();
+                    y[length] = reader.getY();
+                    z[length] = reader.getZ();
+                    length++;
+                }
+                if (length < 2) {
+                    throw new IOException("Trace needs at least two samples");
+                }
+                long period = Math.max(1, (timestamps[length - 1] - timestamps[0]) / (length - 1));
+                return new Trace(x, y, z, length, period);
+            } finally {
+                reader.close();
+            }
+        }
+
+        private static long[] copyOf(long[] array, int length) {
+            long[] copy = new long[length];
+            System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+            return copy;
+        }
+
+        private static float[] copyOf(float[] array, int length) {
+            float[] copy = new float[length];
+            System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+            return copy;
+        }
+    }
+
+    /**
+     * Figures from one run
+     */
+    static class Report {
+        int devices;
+        long durationMs;
+
+        long samplesGenerated;
+        long batchesPublished;
+        long payloadBytes; // encoded batches as handed to the publisher
+
+        long messagesAcknowledged;
+        long messagesFailed;
+        long requests;
+        long failuresInjected;
+        long wireBytes; // everything the server read, HTTP overhead included
+
+        long batchesReceived; // distinct batches, by device and journal sequence
+        long duplicateBatches; // batches received again after an at-least-once retry
+        long pointsReceived;
+        int channels; // channels that carried messages
+        long busiestChannelMessages;
+        boolean drained; // every published batch arrived before the drain timeout
+
+        final LatencyHistogram endToEndNanos = new LatencyHistogram();
+        final LatencyHistogram roundTripMs = new LatencyHistogram();
+        FleetSnapshot fleet;
+
+        double getSamplesPerSecond() {
+            return durationMs == 0 ? 0 : samplesGenerated * 1000.0 / durationMs;
+        }
+
+        double getMessagesPerSecond() {
+            return durationMs == 0 ? 0 : (messagesAcknowledged + messagesFailed) * 1000.0 / durationMs;
+        }
+
+        double getErrorRate() {
+            long messages = messagesAcknowledged + messagesFailed;
+            return messages == 0 ? 0 : (double) messagesFailed / messages;
+        }
+
+        double getWireBytesPerSample() {
+            return samplesGenerated == 0 ? 0 : (double) wireBytes / samplesGenerated;
+        }
+
+        double getPayloadBytesPerSample() {
+            return samplesGenerated == 0 ? 0 : (double) payloadBytes / samplesGenerated;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            out.append("devices: ").append(devices).append(" duration: ").append(durationMs).append("ms\n");
+            out.append(String.format("throughput: %.0f samples/s, %.1f messages/s, %.0f wire bytes/s\n",
+                    getSamplesPerSecond(), getMessagesPerSecond(),
+                    durationMs == 0 ? 0.0 : wireBytes * 1000.0 / durationMs));
+            out.append(String.format("end to end: p50=%dms p90=%dms p99=%dms max=%dms (%d points)\n",
+                    endToEndNanos.getValueAtPercentile(50) / 1000000,
+                    endToEndNanos.getValueAtPercentile(90) / 1000000,
+                    endToEndNanos.getValueAtPercentile(99) / 1000000,
+                    endToEndNanos.getMax() / 1000000, endToEndNanos.getCount()));
+            out.append(String.format("publish round trip: p50=%dms p99=%dms max=%dms\n",
+                    roundTripMs.getValueAtPercentile(50), roundTripMs.getValueAtPercentile(99),
+                    roundTripMs.getMax()));
+            out.append(String.format("errors: %d of %d messages (%.2f%%), %d injected\n",
+                    messagesFailed, messagesAcknowledged + messagesFailed, getErrorRate() * 100,
+                    failuresInjected));
+            out.append(String.format("bytes per sample: %.3f on the wire, %.3f payload\n",
+                    getWireBytesPerSample(), getPayloadBytesPerSample()));
+            out.append(String.format("channels: %d, busiest %.1f messages/s\n", channels,
+                    durationMs == 0 ? 0.0 : busiestChannelMessages * 1000.0 / durationMs));
+            out.append("samples: ").append(samplesGenerated).append(" points: ").append(pointsReceived)
+                    .append(" batches: ").append(batchesReceived).append('/').append(batchesPublished)
+                    .append(" duplicates: ").append(duplicateBatches)
+                    .append(drained ? "" : " (not drained)");
+            if (fleet != null) {
+                out.append('\n').append(fleet);
+            }
+            return out.toString();
+        }
+    }
+
+    private final File workDirectory;
+    private int deviceCount = 20;
+    private int shardCount = 1;
+    private Trace trace;
+    private float failureRate = 0;
+    private int responseDelayMs = 0;
+
+    // shared by every device and the server
+    private final AtomicLong samplesGenerated = new AtomicLong();
+    private final AtomicLong batchesPublished = new AtomicLong();
+    private final AtomicLong payloadBytes = new AtomicLong();
+    private final AtomicLong messagesAcknowledged = new AtomicLong();
+    private final AtomicLong messagesFailed = new AtomicLong();
+    private final AtomicLong batchesReceived = new AtomicLong();
+    private final AtomicLong duplicateBatches = new AtomicLong();
+    private final ConcurrentHashMap<String, Boolean> batchesSeen = new ConcurrentHashMap<String, Boolean>();
+    private final AtomicLong pointsReceived = new AtomicLong();
+    private final ConcurrentHashMap<String, AtomicLong> channelMessages = new ConcurrentHashMap<String, AtomicLong>();
+    private Report report;
+    private FleetAggregator fleet;
+
+    /**
+     * @param workDirectory parent of each device's publish journal
+     */
+    PublishLoadGenerator(File workDirectory) {
+        this.workDirectory = workDirectory;
+    }
+
+    void setDeviceCount(int deviceCount) {
+        this.deviceCount = deviceCount;
+    }
+
+    /**
+     * @param shardCount channels the devices are spread over by id
+     */
+    void setShardCount(int shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * @param trace replayed by every device from a different starting point; a synthetic 60
+     *              second trace at 50Hz by default
+     */
+    void setTrace(Trace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * @param failureRate share of publish requests the server fails, 0 to 1
+     */
+    void setFailureRate(float failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    void setResponseDelayMs(int responseDelayMs) {
+        this.responseDelayMs = responseDelayMs;
+    }
+
+    /**
+     * Generate load for the given time, flush every device, then wait for the server to receive
+     * everything that was published
+     *
+     * @param durationMs how long devices produce samples
+     */
+    Report run(long durationMs) throws IOException, InterruptedException {
+        if (trace == null) {
+            trace = Trace.synthetic(60, 50, 1);
+        }
+        report = new Report();
+        report.devices = deviceCount;
+        fleet = new FleetAggregator(Constants.FLEET_WINDOW_MS, Constants.FLEET_WINDOW_SLOTS,
+                Constants.FLEET_BIN_WIDTH, Constants.FLEET_BIN_COUNT, Constants.FLEET_STRIPES);
+
+        LocalPubNubServer server = new LocalPubNubServer(new LocalPubNubServer.MessageListener() {
+            @Override
+            public void onMessage(String channel, Object message, long receivedNanos) {
+                onServerMessage(channel, message, receivedNanos);
+            }
+        });
+        server.setFailureRate(failureRate);
+        server.setResponseDelayMs(responseDelayMs);
+        server.start();
+
+        // devices share clients and publish threads round robin
+        int threads = Math.min(deviceCount, Math.max(1, Runtime.getRuntime().availableProcessors()));
+        List<PubNub> clients = new ArrayList<PubNub>();
+        for (int i = 0; i < Math.min(deviceCount, CLIENTS); i++) {
+            PubNub client = new PubNub(Constants.PUBNUB_PUB, Constants.PUBNUB_SUB, Constants.PUBNUB_SEC,
+                    false, CHANNEL);
+            client.setOrigin("127.0.0", "1:" + server.getPort());
+            clients.add(client);
+        }
+        List<ScheduledExecutorService> publishThreads = new ArrayList<ScheduledExecutorService>();
+        for (int i = 0; i < threads; i++) {
+            publishThreads.add(Executors.newSingleThreadScheduledExecutor());
+        }
+
+        // enough for twice the samples a device produces within the latency target
+        int batchCapacity = (int) Math.min(Constants.PUBLISH_BATCH_MAX,
+                2 * Constants.PUBLISH_MAX_LATENCY_MS * 1000000L / trace.periodNanos);
+
+        ChannelShards shards = new ChannelShards(CHANNEL, shardCount);
+        List<Device> devices = new ArrayList<Device>();
+        Random random = new Random(deviceCount);
+        for (int i = 0; i < deviceCount; i++) {
+            devices.add(new Device("device-" + i, new File(workDirectory, "device-" + i),
+                    clients.get(i % clients.size()), publishThreads.get(i % publishThreads.size()),
+                    shards, batchCapacity, random.nextInt(trace.length)));
+        }
+
+        // split the devices over a few driver threads; each device is only ever stepped by one
+        ScheduledExecutorService drivers = Executors.newScheduledThreadPool(threads);
+        final long startNanos = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final List<Device> share = new ArrayList<Device>();
+            for (int i = t; i < devices.size(); i += threads) {
+                share.add(devices.get(i));
+            }
+            drivers.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    long now = System.nanoTime();
+                    for (Device device : share) {
+                        device.step(startNanos, now);
+                    }
+                }
+            }, 0, TICK_MS, TimeUnit.MILLISECONDS);
+        }
+
+        Thread.sleep(durationMs);
+        drivers.shutdown();
+        drivers.awaitTermination(10, TimeUnit.SECONDS);
+        report.durationMs = (System.nanoTime() - startNanos) / 1000000;
+
+        for (Device device : devices) {
+            device.batcher.flush(System.currentTimeMillis());
+        }
+
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+        while (batchesReceived.get() < batchesPublished.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        report.drained = batchesReceived.get() >= batchesPublished.get();
+
+        for (Device device : devices) {
+            device.pubnub.shutdown();
+        }
+        for (ScheduledExecutorService publishThread : publishThreads) {
+            publishThread.shutdown();
+            publishThread.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        for (PubNub client : clients) {
+            client.shutdown();
+        }
+        server.stop();
+
+        report.samplesGenerated = samplesGenerated.get();
+        report.batchesPublished = batchesPublished.get();
+        report.payloadBytes = payloadBytes.get();
+        report.messagesAcknowledged = messagesAcknowledged.get();
+        report.messagesFailed = messagesFailed.get();
+        report.requests = server.getRequestCount();
+        report.failuresInjected = server.getFailuresInjected();
+        report.wireBytes = server.getBytesReceived();
+        report.batchesReceived = batchesReceived.get();
+        report.duplicateBatches = duplicateBatches.get();
+        report.pointsReceived = pointsReceived.get();
+        report.channels = channelMessages.size();
+        for (AtomicLong messages : channelMessages.values()) {
+            report.busiestChannelMessages = Math.max(report.busiestChannelMessages, messages.get());
+        }
+        report.fleet = fleet.snapshot(Constants.FLEET_MOST_ACTIVE, System.currentTimeMillis());
+        return report;
+    }
+
+    private void onServerMessage(String channel, Object message, long receivedNanos) {
+        JSONArray batches = BatchEnvelope.getBatches(message);
+        if (batches == null) {
+            return;
+        }
+        AtomicLong messages = channelMessages.get(channel);
+        if (messages == null) {
+            channelMessages.putIfAbsent(channel, new AtomicLong());
+            messages = channelMessages.get(channel);
+        }
+        messages.incrementAndGet();
+
+        String deviceId = BatchEnvelope.getDeviceId(message, channel);
+        JSONArray sequences = BatchEnvelope.getSequences(message);
+        long nowMs = System.currentTimeMillis();
+        for (int i = 0; i < batches.length(); i++) {
+            // a retry may deliver a batch again; only the first copy counts toward draining
+            if (sequences == null || batchesSeen.putIfAbsent(deviceId + ':' + sequences.optLong(i), Boolean.TRUE) == null) {
+                batchesReceived.incrementAndGet();
+            } else {
+                duplicateBatches.incrementAndGet();
+            }
+
+            SampleBatchCodec.Batch batch = SampleBatchCodec.decode(batches.optString(i));
+            for (int j = 0; j < batch.count; j++) {
+                report.endToEndNanos.record(receivedNanos - batch.timestamps[j]);
+            }
+            fleet.ingest(deviceId, batch.timestamps, batch.values, batch.count, nowMs);
+            pointsReceived.addAndGet(batch.count);
+        }
+    }
+
+    /**
+     * One simulated phone: engine, batcher and PubNub wrapper wired like MainActivity, on a shared
+     * client and publish thread
+     */
+    private class Device implements SampleSink {
+        final MovementEngine engine = new MovementEngine();
+        final PubNub pubnub;
+        final SampleBatcher batcher;
+        final int phase; // trace index this device starts from
+        long nextSample = 0;
+        long nowMs;
+
+        Device(String deviceId, File journalDirectory, PubNub client, ScheduledExecutorService publishThread,
+               ChannelShards shards, int batchCapacity, int phase) {
+            this.phase = phase;
+
+            pubnub = new PubNub(client, journalDirectory, publishThread);
+            pubnub.setDeviceId(deviceId);
+            pubnub.setShards(shards);
+
+            final AdaptiveFlushPolicy flushPolicy = new AdaptiveFlushPolicy(
+                    Constants.PUBLISH_BATCH_TARGET_BYTES,
+                    Constants.PUBLISH_MAX_LATENCY_MS,
+                    Constants.PUBLISH_MIN_INTERVAL_MS
+            );
+            pubnub.setPublishListener(new PipelinedPublisher.Listener() {
+                @Override
+                public void onMessageResult(long roundTripMs, boolean success) {
+                    flushPolicy.onPublishResult(roundTripMs, success);
+                    report.roundTripMs.record(roundTripMs);
+                    (success ? messagesAcknowledged : messagesFailed).incrementAndGet();
+                }
+            });
+            batcher = new SampleBatcher(
+                    batchCapacity,
+                    flushPolicy,
+                    new SampleBatcher.BatchPublisher() {
+                        @Override
+                        public void publish(String batch) {
+                            batchesPublished.incrementAndGet();
+                            payloadBytes.addAndGet(batch.length());
+                            pubnub.Publish(batch);
+                        }
+                    }
+            );
+            batcher.setReducer(new SwingingDoorCompressor(Constants.PUBLISH_MAX_ERROR));
+            batcher.setBackpressure(new SampleBatcher.Backpressure() {
+                @Override
+                public boolean isSaturated() {
+                    return pubnub.isPublishSaturated();
+                }
+            });
+        }
+
+        /**
+         * Feed every trace sample that has come due since the last step
+         */
+        void step(long startNanos, long nowNanos) {
+            nowMs = System.currentTimeMillis();
+            long produced = 0;
+            long timestamp;
+            while ((timestamp = startNanos + nextSample * trace.periodNanos) <= nowNanos) {
+                int i = (int) ((phase + nextSample) % trace.length);
+                engine.process(timestamp, trace.x[i], trace.y[i], trace.z[i], this);
+                nextSample++;
+                produced++;
+            }
+            samplesGenerated.addAndGet(produced);
+        }
+
+        @Override
+        public void onSample(long timestamp, float sample, float cumulative) {
+            batcher.add(timestamp, sample, nowMs);
+        }
+    }
+}
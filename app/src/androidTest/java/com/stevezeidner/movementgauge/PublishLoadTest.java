@@ -0,0 +1,75 @@
+package com.stevezeidner.movementgauge;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Publish load runs against a local PubNub stand-in. The figures go to the log under this class's
+ * name; raise the device count and duration for a real measurement.
+ */
+public class PublishLoadTest extends TestCase {
+    private static final String LOG_TAG = PublishLoadTest.class.getSimpleName();
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("load", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(directory);
+        super.tearDown();
+    }
+
+    public void testEveryBatchArrives() throws Exception {
+        PublishLoadGenerator generator = new PublishLoadGenerator(directory);
+        generator.setDeviceCount(20);
+        generator.setShardCount(4);
+        PublishLoadGenerator.Report report = generator.run(5000);
+        Log.i(LOG_TAG, report.toString());
+
+        assertTrue(report.drained);
+        assertTrue(report.samplesGenerated > 0);
+        assertTrue(report.pointsReceived > 0);
+        assertEquals(report.batchesPublished, report.batchesReceived);
+        assertEquals(0, report.messagesFailed);
+        assertEquals(report.pointsReceived, report.endToEndNanos.getCount());
+        assertTrue(report.getWireBytesPerSample() > report.getPayloadBytesPerSample());
+        assertEquals(20, report.fleet.activeDevices);
+        assertEquals(4, report.channels);
+        assertEquals(report.pointsReceived, report.fleet.samplesIngested);
+    }
+
+    public void testFailedPublishesAreRetried() throws Exception {
+        PublishLoadGenerator generator = new PublishLoadGenerator(directory);
+        generator.setDeviceCount(10);
+        generator.setFailureRate(0.2f);
+        generator.setResponseDelayMs(20);
+        PublishLoadGenerator.Report report = generator.run(5000);
+        Log.i(LOG_TAG, report.toString());
+
+        assertTrue(report.drained);
+        assertTrue(report.failuresInjected > 0);
+        assertEquals(report.failuresInjected, report.messagesFailed);
+        assertTrue(report.getErrorRate() > 0);
+        assertEquals(report.batchesPublished, report.batchesReceived);
+        assertTrue(report.roundTripMs.getValueAtPercentile(50) >= 20);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,65 @@
+package com.stevezeidner.movementgauge;
+
+import com.stevezeidner.movementgauge.ui.RenderStats;
+
+import junit.framework.TestCase;
+
+
+public class RenderStatsTest extends TestCase {
+    private static final long MS = 1000000L;
+
+    public void testStageTimings() {
+        RenderStats stats = new RenderStats();
+        stats.recordStage(RenderStats.STAGE_NEEDLE, 0, 2 * MS);
+        stats.recordStage(RenderStats.STAGE_NEEDLE, 10 * MS, 14 * MS);
+
+        assertEquals(2, stats.getStageCount(RenderStats.STAGE_NEEDLE));
+        assertEquals(3 * MS, stats.getStageAverageNanos(RenderStats.STAGE_NEEDLE));
+        assertEquals(4 * MS, stats.getStageMaxNanos(RenderStats.STAGE_NEEDLE));
+        assertEquals(4 * MS, stats.getStageLastNanos(RenderStats.STAGE_NEEDLE));
+        assertEquals(0, stats.getStageCount(RenderStats.STAGE_DRAW));
+    }
+
+    public void testCountsDroppedFrames() {
+        RenderStats stats = new RenderStats();
+        stats.setRefreshRate(60.0f);
+        stats.recordFrameInterval(16 * MS);
+        stats.recordFrameInterval(17 * MS);
+        assertEquals(0, stats.getDroppedFrameCount());
+
+        // two frames missed
+        stats.recordFrameInterval(50 * MS);
+        assertEquals(2, stats.getDroppedFrameCount());
+        assertEquals(3, stats.getFrameCount());
+    }
+
+    public void testFrameIntervalHistogram() {
+        RenderStats stats = new RenderStats();
+        for (int i = 0; i < 99; i++) {
+            stats.recordFrameInterval(16 * MS + MS / 2);
+        }
+        stats.recordFrameInterval(1000 * MS);
+
+        int[] histogram = new int[RenderStats.HISTOGRAM_BINS];
+        stats.getFrameIntervalHistogram(histogram);
+        assertEquals(99, histogram[8]);
+        assertEquals(1, histogram[RenderStats.HISTOGRAM_BINS - 1]);
+        assertEquals(18 * MS, stats.getFrameIntervalPercentileNanos(50));
+        assertEquals(18 * MS, stats.getFrameIntervalPercentileNanos(99));
+    }
+
+    public void testSummaryAndReset() {
+        RenderStats stats = new RenderStats();
+        stats.recordStage(RenderStats.STAGE_REGENERATE, 0, 1234567);
+        stats.recordLayerRendered();
+
+        StringBuilder summary = new StringBuilder();
+        stats.appendSummary(summary);
+        assertTrue(summary.toString().contains("regenerate: n=1 avg=1.23ms max=1.23ms"));
+        assertTrue(summary.toString().contains("layers rendered: 1"));
+
+        stats.reset();
+        assertEquals(0, stats.getStageCount(RenderStats.STAGE_REGENERATE));
+        assertEquals(0, stats.getLayersRendered());
+    }
+}
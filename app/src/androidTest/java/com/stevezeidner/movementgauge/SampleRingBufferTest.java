@@ -0,0 +1,86 @@
+package com.stevezeidner.movementgauge;
+
+import com.stevezeidner.movementgauge.engine.LatencyHistogram;
+import com.stevezeidner.movementgauge.service.SampleRingBuffer;
+
+import junit.framework.TestCase;
+
+
+public class SampleRingBufferTest extends TestCase {
+
+    private static class Collector implements SampleRingBuffer.Consumer {
+        int count = 0;
+        long lastTimestamp;
+        float lastSample;
+        float lastCumulative;
+
+        @Override
+        public void onSample(long timestamp, float sample, float cumulative) {
+            count++;
+            lastTimestamp = timestamp;
+            lastSample = sample;
+            lastCumulative = cumulative;
+        }
+    }
+
+    public void testCapacityRoundsUpToPowerOfTwo() {
+        assertEquals(16, new SampleRingBuffer(10).capacity());
+        assertEquals(16, new SampleRingBuffer(16).capacity());
+    }
+
+    public void testDrainReturnsRecordsInOrder() {
+        SampleRingBuffer buffer = new SampleRingBuffer(8);
+        buffer.offer(1L, 10.0f, 0.1f);
+        buffer.offer(2L, 20.0f, 0.2f);
+        buffer.offer(3L, 30.0f, 0.3f);
+
+        Collector collector = new Collector();
+        assertEquals(2, buffer.drain(collector, 2));
+        assertEquals(2L, collector.lastTimestamp);
+        assertEquals(20.0f, collector.lastSample);
+        assertEquals(1, buffer.size());
+
+        assertEquals(1, buffer.drain(collector, 10));
+        assertEquals(3L, collector.lastTimestamp);
+        assertEquals(0.3f, collector.lastCumulative);
+        assertEquals(0, buffer.size());
+    }
+
+    public void testFullBufferDropsNewRecords() {
+        SampleRingBuffer buffer = new SampleRingBuffer(4);
+        for (int i = 0; i < 6; i++) {
+            buffer.offer(i, i, i);
+        }
+        assertEquals(4, buffer.size());
+        assertEquals(2, buffer.getDroppedCount());
+
+        Collector collector = new Collector();
+        buffer.drain(collector, 10);
+        assertEquals(4, collector.count);
+        assertEquals(3L, collector.lastTimestamp);
+    }
+
+    public void testWrapsAround() {
+        SampleRingBuffer buffer = new SampleRingBuffer(4);
+        Collector collector = new Collector();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(buffer.offer(i, i, i));
+            assertEquals(1, buffer.drain(collector, 10));
+            assertEquals((long) i, collector.lastTimestamp);
+        }
+        assertEquals(0, buffer.getDroppedCount());
+    }
+
+    public void testMeasuresDwellOfDrainedRecords() throws Exception {
+        SampleRingBuffer buffer = new SampleRingBuffer(8);
+        LatencyHistogram dwell = new LatencyHistogram();
+        buffer.setDwellHistogram(dwell);
+        buffer.offer(1L, 1.0f, 1.0f);
+        buffer.offer(2L, 2.0f, 2.0f);
+        Thread.sleep(5);
+
+        assertEquals(2, buffer.drain(new Collector(), 10));
+        assertEquals(2, dwell.getCount());
+        assertTrue(dwell.getMax() >= 5000000L);
+    }
+}
@@ -0,0 +1,164 @@
+package com.stevezeidner.movementgauge;
+
+import com.stevezeidner.movementgauge.storage.SampleStore;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+
+public class SampleStoreTest extends TestCase {
+    private static final int SEGMENT_SIZE = 16 + 16 * 64; // 64 records per segment
+
+    private File directory;
+
+    private static class Collector implements SampleStore.Visitor {
+        int count = 0;
+        long firstTimestamp = -1;
+        long lastTimestamp = -1;
+        float lastValue;
+
+        @Override
+        public void onRecord(long timestamp, float value) {
+            if (count == 0) {
+                firstTimestamp = timestamp;
+            }
+            count++;
+            lastTimestamp = timestamp;
+            lastValue = value;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("samplestore", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    public void testAppendAndScan() throws IOException {
+        SampleStore store = SampleStore.open(directory, SEGMENT_SIZE, 1024 * 1024);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(store.append(i, i * 1.5f));
+        }
+
+        Collector collector = new Collector();
+        store.scan(collector);
+        assertEquals(10, collector.count);
+        assertEquals(9L, collector.lastTimestamp);
+        assertEquals(13.5f, collector.lastValue);
+        store.close();
+    }
+
+    public void testRecoversTailAfterReopen() throws IOException {
+        SampleStore store = SampleStore.open(directory, SEGMENT_SIZE, 1024 * 1024);
+        for (int i = 0; i < 20; i++) {
+            store.append(i, i);
+        }
+        store.close();
+
+        // tear the last record as if the process died halfway through writing it
+        File segment = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.seek(16 + 19 * 16 + 8);
+        file.writeInt(12345);
+        file.close();
+
+        store = SampleStore.open(directory, SEGMENT_SIZE, 1024 * 1024);
+        store.append(100, 1.0f);
+
+        Collector collector = new Collector();
+        store.scan(collector);
+        assertEquals(20, collector.count);
+        assertEquals(100L, collector.lastTimestamp);
+        store.close();
+    }
+
+    public void testRolloverAndEviction() throws Exception {
+        // room for four segments
+        SampleStore store = SampleStore.open(directory, SEGMENT_SIZE, SEGMENT_SIZE * 4);
+        int appended = 0;
+        long timestamp = 0;
+        while (appended < 64 * 10) {
+            if (store.append(timestamp, 0.0f)) {
+                appended++;
+            } else {
+                // the next segment is still being mapped in the background
+                Thread.sleep(1);
+            }
+            timestamp++;
+        }
+
+        assertTrue(store.getSegmentCount() <= 5);
+
+        Collector collector = new Collector();
+        store.scan(collector);
+        assertTrue(collector.count <= 64 * 5);
+        assertTrue(collector.firstTimestamp > 0);
+        assertEquals(timestamp - 1, collector.lastTimestamp);
+        store.close();
+    }
+
+    public void testAppendsResumeAfterFailedMapping() throws Exception {
+        SampleStore store = SampleStore.open(directory, SEGMENT_SIZE, 1024 * 1024);
+
+        // a directory where the next segment file should go makes mapping it fail
+        File blocker = new File(directory, String.format("%016x.seg", 1L));
+        assertTrue(blocker.mkdir());
+        for (int i = 0; i < 64; i++) {
+            assertTrue(store.append(i, i));
+        }
+        assertFalse(store.append(64, 0.0f));
+
+        blocker.delete();
+        long deadline = System.currentTimeMillis() + 5000;
+        long timestamp = 65;
+        while (!store.append(timestamp, 0.0f) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+            timestamp++;
+        }
+        assertTrue(store.getDroppedCount() > 0);
+
+        Collector collector = new Collector();
+        store.scan(collector);
+        assertEquals(65, collector.count);
+        assertEquals(timestamp, collector.lastTimestamp);
+        store.close();
+    }
+
+    public void testFullSegmentAtOpenMapsNextAhead() throws Exception {
+        SampleStore store = SampleStore.open(directory, SEGMENT_SIZE, 1024 * 1024);
+        long deadline = System.currentTimeMillis() + 5000;
+        int appended = 0;
+        while (appended < 64 && System.currentTimeMillis() < deadline) {
+            if (store.append(appended, 0.0f)) {
+                appended++;
+            }
+        }
+        store.close();
+
+        store = SampleStore.open(directory, SEGMENT_SIZE, 1024 * 1024);
+        deadline = System.currentTimeMillis() + 5000;
+        while (store.getSegmentCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(store.append(64, 0.0f));
+        assertEquals(0, store.getDroppedCount());
+        store.close();
+    }
+}
@@ -14,6 +14,34 @@ public class UtilityTest extends TestCase {
         assertEquals(expected, actual);
     }
 
+    public void testRoundingIsHalfUpOnTheShortestDecimal() {
+        // 1.005f is stored as 1.00499999523..., but prints (and rounds) as 1.005
+        assertEquals(1.01f, Utility.round(1.005f, 2));
+        assertEquals(2.5f, Utility.round(2.45f, 1));
+        assertEquals(-2.5f, Utility.round(-2.45f, 1));
+        assertEquals(3.0f, Utility.round(2.5f, 0));
+        assertEquals(4096.124f, Utility.round(4096.1235f, 3));
+    }
+
+    public void testRoundingKeepsShortValues() {
+        assertEquals(5.0f, Utility.round(5.0f, 2));
+        assertEquals(0.1f, Utility.round(0.1f, 3));
+        assertEquals(568.0, Utility.roundScaled(5.68f, 2));
+    }
+
+    public void testRoundingToZeroDropsTheSign() {
+        float rounded = Utility.round(-0.001f, 2);
+        assertEquals(0, Float.floatToIntBits(rounded));
+    }
+
+    public void testRoundingOutsideTheTableFallsBack() {
+        assertEquals(1.2345679f, Utility.round(1.23456789f, 12));
+        assertEquals(12345679000.0, Utility.roundScaled(0.012345679f, 12));
+        assertEquals(1230.0f, Utility.round(1234.5f, -1));
+        assertEquals(-1300.0f, Utility.round(-1250.0f, -2));
+        assertEquals(5.0, Utility.roundScaled(45.0f, -1));
+    }
+
     public void testRandomNumFallsBetweenLimits() {
         int numIterations = 30;
         int i = 0;
@@ -1,15 +1,13 @@
 package com.stevezeidner.movementgauge;
 
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
-import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.app.ActionBarActivity;
 import android.support.v7.widget.SwitchCompat;
 import android.util.Log;
@@ -19,45 +17,79 @@ import android.widget.CompoundButton;
 import android.widget.TextView;
 
 import com.stevezeidner.movementgauge.core.Constants;
-import com.stevezeidner.movementgauge.core.Utility;
+import com.stevezeidner.movementgauge.core.FixedPointFormatter;
+import com.stevezeidner.movementgauge.engine.AdaptiveFlushPolicy;
+import com.stevezeidner.movementgauge.engine.ChannelShards;
+import com.stevezeidner.movementgauge.engine.FleetAggregator;
+import com.stevezeidner.movementgauge.engine.PipelineLatency;
+import com.stevezeidner.movementgauge.engine.SampleBatcher;
+import com.stevezeidner.movementgauge.engine.SwingingDoorCompressor;
+import com.stevezeidner.movementgauge.engine.WindowSnapshot;
+import com.stevezeidner.movementgauge.network.PipelinedPublisher;
 import com.stevezeidner.movementgauge.network.PubNub;
+import com.stevezeidner.movementgauge.service.SampleRingBuffer;
 import com.stevezeidner.movementgauge.service.SamplingService;
+import com.stevezeidner.movementgauge.ui.LatestValueUpdater;
 import com.stevezeidner.movementgauge.ui.view.GaugeView;
+import com.stevezeidner.movementgauge.ui.view.HistoryView;
+
+import java.io.File;
+import java.util.UUID;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
 /**
  * Main Activity for the application that handles starting the data sampling service and
  * managing the main layout.
  */
 public class MainActivity extends ActionBarActivity {
-    // service and receiver
+    // service and sample consumer
     private SamplingServiceConnection samplingServiceConnection = null;
+    private SamplingService.SamplingBinder samplingBinder = null;
     private Intent samplingServiceIntent = null;
     private boolean samplingServiceRunning = false;
-    private BroadcastReceiver receiver;
+    private SampleRingBuffer.Consumer sampleConsumer;
+    private Runnable samplesAvailableListener;
 
     // views
     private TextView tvValue, gaugeTitle;
+    private final FixedPointFormatter valueFormatter = new FixedPointFormatter(2);
+    private LatestValueUpdater valueUpdater;
     private GaugeView gaugeView;
+    private HistoryView historyView;
     private SwitchCompat toggle;
     private Button reset;
 
+    // windowed movement statistics for the gauge's debug overlay, reused on every refresh
+    private final WindowSnapshot statisticsSnapshot = new WindowSnapshot();
+    private final StringBuilder statisticsText = new StringBuilder();
+
     // log tag
     private static final String LOG_TAG = MainActivity.class.getSimpleName();
 
     // used to keep track of current state
     private boolean cumulativeMode = false;
     private float cumulative;
-    private float lastValue;
-    private long lastPushedTime;
+    private float latestValue;
 
     // network request parameters
-    private JSONArray queue;
+    private SampleBatcher batcher;
     private PubNub pubnub = null;
-
+    // outlives activity recreation so the rollup keeps its window and isn't reallocated
+    private static FleetAggregator fleet;
+    private String deviceId;
+
+    // where the time goes between a sensor event and its publish acknowledgment
+    private final PipelineLatency latency = new PipelineLatency();
+    private final Handler reportHandler = new Handler();
+    private final Runnable latencyReport = new Runnable() {
+        @Override
+        public void run() {
+            logLatency();
+            // forget silent devices in stripes that no longer receive batches
+            fleet.sweep(System.currentTimeMillis());
+            reportHandler.postDelayed(this, Constants.LATENCY_REPORT_INTERVAL_MS);
+        }
+    };
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -70,11 +102,20 @@ public class MainActivity extends ActionBarActivity {
         tvValue = (TextView) findViewById(R.id.value);
         gaugeTitle = (TextView) findViewById(R.id.gauge_title);
         gaugeView = (GaugeView) findViewById(R.id.gauge);
+        historyView = (HistoryView) findViewById(R.id.history);
         toggle = (SwitchCompat) findViewById(R.id.toggle);
         reset = (Button) findViewById(R.id.reset);
 
-        // configure the broadcast receiver and any click listeners on view objects
-        initBroadcastReceivers();
+        // push values to the views once per frame
+        valueUpdater = new LatestValueUpdater(new LatestValueUpdater.Target() {
+            @Override
+            public void onValue(float value) {
+                updateValue(value);
+            }
+        });
+
+        // configure the sample consumer and any click listeners on view objects
+        initSampleConsumer();
         initClickListeners();
 
         // start pubnub service
@@ -83,21 +124,79 @@ public class MainActivity extends ActionBarActivity {
                 Constants.PUBNUB_SUB,
                 Constants.PUBNUB_SEC,
                 true,
-                Constants.PUBNUB_CHANNEL
+                Constants.PUBNUB_CHANNEL,
+                new File(getFilesDir(), Constants.PUBLISH_JOURNAL_DIRECTORY)
         );
+        deviceId = readDeviceId();
+        pubnub.setDeviceId(deviceId);
+        pubnub.setShards(new ChannelShards(Constants.PUBNUB_CHANNEL, Constants.PUBNUB_SHARDS));
+
+        // roll up what every device on the channel publishes
+        if (fleet == null) {
+            fleet = new FleetAggregator(
+                    Constants.FLEET_WINDOW_MS,
+                    Constants.FLEET_WINDOW_SLOTS,
+                    Constants.FLEET_BIN_WIDTH,
+                    Constants.FLEET_BIN_COUNT,
+                    Constants.FLEET_STRIPES
+            );
+        }
+        pubnub.setAggregator(fleet);
 
         // initialize queue
-        queue = new JSONArray();
+        final AdaptiveFlushPolicy flushPolicy = new AdaptiveFlushPolicy(
+                Constants.PUBLISH_BATCH_TARGET_BYTES,
+                Constants.PUBLISH_MAX_LATENCY_MS,
+                Constants.PUBLISH_MIN_INTERVAL_MS
+        );
+        pubnub.setPublishListener(new PipelinedPublisher.Listener() {
+            @Override
+            public void onMessageResult(long roundTripMs, boolean success) {
+                flushPolicy.onPublishResult(roundTripMs, success);
+            }
+        });
+        pubnub.setPublishLatency(latency);
+        batcher = new SampleBatcher(
+                Constants.PUBLISH_BATCH_MAX,
+                flushPolicy,
+                new SampleBatcher.BatchPublisher() {
+                    @Override
+                    public void publish(String batch) {
+                        pubnub.Publish(batch);
+                    }
+                }
+        );
+
+        // only publish the points needed to redraw the signal within the error bound
+        batcher.setReducer(new SwingingDoorCompressor(Constants.PUBLISH_MAX_ERROR));
+        batcher.setLatency(latency);
+
+        // hold timed publishes back while the network is slow so batches grow instead
+        batcher.setBackpressure(new SampleBatcher.Backpressure() {
+            @Override
+            public boolean isSaturated() {
+                return pubnub.isPublishSaturated();
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        // anything not yet acknowledged stays journaled for next time
+        if (pubnub != null) {
+            pubnub.shutdown();
+        }
+
+        super.onDestroy();
     }
 
     @Override
     protected void onStart() {
         super.onStart();
-        LocalBroadcastManager.getInstance(this).registerReceiver((receiver), new IntentFilter(Constants.SAMPLE_RESULT));
 
-        // subscribe to pubnub
+        // subscribe to pubnub; as the only consumer we read every shard
         if (pubnub != null) {
-            pubnub.Subscribe();
+            pubnub.SubscribeShards(deviceId, new String[]{deviceId});
         }
 
         // bind to the sampling service
@@ -107,22 +206,38 @@ public class MainActivity extends ActionBarActivity {
         startSamplingService();
 
         // reset the last pushed time to right now
-        lastPushedTime = System.currentTimeMillis();
+        batcher.resetSendTimer(System.currentTimeMillis());
+
+        // report pipeline latency every so often while running
+        reportHandler.postDelayed(latencyReport, Constants.LATENCY_REPORT_INTERVAL_MS);
     }
 
     @Override
     protected void onStop() {
-        LocalBroadcastManager.getInstance(this).unregisterReceiver(receiver);
-
         // stop sampline points
         stopSamplingService();
 
         // release the service
         releaseSamplingService();
 
+        // nothing left to show
+        valueUpdater.cancel();
+        Log.d(LOG_TAG, "UI updates: " + valueUpdater.getSubmittedCount() + " submitted, "
+                + valueUpdater.getAppliedCount() + " applied, "
+                + valueUpdater.getCoalescedCount() + " coalesced, "
+                + valueUpdater.getSkippedCount() + " skipped");
+        StringBuilder renderSummary = new StringBuilder();
+        gaugeView.getRenderStats().appendSummary(renderSummary);
+        Log.d(LOG_TAG, "Gauge rendering:\n" + renderSummary);
+        Log.d(LOG_TAG, "Fleet: " + fleet.snapshot(Constants.FLEET_MOST_ACTIVE, System.currentTimeMillis()));
+
         // flush PubNub queue
         flushQueue();
 
+        // whatever was measured since the last report; acks still in flight show up next time
+        reportHandler.removeCallbacks(latencyReport);
+        logLatency();
+
         // unsubscribe from pubnub
         if (pubnub != null) {
             pubnub.Unsubscribe();
@@ -135,63 +250,97 @@ public class MainActivity extends ActionBarActivity {
     }
 
     /**
-     * Create the broadcast receiver to receive updates from the sampling service
+     * Create the consumer that drains samples handed over by the sampling service. Both objects
+     * are created once so that draining a batch does not allocate.
      */
-    private void initBroadcastReceivers() {
-        receiver = new BroadcastReceiver() {
+    private void initSampleConsumer() {
+        sampleConsumer = new SampleRingBuffer.Consumer() {
             @Override
-            public void onReceive(Context context, Intent intent) {
-                float value = intent.getFloatExtra(Constants.SAMPLE_VALUE, 0.0f);
-                ;
-                long timestamp = intent.getLongExtra(Constants.TIMESTAMP_VALUE, 0);
-                cumulative = intent.getFloatExtra(Constants.CUMULATIVE_VALUE, 0.0f);
-                if (cumulativeMode) {
-                    updateValue(cumulative);
-                } else {
-                    updateValue(value);
-                }
+            public void onSample(long timestamp, float sample, float cumulativeValue) {
+                latestValue = sample;
+                cumulative = cumulativeValue;
+                historyView.addSample(timestamp, sample);
+                addToQueue(timestamp, sample);
+            }
+        };
 
-                addToQueue(timestamp, value);
+        samplesAvailableListener = new Runnable() {
+            @Override
+            public void run() {
+                drainSamples();
             }
         };
     }
 
     /**
-     * Add value to a queue that gets flushed to pubnub every so often
-     *
-     * @param timestamp
-     * @param value
+     * Pull everything the sampling service has buffered and queue the newest value for the next
+     * frame
      */
-    private void addToQueue(long timestamp, float value) {
+    private void drainSamples() {
+        if (samplingBinder == null) {
+            return;
+        }
 
-        if (value != lastValue) {
-            // add data to queue if the value has changed
-            JSONObject data = new JSONObject();
-            try {
-                data.put("time", timestamp);
-                data.put("value", value);
-            } catch (JSONException ignore) {
+        int drained = 0;
+        int count;
+        do {
+            count = samplingBinder.drainSamples(sampleConsumer, Constants.SAMPLE_DRAIN_MAX);
+            drained += count;
+        } while (count == Constants.SAMPLE_DRAIN_MAX && drained < Constants.SAMPLE_BUFFER_CAPACITY);
+
+        if (drained > 0) {
+            valueUpdater.submit(cumulativeMode ? cumulative : latestValue);
+            if (gaugeView.isDebugOverlay()) {
+                updateStatisticsOverlay();
             }
+        }
+    }
 
-            queue.put(data);
+    /**
+     * Show the sampling service's sliding-window statistics under the gauge's rendering counters
+     */
+    private void updateStatisticsOverlay() {
+        statisticsText.setLength(0);
+        for (int window = 0; window < Constants.STATS_WINDOWS_MS.length; window++) {
+            samplingBinder.readStatistics(window, statisticsSnapshot);
+            if (window > 0) {
+                statisticsText.append('\n');
+            }
+            statisticsSnapshot.appendSummary(statisticsText);
         }
+        gaugeView.setDebugOverlayText(statisticsText);
+    }
 
-        lastValue = value;
+    /**
+     * Add value to a queue that gets flushed to pubnub every so often
+     *
+     * @param timestamp
+     * @param value
+     */
+    private void addToQueue(long timestamp, float value) {
+        batcher.add(timestamp, value, System.currentTimeMillis());
+    }
 
-        long currentTime = System.currentTimeMillis();
-        float deltaTime = (currentTime - lastPushedTime) / 1000.0f;
+    /**
+     * Publish everything queued so far as one compact encoded batch
+     */
+    private void flushQueue() {
+        batcher.flush(System.currentTimeMillis());
+    }
 
-        // if the queue is growing large or it has been some reasonable amount of time since the last publish, then publish again
-        if (queue.length() >= 100 ||
-                (queue.length() > 0 && deltaTime >= Utility.randomBetween(Constants.LOW_SEND_TIME, Constants.HIGH_SEND_TIME))) {
-            flushQueue();
-            lastPushedTime = currentTime;
-        }
+    /**
+     * Log the latency of each pipeline stage since the last report and start a new interval
+     */
+    private void logLatency() {
+        Log.d(LOG_TAG, "Pipeline latency:\n" + latency);
+        latency.reset();
     }
 
-    private void flushQueue() {
-        pubnub.Publish(queue);
-        queue = new JSONArray();
+    /**
+     * @return per-stage latency histograms for the current report interval
+     */
+    public PipelineLatency getPipelineLatency() {
+        return latency;
     }
 
     /**
@@ -209,6 +358,18 @@ public class MainActivity extends ActionBarActivity {
             }
         });
 
+        // long press the gauge for rendering counters and movement statistics
+        gaugeView.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                gaugeView.setDebugOverlay(!gaugeView.isDebugOverlay());
+                if (gaugeView.isDebugOverlay() && samplingBinder != null) {
+                    updateStatisticsOverlay();
+                }
+                return true;
+            }
+        });
+
         reset.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
@@ -249,6 +410,9 @@ public class MainActivity extends ActionBarActivity {
         }
         samplingServiceIntent = new Intent(this, SamplingService.class);
         samplingServiceIntent.putExtra(Constants.CUMULATIVE_STARTUP_VALUE, readCumulative());
+        samplingServiceIntent.putExtra(Constants.BATCHING_ENABLED, Constants.DEFAULT_BATCHING_ENABLED);
+        samplingServiceIntent.putExtra(Constants.SAMPLE_PERIOD_US, Constants.DEFAULT_SAMPLE_PERIOD_US);
+        samplingServiceIntent.putExtra(Constants.MAX_REPORT_LATENCY_US, Constants.DEFAULT_MAX_REPORT_LATENCY_US);
         startService(samplingServiceIntent);
         samplingServiceRunning = true;
     }
@@ -278,17 +442,25 @@ public class MainActivity extends ActionBarActivity {
      * Unbind sampling service
      */
     private void releaseSamplingService() {
+        if (samplingBinder != null) {
+            samplingBinder.setOnSamplesAvailableListener(null);
+            samplingBinder.setLatency(null);
+            samplingBinder = null;
+        }
         unbindService(samplingServiceConnection);
         samplingServiceConnection = null;
     }
 
     /**
-     * Update UI with the fresh values
+     * Update UI with the fresh values. Called once per frame at most, by {@link #valueUpdater}.
      *
      * @param value Float of movement value
      */
     private void updateValue(float value) {
-        tvValue.setText("" + Utility.round(value, 2));
+        // only touch the TextView when the shown digits change
+        if (valueFormatter.format(value)) {
+            tvValue.setText(valueFormatter.getChars(), 0, valueFormatter.length());
+        }
         gaugeView.setValue(value);
     }
 
@@ -314,6 +486,21 @@ public class MainActivity extends ActionBarActivity {
         return sharedPref.getFloat(Constants.CUMULATIVE_PREFS_KEY, 0);
     }
 
+    /**
+     * Read the id this installation publishes under, creating it on first use
+     *
+     * @return random id that stays the same across launches
+     */
+    public String readDeviceId() {
+        SharedPreferences sharedPref = getPreferences(Context.MODE_PRIVATE);
+        String id = sharedPref.getString(Constants.DEVICE_ID_PREFS_KEY, null);
+        if (id == null) {
+            id = UUID.randomUUID().toString();
+            sharedPref.edit().putString(Constants.DEVICE_ID_PREFS_KEY, id).commit();
+        }
+        return id;
+    }
+
     /**
      * Connection to sampling service
      */
@@ -321,10 +508,16 @@ public class MainActivity extends ActionBarActivity {
         public void onServiceConnected(ComponentName className,
                                        IBinder boundService) {
             Log.d(LOG_TAG, "onServiceConnected");
+            samplingBinder = (SamplingService.SamplingBinder) boundService;
+            samplingBinder.setOnSamplesAvailableListener(samplesAvailableListener);
+            samplingBinder.setLatency(latency);
+            samplingBinder.flushBatchedSamples();
+            drainSamples();
         }
 
         public void onServiceDisconnected(ComponentName className) {
             Log.d(LOG_TAG, "onServiceDisconnected");
+            samplingBinder = null;
         }
     }
 
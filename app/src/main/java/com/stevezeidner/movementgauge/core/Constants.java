@@ -4,23 +4,87 @@ package com.stevezeidner.movementgauge.core;
  * Constants used throughout the app
  */
 public class Constants {
-    // broadcast keys
-    public static final String SAMPLE_RESULT = "com.stevezeidner.movementgauge.service.SamplingService.REQUEST_PROCESSED";
-    public static final String SAMPLE_VALUE = "com.stevezeidner.movementgauge.service.SamplingService.SAMPLE_VALUE";
-    public static final String CUMULATIVE_VALUE = "com.stevezeidner.movementgauge.service.SamplingService.CUMULATIVE_VALUE";
-    public static final String TIMESTAMP_VALUE = "com.stevezeidner.movementgauge.service.SamplingService.TIMESTAMP_VALUE";
+    // intent keys
     public static final String CUMULATIVE_STARTUP_VALUE = "com.stevezeidner.movementgauge.service.SamplingService.CUMULATIVE_STARTUP_VALUE";
+    public static final String BATCHING_ENABLED = "com.stevezeidner.movementgauge.service.SamplingService.BATCHING_ENABLED";
+    public static final String SAMPLE_PERIOD_US = "com.stevezeidner.movementgauge.service.SamplingService.SAMPLE_PERIOD_US";
+    public static final String MAX_REPORT_LATENCY_US = "com.stevezeidner.movementgauge.service.SamplingService.MAX_REPORT_LATENCY_US";
+    public static final String RECORD_TRACE = "com.stevezeidner.movementgauge.service.SamplingService.RECORD_TRACE";
+    public static final String REPLAY_TRACE_PATH = "com.stevezeidner.movementgauge.service.SamplingService.REPLAY_TRACE_PATH";
+    public static final String REPLAY_SPEED = "com.stevezeidner.movementgauge.service.SamplingService.REPLAY_SPEED";
+
+    // sensor registration defaults
+    public static final boolean DEFAULT_BATCHING_ENABLED = false;
+    public static final int DEFAULT_SAMPLE_PERIOD_US = 66667; // same period as SENSOR_DELAY_UI
+    public static final int DEFAULT_MAX_REPORT_LATENCY_US = 10000000; // 10 seconds
+    public static final long SENSOR_FLUSH_TIMEOUT_MS = 1000; // unregister anyway if a FIFO flush never completes
+
+    // sample hand-off between the sampling service and the UI
+    public static final int SAMPLE_BUFFER_CAPACITY = 1024;
+    public static final int SAMPLE_DRAIN_MAX = 256;
+
+    // sliding-window statistics kept next to each sample; read them through SamplingBinder by index
+    public static final long[] STATS_WINDOWS_MS = {1000, 10000, 60000};
+    public static final int STATS_WINDOW_1S = 0;
+    public static final int STATS_WINDOW_10S = 1;
+    public static final int STATS_WINDOW_60S = 2;
+    public static final int STATS_MAX_SAMPLE_RATE = 200; // Hz
+
+    // on-device sample history
+    public static final String SAMPLE_STORE_DIRECTORY = "samples";
+    public static final int SAMPLE_STORE_SEGMENT_BYTES = 1024 * 1024;
+    public static final long SAMPLE_STORE_MAX_BYTES = 16 * 1024 * 1024;
+
+    // in-memory history plotted by the history view
+    public static final long HISTORY_WINDOW_MS = 10 * 60 * 1000;
+    public static final int HISTORY_CAPACITY = (int) (HISTORY_WINDOW_MS / 1000 * STATS_MAX_SAMPLE_RATE);
+
+    // raw sensor traces
+    public static final String TRACE_DIRECTORY = "traces";
 
     // shared prefs keys
     public static final String CUMULATIVE_PREFS_KEY = "Cumulative";
+    public static final String DEVICE_ID_PREFS_KEY = "DeviceId";
 
     // PubNub keys
     public static final String PUBNUB_PUB = "pub-c-3031c78d-7e71-43ac-8e87-9657a7bbc7b6";
     public static final String PUBNUB_SUB = "sub-c-40913ce6-d10d-11e4-9f3d-0619f8945a4f";
     public static final String PUBNUB_SEC = "sec-c-OTRlZjUyNGQtNDRiNi00N2ZiLWE2Y2EtYTI1NDAzMTAwNGU0";
     public static final String PUBNUB_CHANNEL = "accelerometer";
+    public static final int PUBNUB_SHARDS = 1; // channels batches are spread over; 1 publishes on PUBNUB_CHANNEL
+    public static final String PUBNUB_GROUP_PREFIX = "accelerometer-consumer-";
 
     // network request parameters
-    public static final int LOW_SEND_TIME = 5; // seconds
-    public static final int HIGH_SEND_TIME = 10; // seconds
+    public static final int PUBLISH_BATCH_MAX = 8192; // samples
+    public static final int PUBLISH_BATCH_TARGET_BYTES = 16 * 1024; // leaves room to coalesce into a message
+    public static final long PUBLISH_MAX_LATENCY_MS = 10000;
+    public static final long PUBLISH_MIN_INTERVAL_MS = 1000;
+    public static final float PUBLISH_MAX_ERROR = 0.5f; // movement units; the batch codec keeps 0.01
+    public static final String PUBLISH_JOURNAL_DIRECTORY = "publish-journal";
+    public static final long PUBLISH_JOURNAL_MAX_BYTES = 4 * 1024 * 1024;
+    public static final int PUBLISH_COALESCE_MAX_BATCHES = 16;
+    public static final int PUBLISH_MAX_IN_FLIGHT = 4;
+    public static final int PUBLISH_MESSAGE_MAX_BYTES = 30 * 1024; // PubNub caps messages at 32KB
+    public static final long PUBLISH_RETRY_INITIAL_MS = 1000;
+    public static final long PUBLISH_RETRY_MAX_MS = 5 * 60 * 1000;
+
+    // batch message envelope
+    public static final String MESSAGE_DEVICE_KEY = "device";
+    public static final String MESSAGE_BATCHES_KEY = "batches";
+    public static final String MESSAGE_SEQUENCES_KEY = "seq"; // journal sequence of each batch
+    public static final String MESSAGE_FLUSHED_KEY = "flushed"; // wall clock ms each batch was flushed, 0 if unknown
+    public static final String MESSAGE_SENT_KEY = "sent"; // wall clock ms the message was sent
+
+    // subscriber-side rollup of every device's movement
+    // sized for a phone: stripes x slots x bins ints is 4 x 20 x 200 x 4 bytes = 64KB
+    public static final long FLEET_WINDOW_MS = 60000;
+    public static final int FLEET_WINDOW_SLOTS = 20; // rolls forward every 3 seconds
+    public static final float FLEET_BIN_WIDTH = 5.0f;
+    public static final int FLEET_BIN_COUNT = 200;
+    public static final int FLEET_STRIPES = 4;
+    public static final int FLEET_MOST_ACTIVE = 5;
+
+    // per-stage latency from the sensor to the publish acknowledgment
+    public static final long LATENCY_REPORT_INTERVAL_MS = 60 * 1000;
+    public static final long MAX_SENSOR_DELAY_NANOS = 60L * 1000000000L; // longer means the clocks don't match
 }
@@ -0,0 +1,123 @@
+package com.stevezeidner.movementgauge.core;
+
+/**
+ * Formats floats rounded half-up to a fixed number of decimals into a reused char buffer, so a
+ * readout can be refreshed for every sample without allocating. The text matches
+ * {@code "" + Utility.round(value, decimals)} for the values a readout shows: trailing zeros are
+ * dropped, but at least one decimal is kept ("5.0", "5.68").
+ */
+public class FixedPointFormatter {
+    private static final String NAN = "NaN";
+    private static final String INFINITY = "Infinity";
+
+    private final int decimals;
+    private final char[] buffer = new char[32];
+    private final char[] digits = new char[20];
+    private int length = 0;
+
+    private boolean formatted = false;
+    private double lastScaled;
+
+    /**
+     * @param decimals number of decimals to round to, 1 to 9
+     */
+    public FixedPointFormatter(int decimals) {
+        if (decimals < 1 || decimals > 9) {
+            throw new IllegalArgumentException("decimals must be 1 to 9: " + decimals);
+        }
+        this.decimals = decimals;
+    }
+
+    /**
+     * Format a value into the buffer
+     *
+     * @param value value to show
+     * @return true if the text changed since the last call
+     */
+    public boolean format(float value) {
+        double scaled = Float.isNaN(value) || Float.isInfinite(value)
+                ? value : Utility.roundScaled(value, decimals);
+        if (formatted && (scaled == lastScaled || (Double.isNaN(scaled) && Double.isNaN(lastScaled)))) {
+            return false;
+        }
+        formatted = true;
+        lastScaled = scaled;
+
+        if (Double.isNaN(scaled)) {
+            length = copy(NAN, 0);
+        } else if (Double.isInfinite(scaled)) {
+            int start = 0;
+            if (scaled < 0) {
+                buffer[start++] = '-';
+            }
+            length = copy(INFINITY, start);
+        } else {
+            length = write(scaled);
+        }
+        return true;
+    }
+
+    /**
+     * @return the formatted text; only the first {@link #length()} chars are valid
+     */
+    public char[] getChars() {
+        return buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Forget the last value so the next {@link #format} always reports a change
+     */
+    public void reset() {
+        formatted = false;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length);
+    }
+
+    private int copy(String text, int start) {
+        text.getChars(0, text.length(), buffer, start);
+        return start + text.length();
+    }
+
+    /**
+     * Write a rounded value given as an integer count of 10^-decimals units
+     */
+    private int write(double scaled) {
+        int position = 0;
+        if (scaled < 0) {
+            buffer[position++] = '-';
+            scaled = -scaled;
+        }
+
+        // collect the digits least significant first, padding so there is always an integer digit
+        int count = 0;
+        double remaining = scaled;
+        do {
+            double next = Math.floor(remaining / 10);
+            digits[count++] = (char) ('0' + (int) (remaining - next * 10));
+            remaining = next;
+        } while ((remaining > 0 || count <= decimals) && count < digits.length);
+
+        // integer part
+        for (int i = count - 1; i >= decimals; i--) {
+            buffer[position++] = digits[i];
+        }
+
+        // fraction, without trailing zeros but with at least one digit
+        int last = 0;
+        while (last < decimals - 1 && digits[last] == '0') {
+            last++;
+        }
+        buffer[position++] = '.';
+        for (int i = decimals - 1; i >= last; i--) {
+            buffer[position++] = digits[i];
+        }
+        return position;
+    }
+}
@@ -12,6 +12,10 @@ import java.util.Random;
  * Utility methods not necessarily tied to one activity or another
  */
 public class Utility {
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9
+    };
+
     /**
      * Fix bug with drawing canvas text in Android 4.0.3+
      *
@@ -42,13 +46,65 @@ public class Utility {
      * Round a float to a max number of decimals
      *
      * @param d
-     * @param decimalPlace
+     * @param decimalPlace allocation free from 0 to 9; any other count, negative ones rounding
+     *                     to tens and up, goes through BigDecimal
      * @return
      */
     public static float round(float d, int decimalPlace) {
-        BigDecimal bd = new BigDecimal(Float.toString(d));
-        bd = bd.setScale(decimalPlace, BigDecimal.ROUND_HALF_UP);
-        return bd.floatValue();
+        if (Float.isNaN(d) || Float.isInfinite(d)) {
+            return d;
+        }
+        if (decimalPlace < 0 || decimalPlace >= POWERS_OF_TEN.length) {
+            return roundBig(d, decimalPlace).floatValue();
+        }
+        return (float) (roundScaled(d, decimalPlace) / POWERS_OF_TEN[decimalPlace]);
+    }
+
+    /**
+     * Round a float half-up (away from zero) to a number of decimals, without allocating.
+     * Rounding starts from the shortest decimal that reads back as the same float, the digits
+     * Float.toString prints, so 1.005f rounds to 1.01 even though its binary value is slightly
+     * below 1.005.
+     *
+     * @param d
+     * @param decimalPlace allocation free from 0 to 9; any other count goes through BigDecimal
+     * @return the rounded value times 10^decimalPlace
+     */
+    public static double roundScaled(float d, int decimalPlace) {
+        if (decimalPlace < 0 || decimalPlace >= POWERS_OF_TEN.length) {
+            return roundBig(d, decimalPlace).scaleByPowerOfTen(decimalPlace).doubleValue();
+        }
+        double magnitude = Math.abs((double) d);
+        for (int digits = 0; digits < POWERS_OF_TEN.length; digits++) {
+            double shortest = Math.rint(magnitude * POWERS_OF_TEN[digits]);
+            if ((float) (shortest / POWERS_OF_TEN[digits]) != (float) magnitude) {
+                continue;
+            }
+
+            double whole;
+            if (digits <= decimalPlace) {
+                // already fits, nothing to round
+                whole = shortest * POWERS_OF_TEN[decimalPlace - digits];
+            } else {
+                double divisor = POWERS_OF_TEN[digits - decimalPlace];
+                whole = Math.floor(shortest / divisor);
+                if (shortest - whole * divisor >= divisor / 2) {
+                    whole += 1.0;
+                }
+            }
+            return d < 0 && whole != 0 ? -whole : whole;
+        }
+
+        // more digits than we track; round the binary value directly
+        double whole = Math.floor(magnitude * POWERS_OF_TEN[decimalPlace] + 0.5);
+        return d < 0 && whole != 0 ? -whole : whole;
+    }
+
+    /**
+     * General half-up rounding for decimal counts outside the table
+     */
+    private static BigDecimal roundBig(float d, int decimalPlace) {
+        return new BigDecimal(Float.toString(d)).setScale(decimalPlace, BigDecimal.ROUND_HALF_UP);
     }
 
     /**
@@ -0,0 +1,106 @@
+package com.stevezeidner.movementgauge.network;
+
+import com.stevezeidner.movementgauge.core.Constants;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * Wire format of batch messages. A message is an object naming the publishing device and
+ * holding an array of encoded batches, optionally with each batch's journal sequence number and
+ * flush time and the time the message was sent. Messages from older versions are the bare array
+ * with no device id.
+ */
+public class BatchEnvelope {
+
+    /**
+     * @param deviceId publishing device, or null for the bare array
+     * @param batches  encoded batches
+     * @return the message to publish, a JSONObject or a JSONArray
+     */
+    public static Object wrap(String deviceId, JSONArray batches) {
+        if (deviceId == null) {
+            return batches;
+        }
+        JSONObject envelope = new JSONObject();
+        try {
+            envelope.put(Constants.MESSAGE_DEVICE_KEY, deviceId);
+            envelope.put(Constants.MESSAGE_BATCHES_KEY, batches);
+        } catch (JSONException e) {
+            // only thrown for null keys
+            throw new IllegalStateException(e);
+        }
+        return envelope;
+    }
+
+    /**
+     * @param deviceId publishing device, or null for the bare array without trace fields
+     * @param batches  encoded batches
+     * @param entries  journal entries of the batches, in the same order
+     * @param sentAtMs wall clock time the message is sent
+     * @return the message to publish, a JSONObject or a JSONArray
+     */
+    public static Object wrap(String deviceId, JSONArray batches, List<PublishJournal.Entry> entries, long sentAtMs) {
+        Object message = wrap(deviceId, batches);
+        if (!(message instanceof JSONObject)) {
+            return message;
+        }
+        JSONArray sequences = new JSONArray();
+        JSONArray flushed = new JSONArray();
+        for (PublishJournal.Entry entry : entries) {
+            sequences.put(entry.sequence);
+            flushed.put(entry.getFlushedAtMs());
+        }
+        JSONObject envelope = (JSONObject) message;
+        try {
+            envelope.put(Constants.MESSAGE_SEQUENCES_KEY, sequences);
+            envelope.put(Constants.MESSAGE_FLUSHED_KEY, flushed);
+            envelope.put(Constants.MESSAGE_SENT_KEY, sentAtMs);
+        } catch (JSONException e) {
+            // only thrown for null keys
+            throw new IllegalStateException(e);
+        }
+        return envelope;
+    }
+
+    /**
+     * @param message  received message
+     * @param fallback returned when the message names no device
+     * @return id of the device that published the message
+     */
+    public static String getDeviceId(Object message, String fallback) {
+        if (message instanceof JSONObject) {
+            return ((JSONObject) message).optString(Constants.MESSAGE_DEVICE_KEY, fallback);
+        }
+        return fallback;
+    }
+
+    /**
+     * @param message received message
+     * @return the encoded batches it carries, or null if it isn't a batch message
+     */
+    public static JSONArray getBatches(Object message) {
+        if (message instanceof JSONObject) {
+            return ((JSONObject) message).optJSONArray(Constants.MESSAGE_BATCHES_KEY);
+        }
+        if (message instanceof JSONArray) {
+            return (JSONArray) message;
+        }
+        return null;
+    }
+
+    /**
+     * @param message received message
+     * @return journal sequence numbers of its batches, in the same order, or null if the message
+     * doesn't carry them
+     */
+    public static JSONArray getSequences(Object message) {
+        if (message instanceof JSONObject) {
+            return ((JSONObject) message).optJSONArray(Constants.MESSAGE_SEQUENCES_KEY);
+        }
+        return null;
+    }
+}
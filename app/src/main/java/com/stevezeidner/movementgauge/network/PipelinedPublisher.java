@@ -0,0 +1,414 @@
+package com.stevezeidner.movementgauge.network;
+
+import com.stevezeidner.movementgauge.core.Constants;
+import com.stevezeidner.movementgauge.engine.PipelineLatency;
+
+import org.json.JSONArray;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishing stage with at-least-once delivery. Batches are journaled to disk, then sent as
+ * messages that each coalesce several pending batches, with up to a fixed number of messages in
+ * flight at once. A failed message is retried with exponential backoff. Nothing new is sent
+ * until the retry goes out, and the retry carries the failed batches together with whatever was
+ * journaled in the meantime.
+ *
+ * Everything runs on the stage's own thread, or on a single thread shared by several stages.
+ * Callers only hand over batches and can ask
+ * {@link #isSaturated()} to hold back while the network is slow; batches that arrive anyway are
+ * coalesced into the next message.
+ */
+public class PipelinedPublisher {
+
+    /**
+     * Sends one message
+     */
+    public interface Transport {
+        /**
+         * Send a message and report the outcome through completion, from any thread
+         *
+         * @param message    the batches to send
+         * @param entries    journal entries of those batches, in the same order, for their
+         *                   sequence numbers and flush times
+         * @param completion receives the outcome
+         */
+        void send(JSONArray message, List<PublishJournal.Entry> entries, Completion completion);
+    }
+
+    /**
+     * Outcome of a send
+     */
+    public interface Completion {
+        void onSuccess();
+
+        void onFailure();
+    }
+
+    /**
+     * Observes every send, e.g. to adapt batching to the link
+     */
+    public interface Listener {
+        /**
+         * Called on the transport's thread
+         *
+         * @param roundTripMs time from handing the message to the transport until its outcome
+         * @param success     whether the message was acknowledged
+         */
+        void onMessageResult(long roundTripMs, boolean success);
+    }
+
+    // journal directories owned by a publisher in this process
+    private static final Set<String> openJournals = new HashSet<String>();
+
+    private final Transport transport;
+    private final int maxInFlight;
+    private final File journalDirectory;
+    private volatile Listener listener;
+    private volatile PipelineLatency latency;
+    private final ScheduledExecutorService executor;
+    private final boolean ownsExecutor;
+    private volatile boolean shutdown = false;
+
+    // only touched on the publish thread
+    private PublishJournal journal;
+    private long sendCursor = Long.MIN_VALUE; // no entry below this is waiting to be sent
+    private int inFlight = 0;
+    private boolean retryScheduled = false;
+    private long retryDelayMs = Constants.PUBLISH_RETRY_INITIAL_MS;
+    private final Random retryJitter = new Random();
+
+    // readable from any thread
+    private volatile boolean saturated = false;
+    private volatile long messagesSent = 0;
+    private volatile long batchesAcknowledged = 0;
+    private volatile long failures = 0;
+    private volatile long batchesLost = 0;
+
+    /**
+     * Open the journal and start publishing whatever an earlier run left in it. If another
+     * publisher in this process still has the directory, e.g. one from a destroyed activity, this
+     * one waits until that publisher has shut down; batches handed over meanwhile are queued.
+     *
+     * @param journalDirectory directory for pending batches
+     * @param transport        sends messages
+     * @param maxInFlight      most messages awaiting acknowledgment at once
+     */
+    public PipelinedPublisher(File journalDirectory, Transport transport, int maxInFlight) {
+        this(journalDirectory, transport, maxInFlight, newPublishExecutor(), true);
+    }
+
+    /**
+     * Publish on a thread shared with other publishers, e.g. the many simulated devices of a
+     * load test. The directory must not be in use by another publisher, or the shared thread
+     * waits for it.
+     *
+     * @param journalDirectory directory for pending batches
+     * @param transport        sends messages
+     * @param maxInFlight      most messages awaiting acknowledgment at once
+     * @param executor         single-threaded executor; {@link #shutdown} leaves it running
+     */
+    public PipelinedPublisher(File journalDirectory, Transport transport, int maxInFlight,
+                              ScheduledExecutorService executor) {
+        this(journalDirectory, transport, maxInFlight, executor, false);
+    }
+
+    private PipelinedPublisher(final File journalDirectory, Transport transport, int maxInFlight,
+                               ScheduledExecutorService executor, boolean ownsExecutor) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.transport = transport;
+        this.maxInFlight = maxInFlight;
+        this.journalDirectory = journalDirectory;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    acquireJournal(journalDirectory);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    journal = new PublishJournal(journalDirectory, Constants.PUBLISH_JOURNAL_MAX_BYTES);
+                } catch (IOException e) {
+                    journal = null;
+                    releaseJournal(journalDirectory);
+                }
+                pump();
+            }
+        });
+    }
+
+    /**
+     * Journal a batch and send it when the window has room. Returns right away.
+     *
+     * @param batch encoded batch
+     */
+    public void publish(final String batch) {
+        final long flushedAtMs = System.currentTimeMillis();
+        runOnPublishThread(new Runnable() {
+            @Override
+            public void run() {
+                if (journal == null) {
+                    batchesLost++;
+                    return;
+                }
+                try {
+                    journal.append(batch, flushedAtMs);
+                } catch (IOException e) {
+                    batchesLost++;
+                    return;
+                }
+                pump();
+            }
+        });
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param latency records the time from each batch's publish call until its acknowledgment,
+     *                or null to not measure
+     */
+    public void setLatency(PipelineLatency latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @return true while every in-flight slot is taken or a retry is pending; callers should
+     * hold samples back and send bigger batches later
+     */
+    public boolean isSaturated() {
+        return saturated;
+    }
+
+    /**
+     * Stop publishing. Batches handed over before this call are still journaled but nothing more
+     * is sent, and a pending retry is dropped. Unacknowledged batches stay journaled for the next
+     * run.
+     */
+    public void shutdown() {
+        shutdown = true;
+        // runs after every batch already handed over has been journaled
+        runOnPublishThread(new Runnable() {
+            @Override
+            public void run() {
+                if (journal != null) {
+                    journal = null;
+                    releaseJournal(journalDirectory);
+                }
+            }
+        });
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private static ScheduledExecutorService newPublishExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        // a pending backoff retry must not outlive shutdown
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return executor;
+    }
+
+    /**
+     * Wait until no other publisher in this process owns the directory, then take it. Only the
+     * owner opens a journal there, so two journals never write the same files or hand out the
+     * same sequence numbers, and temp files found on open belong to a writer that is gone.
+     */
+    private static void acquireJournal(File directory) throws InterruptedException {
+        String path = directory.getAbsolutePath();
+        synchronized (openJournals) {
+            while (openJournals.contains(path)) {
+                openJournals.wait();
+            }
+            openJournals.add(path);
+        }
+    }
+
+    private static void releaseJournal(File directory) {
+        synchronized (openJournals) {
+            openJournals.remove(directory.getAbsolutePath());
+            openJournals.notifyAll();
+        }
+    }
+
+    /**
+     * Send messages until the window is full or nothing is pending. Runs on the publish thread.
+     */
+    private void pump() {
+        if (shutdown) {
+            return;
+        }
+        while (journal != null && inFlight < maxInFlight && !retryScheduled) {
+            // failed batches rewound the cursor, so retries coalesce with anything newer
+            List<PublishJournal.Entry> entries = journal.peek(sendCursor,
+                    Constants.PUBLISH_COALESCE_MAX_BATCHES, Constants.PUBLISH_MESSAGE_MAX_BYTES);
+            if (entries.isEmpty()) {
+                break;
+            }
+            sendCursor = entries.get(entries.size() - 1).sequence + 1;
+            send(entries);
+        }
+        updateSaturation();
+    }
+
+    private void send(final List<PublishJournal.Entry> entries) {
+        JSONArray message = new JSONArray();
+        for (PublishJournal.Entry entry : entries) {
+            message.put(entry.getPayload());
+            entry.setSending(true);
+        }
+
+        inFlight++;
+        messagesSent++;
+        final long sentAt = System.nanoTime();
+        transport.send(message, entries, new Completion() {
+            @Override
+            public void onSuccess() {
+                final long ackedAtMs = System.currentTimeMillis();
+                notifyListener(sentAt, true);
+                runOnPublishThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (journal == null) {
+                            // shut down in the meantime; the batches go out again next run
+                            return;
+                        }
+                        inFlight--;
+                        retryDelayMs = Constants.PUBLISH_RETRY_INITIAL_MS;
+                        recordAcknowledged(entries, ackedAtMs);
+                        journal.remove(entries);
+                        batchesAcknowledged += entries.size();
+                        pump();
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure() {
+                notifyListener(sentAt, false);
+                runOnPublishThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (journal == null) {
+                            return;
+                        }
+                        inFlight--;
+                        failures++;
+                        rewind(entries);
+                        scheduleRetry();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Put a failed message's batches back in line, so the next peek starts at the oldest of them
+     */
+    private void rewind(List<PublishJournal.Entry> entries) {
+        for (PublishJournal.Entry entry : entries) {
+            entry.setSending(false);
+        }
+        sendCursor = Math.min(sendCursor, entries.get(0).sequence);
+    }
+
+    /**
+     * Resume sending after the current backoff delay, then double the delay
+     */
+    private void scheduleRetry() {
+        if (!retryScheduled) {
+            // up to 25% jitter so a fleet of devices doesn't retry in lockstep
+            long delay = retryDelayMs + (long) (retryJitter.nextFloat() * retryDelayMs / 4);
+            retryDelayMs = Math.min(retryDelayMs * 2, Constants.PUBLISH_RETRY_MAX_MS);
+            retryScheduled = true;
+
+            try {
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        retryScheduled = false;
+                        pump();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ignore) {
+                // shut down; the journal keeps the batches
+            }
+        }
+        updateSaturation();
+    }
+
+    private void recordAcknowledged(List<PublishJournal.Entry> entries, long ackedAtMs) {
+        PipelineLatency current = latency;
+        if (current == null) {
+            return;
+        }
+        for (PublishJournal.Entry entry : entries) {
+            // entries recovered from an earlier run have no flush time
+            if (entry.getFlushedAtMs() > 0) {
+                current.record(PipelineLatency.STAGE_FLUSH_TO_ACK, (ackedAtMs - entry.getFlushedAtMs()) * 1000000L);
+            }
+        }
+    }
+
+    private void notifyListener(long sentAt, boolean success) {
+        Listener current = listener;
+        if (current != null) {
+            current.onMessageResult((System.nanoTime() - sentAt) / 1000000L, success);
+        }
+    }
+
+    private void updateSaturation() {
+        saturated = inFlight >= maxInFlight || retryScheduled;
+    }
+
+    private void runOnPublishThread(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ignore) {
+            // shut down; anything unacknowledged is still journaled
+        }
+    }
+
+    /**
+     * @return number of messages handed to the transport, retries included
+     */
+    public long getMessagesSent() {
+        return messagesSent;
+    }
+
+    public long getBatchesAcknowledged() {
+        return batchesAcknowledged;
+    }
+
+    /**
+     * @return number of failed sends
+     */
+    public long getFailureCount() {
+        return failures;
+    }
+
+    /**
+     * @return number of batches that could not be journaled and were dropped
+     */
+    public long getBatchesLost() {
+        return batchesLost;
+    }
+}
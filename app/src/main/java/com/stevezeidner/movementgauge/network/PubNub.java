@@ -7,17 +7,41 @@ import com.pubnub.api.Pubnub;
 import com.pubnub.api.PubnubError;
 import com.pubnub.api.PubnubException;
 
+import com.stevezeidner.movementgauge.core.Constants;
+import com.stevezeidner.movementgauge.engine.ChannelShards;
+import com.stevezeidner.movementgauge.engine.FleetAggregator;
+import com.stevezeidner.movementgauge.engine.PipelineLatency;
+
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
 /**
  * Service to abstract some of PubNub's functionality
  */
 public class PubNub {
     private Pubnub pubnub;
     private String channel;
+    private boolean ownsClient = true; // false when the client is shared with other wrappers
     private static final String LOG_TAG = PubNub.class.getSimpleName();
 
+    // durable, pipelined publishing of batches
+    private PipelinedPublisher publisher;
+    private volatile String deviceId;
+    private volatile ChannelShards shards; // batches go to the device's shard channel
+
+    // receives the batches that arrive on the subscription
+    private volatile FleetAggregator aggregator;
+
+    // this consumer's shards, multiplexed through one channel group
+    private String consumerId;
+    private String shardGroup;
+    private int[] ownedShards = new int[0];
+    private boolean groupSubscribed = false;
+
     public PubNub(String pub, String sub, String sec, boolean ssl, String channel) {
         pubnub = new Pubnub(
                 pub,
@@ -30,41 +54,255 @@ public class PubNub {
         this.channel = channel;
     }
 
+    /**
+     * Create a wrapper whose batch publishes go through a disk journal and are retried until
+     * PubNub acknowledges them
+     *
+     * @param journalDirectory directory for pending batches; anything left there by an earlier
+     *                         run is published right away
+     */
+    public PubNub(String pub, String sub, String sec, boolean ssl, String channel, File journalDirectory) {
+        this(pub, sub, sec, ssl, channel);
+        publisher = new PipelinedPublisher(journalDirectory, newTransport(), Constants.PUBLISH_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Create a journaled batch publisher that shares another wrapper's client and connection
+     * settings, and runs on a shared publish thread, so many of them stay cheap, e.g. the
+     * simulated devices of a load test. {@link #shutdown} leaves the client and thread running
+     * for the others.
+     *
+     * @param client           wrapper whose client and channel to use
+     * @param journalDirectory directory for pending batches
+     * @param publishExecutor  single-threaded executor the publisher runs on
+     */
+    public PubNub(PubNub client, File journalDirectory, ScheduledExecutorService publishExecutor) {
+        this.pubnub = client.pubnub;
+        this.channel = client.channel;
+        this.ownsClient = false;
+        publisher = new PipelinedPublisher(journalDirectory, newTransport(), Constants.PUBLISH_MAX_IN_FLIGHT,
+                publishExecutor);
+    }
+
+    private PipelinedPublisher.Transport newTransport() {
+        return new PipelinedPublisher.Transport() {
+            @Override
+            public void send(JSONArray message, List<PublishJournal.Entry> entries,
+                             final PipelinedPublisher.Completion completion) {
+                Object envelope = BatchEnvelope.wrap(deviceId, message, entries, System.currentTimeMillis());
+                publish(getBatchChannel(), envelope, new Callback() {
+
+                    @Override
+                    public void successCallback(String channel, Object response) {
+                        Log.d(LOG_TAG, response.toString());
+                        completion.onSuccess();
+                    }
+
+                    @Override
+                    public void errorCallback(String channel, PubnubError error) {
+                        Log.e(LOG_TAG, error.toString());
+                        completion.onFailure();
+                    }
+
+                });
+            }
+        };
+    }
+
+    /**
+     * Talk to another PubNub-compatible endpoint, e.g. a local stand-in for load tests. The
+     * client builds its URL as origin + "." + domain, so 127.0.0.1:8080 is origin "127.0.0" and
+     * domain "1:8080". Call before anything is sent; the client keeps the first URL it builds.
+     *
+     * @param origin host name up to the last dot
+     * @param domain rest of the host name, with an optional port
+     */
+    public void setOrigin(String origin, String domain) {
+        pubnub.setCacheBusting(false);
+        pubnub.setOrigin(origin);
+        pubnub.setDomain(domain);
+    }
+
+    /**
+     * Name this device in every batch message so subscribers can tell devices apart. Without an
+     * id, batches go out as a bare array.
+     *
+     * @param deviceId stable id of this installation
+     */
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    /**
+     * Spread batch publishing over several channels. The device publishes to the shard its id
+     * hashes to, so the id must be set too.
+     *
+     * @param shards shard layout shared by every publisher and consumer, or null to publish on
+     *               this wrapper's channel
+     */
+    public void setShards(ChannelShards shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * @return the channel batches are published to
+     */
+    public String getBatchChannel() {
+        ChannelShards current = shards;
+        String id = deviceId;
+        return current == null || id == null ? channel : current.channelFor(id);
+    }
+
+    /**
+     * Feed every batch message that arrives on the subscription into an aggregator
+     *
+     * @param aggregator receives decoded batches, or null to only log messages
+     */
+    public void setAggregator(FleetAggregator aggregator) {
+        this.aggregator = aggregator;
+    }
+
+    /**
+     * Stop publishing. Batches that have not been acknowledged stay in the journal for the next
+     * run.
+     */
+    public void shutdown() {
+        if (publisher != null) {
+            publisher.shutdown();
+        }
+        if (ownsClient) {
+            pubnub.shutdown();
+        }
+    }
+
     public void Subscribe() {
         try {
-            pubnub.subscribe(channel, new Callback() {
-                @Override
-                public void connectCallback(String channel, Object message) {
-                    Log.d(LOG_TAG, "SUBSCRIBE : CONNECT on channel:" + channel
-                            + " : " + message.getClass() + " : "
-                            + message.toString());
-                }
+            pubnub.subscribe(channel, newSubscribeCallback());
+        } catch (PubnubException e) {
+            if (e.getPubnubError() != null) {
+                Log.e(LOG_TAG, "" + e.getPubnubError());
+            }
+        }
+    }
+
+    /**
+     * Read this consumer's share of the shard channels through one multiplexed subscription.
+     * The shards live in a channel group named after the consumer, so rebalancing only changes
+     * the group's channels while the subscription stays up. Without sharding this is a plain
+     * {@link #Subscribe()}.
+     *
+     * @param consumerId this consumer, unique among consumers
+     * @param consumers  every live consumer, including this one
+     */
+    public synchronized void SubscribeShards(String consumerId, final String[] consumers) {
+        ChannelShards current = shards;
+        if (current == null || current.getShardCount() == 1) {
+            Subscribe();
+            return;
+        }
+
+        this.consumerId = consumerId;
+        this.shardGroup = Constants.PUBNUB_GROUP_PREFIX + consumerId;
+        ownedShards = new int[0];
+
+        // start from an empty group in case an earlier run left other shards in it
+        pubnub.channelGroupRemoveGroup(shardGroup, new Callback() {
+            @Override
+            public void successCallback(String channel, Object response) {
+                RebalanceShards(consumers);
+            }
 
+            @Override
+            public void errorCallback(String channel, PubnubError error) {
+                // most likely there was no such group yet
+                RebalanceShards(consumers);
+            }
+        });
+    }
+
+    /**
+     * Take over or hand off shards after consumers joined or left. Only the shards whose owner
+     * changed are added to or removed from the group, and a shard only counts as owned or handed
+     * off once PubNub confirms it, so a failed change is tried again on the next rebalance.
+     *
+     * @param consumers every live consumer, including this one
+     */
+    public synchronized void RebalanceShards(String[] consumers) {
+        ChannelShards current = shards;
+        if (current == null || shardGroup == null) {
+            return;
+        }
+        final String group = shardGroup;
+        int[] assigned = current.assign(consumerId, consumers);
+        final int[] addedShards = difference(assigned, ownedShards);
+        final int[] removedShards = difference(ownedShards, assigned);
+        String[] added = current.channelsOf(addedShards);
+        String[] removed = current.channelsOf(removedShards);
+        Log.d(LOG_TAG, "SHARDS : " + consumerId + " assigned " + assigned.length + " of "
+                + current.getShardCount() + ", +" + added.length + " -" + removed.length);
+
+        if (removed.length > 0) {
+            pubnub.channelGroupRemoveChannel(group, removed, new Callback() {
                 @Override
-                public void disconnectCallback(String channel, Object message) {
-                    Log.d(LOG_TAG, "SUBSCRIBE : DISCONNECT on channel:" + channel
-                            + " : " + message.getClass() + " : "
-                            + message.toString());
+                public void successCallback(String channel, Object response) {
+                    releasedShards(group, removedShards);
                 }
 
-                public void reconnectCallback(String channel, Object message) {
-                    Log.d(LOG_TAG, "SUBSCRIBE : RECONNECT on channel:" + channel
-                            + " : " + message.getClass() + " : "
-                            + message.toString());
+                @Override
+                public void errorCallback(String channel, PubnubError error) {
+                    Log.e(LOG_TAG, "SHARDS : REMOVE failed : " + error.toString());
                 }
-
+            });
+        }
+        if (added.length > 0) {
+            pubnub.channelGroupAddChannel(group, added, new Callback() {
                 @Override
-                public void successCallback(String channel, Object message) {
-                    Log.d(LOG_TAG, "SUBSCRIBE : " + channel + " : "
-                            + message.getClass() + " : " + message.toString());
+                public void successCallback(String channel, Object response) {
+                    acquiredShards(group, addedShards);
+                    subscribeGroup();
                 }
 
                 @Override
                 public void errorCallback(String channel, PubnubError error) {
-                    Log.e(LOG_TAG, "SUBSCRIBE : ERROR on channel " + channel
-                            + " : " + error.toString());
+                    Log.e(LOG_TAG, "SHARDS : ADD failed : " + error.toString());
                 }
             });
+        }
+    }
+
+    /**
+     * @return shards this consumer currently reads
+     */
+    public synchronized int[] getOwnedShards() {
+        return ownedShards.clone();
+    }
+
+    private synchronized void acquiredShards(String group, int[] shards) {
+        // ignore confirmations for a group this instance has since left
+        if (!group.equals(shardGroup)) {
+            return;
+        }
+        int[] missing = difference(shards, ownedShards);
+        int[] owned = new int[ownedShards.length + missing.length];
+        System.arraycopy(ownedShards, 0, owned, 0, ownedShards.length);
+        System.arraycopy(missing, 0, owned, ownedShards.length, missing.length);
+        ownedShards = owned;
+    }
+
+    private synchronized void releasedShards(String group, int[] shards) {
+        if (!group.equals(shardGroup)) {
+            return;
+        }
+        ownedShards = difference(ownedShards, shards);
+    }
+
+    private synchronized void subscribeGroup() {
+        if (groupSubscribed || shardGroup == null) {
+            return;
+        }
+        try {
+            pubnub.channelGroupSubscribe(shardGroup, newSubscribeCallback());
+            groupSubscribed = true;
         } catch (PubnubException e) {
             if (e.getPubnubError() != null) {
                 Log.e(LOG_TAG, "" + e.getPubnubError());
@@ -72,8 +310,102 @@ public class PubNub {
         }
     }
 
-    public void Unsubscribe() {
-        pubnub.unsubscribe(channel);
+    /**
+     * @return shards in a that are not in b
+     */
+    private static int[] difference(int[] a, int[] b) {
+        int[] result = new int[a.length];
+        int count = 0;
+        for (int shard : a) {
+            boolean found = false;
+            for (int other : b) {
+                if (other == shard) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                result[count++] = shard;
+            }
+        }
+        int[] trimmed = new int[count];
+        System.arraycopy(result, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    private Callback newSubscribeCallback() {
+        return new Callback() {
+            @Override
+            public void connectCallback(String channel, Object message) {
+                Log.d(LOG_TAG, "SUBSCRIBE : CONNECT on channel:" + channel
+                        + " : " + message.getClass() + " : "
+                        + message.toString());
+            }
+
+            @Override
+            public void disconnectCallback(String channel, Object message) {
+                Log.d(LOG_TAG, "SUBSCRIBE : DISCONNECT on channel:" + channel
+                        + " : " + message.getClass() + " : "
+                        + message.toString());
+            }
+
+            public void reconnectCallback(String channel, Object message) {
+                Log.d(LOG_TAG, "SUBSCRIBE : RECONNECT on channel:" + channel
+                        + " : " + message.getClass() + " : "
+                        + message.toString());
+            }
+
+            @Override
+            public void successCallback(String channel, Object message) {
+                // batches are too many and too big to log one by one
+                if (!aggregate(channel, message)) {
+                    Log.d(LOG_TAG, "SUBSCRIBE : " + channel + " : "
+                            + message.getClass() + " : " + message.toString());
+                }
+            }
+
+            @Override
+            public void errorCallback(String channel, PubnubError error) {
+                Log.e(LOG_TAG, "SUBSCRIBE : ERROR on channel " + channel
+                        + " : " + error.toString());
+            }
+        };
+    }
+
+    /**
+     * Hand the batches in a received message to the aggregator. Messages without a device id are
+     * attributed to their channel.
+     *
+     * @return false if there is no aggregator or the message carries no batches
+     */
+    private boolean aggregate(String channel, Object message) {
+        FleetAggregator current = aggregator;
+        JSONArray batches = BatchEnvelope.getBatches(message);
+        if (current == null || batches == null) {
+            return false;
+        }
+        String device = BatchEnvelope.getDeviceId(message, channel);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < batches.length(); i++) {
+            if (!current.ingest(device, batches.optString(i), now)) {
+                Log.w(LOG_TAG, "Dropped malformed batch from " + device);
+            }
+        }
+        return true;
+    }
+
+    public synchronized void Unsubscribe() {
+        if (shardGroup == null) {
+            pubnub.unsubscribe(channel);
+            return;
+        }
+        if (groupSubscribed) {
+            pubnub.channelGroupUnsubscribe(shardGroup);
+            groupSubscribed = false;
+        }
+        // group changes still in flight see this and stop
+        shardGroup = null;
+        ownedShards = new int[0];
     }
 
     public void Publish(JSONObject jsonObject) {
@@ -92,6 +424,54 @@ public class PubNub {
         });
     }
 
+    /**
+     * Journal an encoded sample batch and publish it with at-least-once delivery. Up to
+     * {@link Constants#PUBLISH_MAX_IN_FLIGHT} messages are sent at once, failed ones are retried
+     * with exponential backoff, and batches that pile up in the meantime are coalesced into
+     * larger messages.
+     *
+     * @param batch encoded batch from {@link com.stevezeidner.movementgauge.engine.SampleBatchCodec}
+     */
+    public void Publish(String batch) {
+        if (publisher == null) {
+            JSONArray message = new JSONArray();
+            message.put(batch);
+            Publish(message);
+            return;
+        }
+        publisher.publish(batch);
+    }
+
+    /**
+     * @return true while batch publishing is backed up; callers should batch more before
+     * publishing again
+     */
+    public boolean isPublishSaturated() {
+        return publisher != null && publisher.isSaturated();
+    }
+
+    /**
+     * Observe the outcome and round trip of every batch message
+     *
+     * @param listener
+     */
+    public void setPublishListener(PipelinedPublisher.Listener listener) {
+        if (publisher != null) {
+            publisher.setListener(listener);
+        }
+    }
+
+    /**
+     * Record how long each batch takes from its publish call until PubNub acknowledges it
+     *
+     * @param latency receives {@link PipelineLatency#STAGE_FLUSH_TO_ACK}, or null to not measure
+     */
+    public void setPublishLatency(PipelineLatency latency) {
+        if (publisher != null) {
+            publisher.setLatency(latency);
+        }
+    }
+
     public void Publish(JSONArray jsonArray) {
         pubnub.publish(channel, jsonArray, new Callback() {
 
@@ -107,4 +487,12 @@ public class PubNub {
 
         });
     }
+
+    private void publish(String channel, Object message, Callback callback) {
+        if (message instanceof JSONObject) {
+            pubnub.publish(channel, (JSONObject) message, callback);
+        } else {
+            pubnub.publish(channel, (JSONArray) message, callback);
+        }
+    }
 }
@@ -0,0 +1,327 @@
+package com.stevezeidner.movementgauge.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Disk-backed journal of outbound payloads. Every payload is written to its own file before it
+ * is published and only deleted once the publish is acknowledged, so anything still pending when
+ * the process dies is sent on the next start. When the journal outgrows its disk budget the
+ * oldest payloads are dropped first.
+ *
+ * Sequence numbers keep increasing across restarts, even after the journal drains: a
+ * high-water mark is persisted in blocks, so a restart may skip part of a block but never
+ * reuses a number.
+ */
+public class PublishJournal {
+    private static final String ENTRY_SUFFIX = ".batch";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String CHARSET = "UTF-8";
+    private static final String HIGH_WATER_FILE = "sequence.mark";
+    private static final long SEQUENCE_BLOCK = 256;
+
+    /**
+     * One journaled payload
+     */
+    public static class Entry {
+        public final long sequence;
+        public final int size;
+        private String payload;
+        private long flushedAtMs;
+        private boolean sending;
+
+        Entry(long sequence, int size) {
+            this.sequence = sequence;
+            this.size = size;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+
+        /**
+         * @return wall clock time the payload was handed over for publishing, or 0 for an entry
+         * left over from a previous run
+         */
+        public long getFlushedAtMs() {
+            return flushedAtMs;
+        }
+
+        /**
+         * Mark the entry as part of a message awaiting acknowledgment, so {@link #peek} skips it
+         */
+        void setSending(boolean sending) {
+            this.sending = sending;
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+
+    // pending entries, oldest first
+    private final LinkedList<Entry> entries = new LinkedList<Entry>();
+    private long totalBytes = 0;
+    private long nextSequence = 0;
+    // sequences below this have been persisted as handed out
+    private long reservedSequence = 0;
+    private long evicted = 0;
+
+    /**
+     * Open a journal, picking up entries left over from a previous run
+     *
+     * @param directory directory that holds the entry files
+     * @param maxBytes  disk budget for pending entries
+     * @throws IOException if the directory cannot be created
+     */
+    public PublishJournal(File directory, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        load();
+    }
+
+    private void load() {
+        nextSequence = reservedSequence = readHighWater();
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long[] sequences = new long[files.length];
+        int count = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(ENTRY_SUFFIX)) {
+                try {
+                    sequences[count] = Long.parseLong(name.substring(0, name.length() - ENTRY_SUFFIX.length()), 16);
+                    count++;
+                } catch (NumberFormatException e) {
+                    file.delete();
+                }
+            } else if (name.endsWith(TEMP_SUFFIX)) {
+                // a write that never completed
+                file.delete();
+            }
+        }
+
+        sequences = Arrays.copyOf(sequences, count);
+        Arrays.sort(sequences);
+        for (long sequence : sequences) {
+            int size = (int) entryFile(sequence).length();
+            entries.addLast(new Entry(sequence, size));
+            totalBytes += size;
+            nextSequence = Math.max(nextSequence, sequence + 1);
+        }
+    }
+
+    private long readHighWater() {
+        File file = new File(directory, HIGH_WATER_FILE);
+        if (!file.isFile()) {
+            return 0;
+        }
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                byte[] bytes = new byte[(int) file.length()];
+                int read = 0;
+                while (read < bytes.length) {
+                    int n = in.read(bytes, read, bytes.length - read);
+                    if (n == -1) {
+                        break;
+                    }
+                    read += n;
+                }
+                return Long.parseLong(new String(bytes, 0, read, CHARSET).trim(), 16);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Persist a new high-water mark a block ahead of the sequence about to be handed out
+     */
+    private void reserveSequences() throws IOException {
+        long reserved = nextSequence + SEQUENCE_BLOCK;
+        File temp = new File(directory, HIGH_WATER_FILE + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(Long.toHexString(reserved).getBytes(CHARSET));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(new File(directory, HIGH_WATER_FILE))) {
+            temp.delete();
+            throw new IOException("Unable to persist journal sequence " + reserved);
+        }
+        reservedSequence = reserved;
+    }
+
+    /**
+     * Durably record a payload
+     *
+     * @param payload the message body to publish later
+     * @return the journaled entry
+     * @throws IOException if the payload cannot be written
+     */
+    public synchronized Entry append(String payload) throws IOException {
+        return append(payload, 0L);
+    }
+
+    /**
+     * Durably record a payload along with when it was handed over. The time is kept in memory
+     * only.
+     *
+     * @param payload     the message body to publish later
+     * @param flushedAtMs wall clock time the payload was handed over for publishing
+     * @return the journaled entry
+     * @throws IOException if the payload cannot be written
+     */
+    public synchronized Entry append(String payload, long flushedAtMs) throws IOException {
+        byte[] bytes = payload.getBytes(CHARSET);
+        if (nextSequence >= reservedSequence) {
+            reserveSequences();
+        }
+        long sequence = nextSequence++;
+
+        // write to a temp file and rename so a crash never leaves a half-written entry behind
+        File temp = new File(directory, Long.toHexString(sequence) + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(bytes);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(entryFile(sequence))) {
+            temp.delete();
+            throw new IOException("Unable to commit journal entry " + sequence);
+        }
+
+        Entry entry = new Entry(sequence, bytes.length);
+        entry.payload = payload;
+        entry.flushedAtMs = flushedAtMs;
+        entries.addLast(entry);
+        totalBytes += bytes.length;
+
+        enforceBudget();
+        return entry;
+    }
+
+    /**
+     * Read the oldest pending entries without removing them
+     *
+     * @param maxEntries cap on how many entries to return
+     * @param maxBytes   cap on the combined payload size; at least one entry is always returned
+     * @return oldest pending entries, possibly empty
+     */
+    public synchronized List<Entry> peek(int maxEntries, int maxBytes) {
+        return peek(Long.MIN_VALUE, maxEntries, maxBytes);
+    }
+
+    /**
+     * Read the oldest pending entries from a sequence number on, without removing them
+     *
+     * @param fromSequence skip entries with a lower sequence number, e.g. ones already sent;
+     *                     entries marked as sending are skipped too
+     * @param maxEntries   cap on how many entries to return
+     * @param maxBytes     cap on the combined payload size; at least one entry is always returned
+     * @return oldest matching entries, possibly empty
+     */
+    public synchronized List<Entry> peek(long fromSequence, int maxEntries, int maxBytes) {
+        List<Entry> result = new ArrayList<Entry>();
+        int bytes = 0;
+        for (Entry entry : entries) {
+            if (entry.sequence < fromSequence || entry.sending) {
+                continue;
+            }
+            if (result.size() >= maxEntries || (!result.isEmpty() && bytes + entry.size > maxBytes)) {
+                break;
+            }
+            if (entry.payload == null) {
+                try {
+                    entry.payload = readEntry(entry.sequence);
+                } catch (IOException e) {
+                    // unreadable entry; hand it out empty so the acknowledgment clears it
+                    entry.payload = "";
+                }
+            }
+            result.add(entry);
+            bytes += entry.size;
+        }
+        return result;
+    }
+
+    /**
+     * Delete acknowledged entries
+     *
+     * @param acknowledged entries returned by {@link #peek}
+     */
+    public synchronized void remove(List<Entry> acknowledged) {
+        for (Entry entry : acknowledged) {
+            if (entries.remove(entry)) {
+                totalBytes -= entry.size;
+                entryFile(entry.sequence).delete();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return number of entries dropped to stay within the disk budget
+     */
+    public synchronized long getEvictedCount() {
+        return evicted;
+    }
+
+    private void enforceBudget() {
+        while (totalBytes > maxBytes && entries.size() > 1) {
+            Entry oldest = entries.removeFirst();
+            totalBytes -= oldest.size;
+            entryFile(oldest.sequence).delete();
+            evicted++;
+        }
+    }
+
+    private String readEntry(long sequence) throws IOException {
+        InputStream in = new FileInputStream(entryFile(sequence));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString(CHARSET);
+        } finally {
+            in.close();
+        }
+    }
+
+    private File entryFile(long sequence) {
+        return new File(directory, String.format("%016x%s", sequence, ENTRY_SUFFIX));
+    }
+}
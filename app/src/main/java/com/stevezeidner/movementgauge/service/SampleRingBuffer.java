@@ -0,0 +1,131 @@
+package com.stevezeidner.movementgauge.service;
+
+import com.stevezeidner.movementgauge.engine.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer ring buffer of primitive sample records
+ * (timestamp, sample, cumulative). The sampling side calls {@link #offer} and exactly one
+ * consumer calls {@link #drain}; neither side allocates.
+ */
+public class SampleRingBuffer {
+
+    /**
+     * Receives drained records one at a time
+     */
+    public interface Consumer {
+        void onSample(long timestamp, float sample, float cumulative);
+    }
+
+    private final long[] timestamps;
+    private final float[] samples;
+    private final float[] cumulatives;
+    private final long[] offeredAt; // System.nanoTime() of each offer
+    private final int mask;
+
+    // time records spend in the buffer, only touched by the consumer
+    private LatencyHistogram dwell;
+
+    // next slot to write (only advanced by the producer) and next slot to read (only advanced by the consumer)
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    // records rejected because the consumer fell behind
+    private volatile long dropped;
+
+    /**
+     * @param capacity number of records to hold, rounded up to the next power of two
+     */
+    public SampleRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        timestamps = new long[size];
+        samples = new float[size];
+        cumulatives = new float[size];
+        offeredAt = new long[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Append a record. Must only be called from the producer thread.
+     *
+     * @return false if the buffer is full and the record was dropped
+     */
+    public boolean offer(long timestamp, float sample, float cumulative) {
+        long h = head.get();
+        if (h - tail.get() > mask) {
+            dropped++;
+            return false;
+        }
+
+        int index = (int) (h & mask);
+        timestamps[index] = timestamp;
+        samples[index] = sample;
+        cumulatives[index] = cumulative;
+        offeredAt[index] = System.nanoTime();
+
+        // publish the slot to the consumer
+        head.lazySet(h + 1);
+        return true;
+    }
+
+    /**
+     * Hand up to maxRecords pending records to the consumer, oldest first. Must only be called
+     * from the consumer thread.
+     *
+     * @return number of records drained
+     */
+    public int drain(Consumer consumer, int maxRecords) {
+        long t = tail.get();
+        long available = head.get() - t;
+        int count = (int) Math.min(available, maxRecords);
+        LatencyHistogram histogram = dwell;
+        long now = histogram == null || count == 0 ? 0 : System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+            int index = (int) ((t + i) & mask);
+            if (histogram != null) {
+                histogram.record(now - offeredAt[index]);
+            }
+            consumer.onSample(timestamps[index], samples[index], cumulatives[index]);
+        }
+
+        // release the slots back to the producer
+        tail.lazySet(t + count);
+        return count;
+    }
+
+    /**
+     * Measure how long each record waits between offer and drain. Must only be called from the
+     * consumer thread.
+     *
+     * @param histogram receives one value in nanoseconds per drained record, or null to stop
+     */
+    public void setDwellHistogram(LatencyHistogram histogram) {
+        dwell = histogram;
+    }
+
+    /**
+     * @return number of records waiting to be drained
+     */
+    public int size() {
+        return (int) (head.get() - tail.get());
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return number of records dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+}
@@ -1,55 +1,141 @@
 package com.stevezeidner.movementgauge.service;
 
+import android.annotation.TargetApi;
 import android.app.Service;
 import android.content.Intent;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
 import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
-import android.support.v4.content.LocalBroadcastManager;
-import android.util.FloatMath;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.stevezeidner.movementgauge.core.Constants;
-import com.stevezeidner.movementgauge.core.Utility;
-
+import com.stevezeidner.movementgauge.engine.MovementEngine;
+import com.stevezeidner.movementgauge.engine.MovementStatistics;
+import com.stevezeidner.movementgauge.engine.PipelineLatency;
+import com.stevezeidner.movementgauge.engine.SampleSink;
+import com.stevezeidner.movementgauge.engine.TraceReader;
+import com.stevezeidner.movementgauge.engine.TraceReplayer;
+import com.stevezeidner.movementgauge.engine.TraceWriter;
+import com.stevezeidner.movementgauge.engine.WindowSnapshot;
+import com.stevezeidner.movementgauge.storage.SampleStore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Sample data from the accelerometer sensor and broadcast a normalized value
+ * Sample data from the accelerometer sensor and hand normalized values to bound clients through
+ * a primitive ring buffer. Sensor callbacks and all of the normalization math run on a
+ * dedicated sampling thread so they never compete with the UI for the main looper.
  */
 public class SamplingService extends Service implements SensorEventListener {
     private SensorManager sensorManager;
     private Sensor accelSensor;
-    private LocalBroadcastManager broadcaster;
+
+    // samples waiting for the UI, plus a coalesced "samples available" signal on the main thread
+    private final SampleRingBuffer sampleBuffer = new SampleRingBuffer(Constants.SAMPLE_BUFFER_CAPACITY);
+    private final AtomicBoolean notifyPending = new AtomicBoolean(false);
+    private Handler mainHandler;
+    private volatile Runnable samplesAvailableListener;
+
+    // receives sensor delivery delays, set by a bound client
+    private volatile PipelineLatency latency;
+
+    // worker thread that receives sensor callbacks and owns the sampling state below
+    private HandlerThread samplingThread;
+    private Handler samplingHandler;
+
+    // history of every sample, written under engineLock
+    private SampleStore sampleStore;
+
+    // raw sensor trace recording, written from the sampling thread
+    private boolean recordTrace;
+    private TraceWriter traceWriter;
+
+    // trace replay instead of the live sensor
+    private String replayTracePath;
+    private float replaySpeed;
+    private TraceReplayer traceReplayer;
+    private Thread replayThread;
 
     private boolean samplingStarted = false;
-    private int rate;
-    private float cumulative;
+
+    // registered instead of this service while batching, a BatchedListener; typed loosely so
+    // older platforms never resolve SensorEventListener2
+    private SensorEventListener batchedListener;
+
+    // batched listeners waiting for their last FIFO flush, and what to run once there are none;
+    // only touched on the sampling thread
+    private int drainingListeners = 0;
+    private Runnable afterDrain;
+    private boolean batchingRequested;
+    private int samplePeriodUs;
+    private int maxReportLatencyUs;
+
+    // guards the engine and everything the normalized sink writes: the sample store, the
+    // statistics and the producer side of the sample buffer. Held by the sampling thread, and by
+    // the replay thread while a trace plays.
+    private final Object engineLock = new Object();
+
+    // normalization math
+    private final MovementEngine movementEngine = new MovementEngine();
+
+    // sliding-window summaries of the sample stream, updated under engineLock
+    private final MovementStatistics statistics =
+            new MovementStatistics(Constants.STATS_WINDOWS_MS, Constants.STATS_MAX_SAMPLE_RATE);
+
+    // newest sample timestamp and the realtime clock when it arrived, so a statistics read can
+    // tell where the sample clock is now; replayed traces and some devices use other clocks
+    private final Object sampleClockLock = new Object();
+    private long lastSampleTimestamp = 0;
+    private long lastSampleRealtimeNanos = -1;
 
     private static final String LOG_TAG = SamplingService.class.getSimpleName();
 
     @Override
     public void onCreate() {
         super.onCreate();
-        broadcaster = LocalBroadcastManager.getInstance(this);
+        mainHandler = new Handler(Looper.getMainLooper());
+
+        samplingThread = new HandlerThread("SamplingThread", Process.THREAD_PRIORITY_MORE_FAVORABLE);
+        samplingThread.start();
+        samplingHandler = new Handler(samplingThread.getLooper());
+        samplingHandler.post(openSampleStore);
     }
 
     public int onStartCommand(Intent intent, int flags, int startId) {
         super.onStartCommand(intent, flags, startId);
         Log.d(LOG_TAG, "onStartCommand");
 
-        // get the cumulative value from the intent
-        cumulative = intent.getFloatExtra(Constants.CUMULATIVE_STARTUP_VALUE, 0.0f);
-        ;
-
         // in case the activity-level service management fails
         stopSampling();
 
-        // set the sample rate to a suitable level
-        rate = SensorManager.SENSOR_DELAY_UI;
+        // get the cumulative value from the intent
+        setCumulative(intent.getFloatExtra(Constants.CUMULATIVE_STARTUP_VALUE, 0.0f));
+
+        // set the sample rate and hardware batching options
+        batchingRequested = intent.getBooleanExtra(Constants.BATCHING_ENABLED, Constants.DEFAULT_BATCHING_ENABLED);
+        samplePeriodUs = intent.getIntExtra(Constants.SAMPLE_PERIOD_US, Constants.DEFAULT_SAMPLE_PERIOD_US);
+        maxReportLatencyUs = intent.getIntExtra(Constants.MAX_REPORT_LATENCY_US, Constants.DEFAULT_MAX_REPORT_LATENCY_US);
+
+        // trace recording and replay options
+        recordTrace = intent.getBooleanExtra(Constants.RECORD_TRACE, false);
+        replayTracePath = intent.getStringExtra(Constants.REPLAY_TRACE_PATH);
+        replaySpeed = intent.getFloatExtra(Constants.REPLAY_SPEED, 1.0f);
 
         // get sensor manager and start sampling data
         sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
@@ -63,6 +149,23 @@ public class SamplingService extends Service implements SensorEventListener {
         super.onDestroy();
         Log.d(LOG_TAG, "onDestroy");
         stopSampling();
+
+        // close up once the events still in the sensor hub have been delivered
+        final HandlerThread thread = samplingThread;
+        samplingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                whenDrained(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeSampleStore.run();
+                        quitSamplingThread(thread);
+                    }
+                });
+            }
+        });
+        samplingThread = null;
+        samplingHandler = null;
     }
 
     public IBinder onBind(Intent intent) {
@@ -93,30 +196,197 @@ public class SamplingService extends Service implements SensorEventListener {
             return;
         }
 
+        // stop any replay and finish the trace being recorded
+        if (traceReplayer != null) {
+            traceReplayer.cancel();
+            replayThread.interrupt();
+            traceReplayer = null;
+            replayThread = null;
+        }
+        samplingHandler.post(closeTraceWriter);
+
         // go ahead and unregister the sensorManager if it's not already
         if (sensorManager != null) {
-            Log.d(LOG_TAG, "Unregister listener.");
-            sensorManager.unregisterListener(this);
+            if (batchedListener != null) {
+                // push out whatever is still sitting in the hardware FIFO before letting go
+                Log.d(LOG_TAG, "Flush and unregister batched listener.");
+                stopBatchedListener(batchedListener);
+                batchedListener = null;
+            } else {
+                Log.d(LOG_TAG, "Unregister listener.");
+                sensorManager.unregisterListener(this);
+            }
         }
 
         // keep track of the state of the sampling
         samplingStarted = false;
     }
 
+    private final Runnable openSampleStore = new Runnable() {
+        @Override
+        public void run() {
+            SampleStore store;
+            try {
+                store = SampleStore.open(
+                        new File(getFilesDir(), Constants.SAMPLE_STORE_DIRECTORY),
+                        Constants.SAMPLE_STORE_SEGMENT_BYTES,
+                        Constants.SAMPLE_STORE_MAX_BYTES
+                );
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Unable to open sample store", e);
+                return;
+            }
+            synchronized (engineLock) {
+                sampleStore = store;
+            }
+        }
+    };
+
+    private final Runnable closeSampleStore = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (engineLock) {
+                if (sampleStore != null) {
+                    sampleStore.close();
+                    sampleStore = null;
+                }
+            }
+        }
+    };
+
+    private final Runnable openTraceWriter = new Runnable() {
+        @Override
+        public void run() {
+            File directory = new File(getFilesDir(), Constants.TRACE_DIRECTORY);
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                Log.e(LOG_TAG, "Unable to create " + directory);
+                return;
+            }
+
+            File file = new File(directory, "trace-" + System.currentTimeMillis() + ".bin");
+            try {
+                traceWriter = new TraceWriter(new FileOutputStream(file));
+                Log.d(LOG_TAG, "Recording trace to " + file);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Unable to record trace", e);
+            }
+        }
+    };
+
+    private final Runnable closeTraceWriter = new Runnable() {
+        @Override
+        public void run() {
+            if (traceWriter == null) {
+                return;
+            }
+
+            try {
+                traceWriter.close();
+                Log.d(LOG_TAG, "Recorded " + traceWriter.getCount() + " samples");
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Unable to finish trace", e);
+            }
+            traceWriter = null;
+        }
+    };
+
+    /**
+     * Plays a trace file through the engine on its own thread until it ends or is cancelled, so
+     * the pacing sleeps never hold up the sampling thread's queue
+     */
+    private class TraceReplay implements Runnable, TraceReplayer.Listener {
+        private final TraceReplayer replayer;
+        private final String path;
+
+        TraceReplay(TraceReplayer replayer, String path) {
+            this.replayer = replayer;
+            this.path = path;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_MORE_FAVORABLE);
+            try {
+                TraceReader reader = new TraceReader(new FileInputStream(path));
+                try {
+                    long count = replayer.replay(reader, this);
+                    Log.d(LOG_TAG, "Replayed " + count + " samples");
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Unable to replay " + path, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void onRawSample(long timestamp, float x, float y, float z) {
+            synchronized (engineLock) {
+                movementEngine.process(timestamp, x, y, z, normalizedSampleSink);
+            }
+        }
+    }
+
+    /**
+     * Let the sampling thread finish whatever is already queued and then exit
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void quitSamplingThread(HandlerThread thread) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            thread.quitSafely();
+        } else {
+            thread.quit();
+        }
+    }
+
+    /**
+     * Run a task once no batched listener is waiting for its FIFO flush. Runs on the sampling
+     * thread.
+     */
+    private void whenDrained(Runnable task) {
+        if (drainingListeners == 0) {
+            task.run();
+        } else {
+            afterDrain = task;
+        }
+    }
+
     private void startSampling() {
         // sampling has already started, so this is redundant
         if (samplingStarted) {
             return;
         }
 
+        if (recordTrace) {
+            samplingHandler.post(openTraceWriter);
+        }
+
+        // feed a recorded trace through the pipeline instead of the live sensor
+        if (replayTracePath != null) {
+            Log.d(LOG_TAG, "Replaying " + replayTracePath + " at " + replaySpeed + "x");
+            traceReplayer = new TraceReplayer(replaySpeed);
+            replayThread = new Thread(new TraceReplay(traceReplayer, replayTracePath), "TraceReplay");
+            replayThread.start();
+            samplingStarted = true;
+            return;
+        }
+
         // get the accelerometer sensor (if it exists)
         List<Sensor> sensors = sensorManager.getSensorList(Sensor.TYPE_LINEAR_ACCELERATION);
         accelSensor = sensors.size() == 0 ? null : sensors.get(0);
 
         if (accelSensor != null) {
             // if we got both of the sensor, go ahead and register listeners
-            Log.d(LOG_TAG, "Register listener");
-            sensorManager.registerListener(this, accelSensor, rate);
+            if (batchingRequested && supportsBatching(accelSensor)) {
+                Log.d(LOG_TAG, "Register batched listener, fifo size " + accelSensor.getFifoMaxEventCount());
+                batchedListener = registerBatchedListener();
+            }
+            if (batchedListener == null) {
+                Log.d(LOG_TAG, "Register listener");
+                sensorManager.registerListener(this, accelSensor, samplePeriodUs, samplingHandler);
+            }
         } else {
             // if either of the sensors are missing, we can't get the data we need
             Log.e(LOG_TAG, "Sensor(s) missing: accelSensor: " + accelSensor);
@@ -126,7 +396,145 @@ public class SamplingService extends Service implements SensorEventListener {
     }
 
     /**
-     * Do something interesting with the event sample
+     * See if the sensor has a hardware FIFO we can batch events into
+     *
+     * @param sensor
+     * @return true if batching with a max report latency will actually defer wakeups
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private boolean supportsBatching(Sensor sensor) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && sensor.getFifoMaxEventCount() > 0;
+    }
+
+    /**
+     * Register with a max report latency so the sensor hub queues events in its FIFO and
+     * delivers them as a block
+     *
+     * @return the registered listener, or null if the sensor refused the batched registration
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private SensorEventListener registerBatchedListener() {
+        BatchedListener listener = new BatchedListener(sensorManager, samplingHandler);
+        if (sensorManager.registerListener(listener, accelSensor, samplePeriodUs, maxReportLatencyUs, samplingHandler)) {
+            return listener;
+        }
+        return null;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void stopBatchedListener(SensorEventListener listener) {
+        final BatchedListener batched = (BatchedListener) listener;
+        samplingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                batched.stop();
+            }
+        });
+    }
+
+    /**
+     * Ask the sensor hub to deliver everything queued in its FIFO right away. Does nothing when
+     * sampling is not batched.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void flushBatch() {
+        SensorEventListener listener = batchedListener;
+        if (listener != null) {
+            ((BatchedListener) listener).flush();
+        }
+    }
+
+    /**
+     * Listener for batched sampling. Stopping asks the sensor hub to flush its FIFO and only
+     * unregisters once every outstanding flush has been delivered, or after a timeout, so the
+     * queued events are not lost.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private class BatchedListener implements SensorEventListener2 {
+        private final SensorManager manager;
+        private final Handler handler;
+        private boolean stopping = false; // only touched on the sampling thread
+        // flushes requested but not yet completed; they complete in the order they were asked
+        private final AtomicInteger pendingFlushes = new AtomicInteger();
+
+        private final Runnable unregister = new Runnable() {
+            @Override
+            public void run() {
+                Log.w(LOG_TAG, "FIFO flush did not complete, unregistering anyway");
+                finish();
+            }
+        };
+
+        BatchedListener(SensorManager manager, Handler handler) {
+            this.manager = manager;
+            this.handler = handler;
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent sensorEvent) {
+            processSample(sensorEvent);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            SamplingService.this.onAccuracyChanged(sensor, accuracy);
+        }
+
+        @Override
+        public void onFlushCompleted(Sensor sensor) {
+            // while running a flush only hurries delivery along; once stopping, wait for the last
+            if (pendingFlushes.decrementAndGet() > 0 || !stopping) {
+                return;
+            }
+            handler.removeCallbacks(unregister);
+            finish();
+        }
+
+        /**
+         * Ask the sensor hub to deliver its FIFO now. Safe to call from any thread.
+         *
+         * @return false if the sensor hub refused
+         */
+        boolean flush() {
+            pendingFlushes.incrementAndGet();
+            if (manager.flush(this)) {
+                return true;
+            }
+            pendingFlushes.decrementAndGet();
+            return false;
+        }
+
+        /**
+         * Flush the FIFO and unregister once it has been delivered. Runs on the sampling thread.
+         */
+        void stop() {
+            stopping = true;
+            drainingListeners++;
+            if (flush()) {
+                handler.postDelayed(unregister, Constants.SENSOR_FLUSH_TIMEOUT_MS);
+            } else {
+                finish();
+            }
+        }
+
+        private void finish() {
+            // the timeout and a late flush completion must not both count
+            if (!stopping) {
+                return;
+            }
+            stopping = false;
+            manager.unregisterListener(this);
+            drainingListeners--;
+            if (drainingListeners == 0 && afterDrain != null) {
+                Runnable task = afterDrain;
+                afterDrain = null;
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Do something interesting with the event sample. Runs on the sampling thread.
      *
      * @param sensorEvent
      */
@@ -136,43 +544,191 @@ public class SamplingService extends Service implements SensorEventListener {
             return;
         }
 
-        // get the axes
-        float x = values[0];
-        float y = values[1];
-        float z = values[2];
+        PipelineLatency current = latency;
+        if (current != null) {
+            long delay = sensorDelayNanos(sensorEvent.timestamp);
+            if (delay >= 0) {
+                current.record(PipelineLatency.STAGE_SENSOR_TO_SERVICE, delay);
+            }
+        }
+
+        // capture the raw event for later replay
+        if (traceWriter != null) {
+            try {
+                traceWriter.write(sensorEvent.timestamp, values[0], values[1], values[2]);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Trace recording failed", e);
+                closeTraceWriter.run();
+            }
+        }
 
         // normalize the 3D accelerometer data into just one value
-        float normAccel = Utility.totalAcceleration(x, y, z);
-        float scaledAccel = FloatMath.floor(normAccel * 10);
-        cumulative += FloatMath.floor(normAccel) * 0.01; // scale this back so we have more interesting numbers to look at
+        synchronized (engineLock) {
+            movementEngine.process(sensorEvent.timestamp, values[0], values[1], values[2], normalizedSampleSink);
+        }
+    }
 
-        // broadcast the calculated value
-        sendResult(scaledAccel, cumulative, sensorEvent.timestamp);
+    /**
+     * Time from a sensor event until now. Event timestamps count from boot on most devices but
+     * use the uptime clock on some older ones, so whichever clock gives a plausible answer wins.
+     *
+     * @param timestamp sensor event timestamp in nanoseconds
+     * @return delay in nanoseconds, or -1 if neither clock matches the timestamp
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private static long sensorDelayNanos(long timestamp) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            long delay = SystemClock.elapsedRealtimeNanos() - timestamp;
+            if (delay >= 0 && delay <= Constants.MAX_SENSOR_DELAY_NANOS) {
+                return delay;
+            }
+        }
+        long delay = System.nanoTime() - timestamp;
+        return delay >= 0 && delay <= Constants.MAX_SENSOR_DELAY_NANOS ? delay : -1;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private static long realtimeNanos() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+        return SystemClock.elapsedRealtime() * 1000000L;
+    }
+
+    /**
+     * @return the current time on the clock of the sample timestamps, carried forward from the
+     * newest sample by the realtime clock
+     */
+    private long sampleClockNow() {
+        synchronized (sampleClockLock) {
+            if (lastSampleRealtimeNanos < 0) {
+                return 0;
+            }
+            return lastSampleTimestamp + (realtimeNanos() - lastSampleRealtimeNanos);
+        }
     }
 
+    private final SampleSink normalizedSampleSink = new SampleSink() {
+        @Override
+        public void onSample(long timestamp, float sample, float cumulative) {
+            // keep a history of the sample on disk
+            if (sampleStore != null) {
+                sampleStore.append(timestamp, sample);
+            }
+
+            // keep the windowed summaries current
+            statistics.add(timestamp, sample);
+            synchronized (sampleClockLock) {
+                lastSampleTimestamp = timestamp;
+                lastSampleRealtimeNanos = realtimeNanos();
+            }
+
+            // hand the calculated value to the UI
+            sendResult(sample, cumulative, timestamp);
+        }
+    };
+
     /**
-     * Broadcast motion value for receiver to handle
+     * Queue motion value for bound clients to drain
      *
      * @param sample     Float of the current sample value
      * @param cumulative Float of the cumulative values since app started
+     * @param timestamp  Long of the sensor event timestamp in nanoseconds
      */
     private void sendResult(float sample, float cumulative, long timestamp) {
-        Intent intent = new Intent(Constants.SAMPLE_RESULT);
-        intent.putExtra(Constants.TIMESTAMP_VALUE, timestamp);
-        intent.putExtra(Constants.SAMPLE_VALUE, sample);
-        intent.putExtra(Constants.CUMULATIVE_VALUE, cumulative);
-        broadcaster.sendBroadcast(intent);
+        sampleBuffer.offer(timestamp, sample, cumulative);
+
+        // only one notification is in flight at a time, no matter how many samples arrive
+        if (notifyPending.compareAndSet(false, true)) {
+            mainHandler.post(notifySamplesAvailable);
+        }
     }
 
+    private final Runnable notifySamplesAvailable = new Runnable() {
+        @Override
+        public void run() {
+            notifyPending.set(false);
+            Runnable listener = samplesAvailableListener;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+    };
+
     public class SamplingBinder extends Binder {
         SamplingService getService() {
             return SamplingService.this;
         }
+
+        /**
+         * Drain pending samples into the consumer. Call from the main thread only.
+         *
+         * @param consumer   receives each sample, oldest first
+         * @param maxSamples upper bound on samples handed over in this call
+         * @return number of samples drained
+         */
+        public int drainSamples(SampleRingBuffer.Consumer consumer, int maxSamples) {
+            return sampleBuffer.drain(consumer, maxSamples);
+        }
+
+        /**
+         * Set a listener that runs on the main thread when new samples are ready to drain
+         *
+         * @param listener Runnable to notify, or null to stop notifications
+         */
+        public void setOnSamplesAvailableListener(Runnable listener) {
+            samplesAvailableListener = listener;
+        }
+
+        /**
+         * Measure the hops up to and including this client's drain: sensor to service on the
+         * sampling thread, and service to UI in {@link #drainSamples}. Call from the main thread
+         * only.
+         *
+         * @param pipelineLatency receives both stages, or null to stop measuring
+         */
+        public void setLatency(PipelineLatency pipelineLatency) {
+            latency = pipelineLatency;
+            sampleBuffer.setDwellHistogram(pipelineLatency == null ? null
+                    : pipelineLatency.getHistogram(PipelineLatency.STAGE_SERVICE_TO_UI));
+        }
+
+        /**
+         * Read the current statistics for one sliding window. Samples that have slid out of the
+         * window since the last sample are left out too. Safe to call from any thread.
+         *
+         * @param window index into Constants.STATS_WINDOWS_MS
+         * @param out    snapshot to overwrite
+         */
+        public void readStatistics(int window, WindowSnapshot out) {
+            statistics.snapshot(window, sampleClockNow(), out);
+        }
+
+        /**
+         * Deliver any samples held back by hardware batching now instead of waiting for the
+         * max report latency to expire
+         */
+        public void flushBatchedSamples() {
+            flushBatch();
+        }
     }
 
     private final IBinder serviceBinder = new SamplingBinder();
 
-    public void setCumulative(float cumulative) {
-        this.cumulative = cumulative;
+    /**
+     * Replace the running cumulative value. The update is queued on the sampling thread so it
+     * lands in order with the sensor events that read and write it.
+     *
+     * @param value Float of the new cumulative value
+     */
+    public void setCumulative(final float value) {
+        samplingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (engineLock) {
+                    movementEngine.setCumulative(value);
+                }
+            }
+        });
     }
 }
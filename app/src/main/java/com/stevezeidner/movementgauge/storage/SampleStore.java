@@ -0,0 +1,428 @@
+package com.stevezeidner.movementgauge.storage;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only, memory-mapped store of fixed-width (timestamp, value) records.
+ *
+ * Records live in a directory of equally sized segment files. Each record carries a checksum, so
+ * a record torn by a crash is detected and dropped the next time the store is opened. Appends are
+ * plain writes into the mapped active segment. The next segment is mapped ahead of time on a
+ * background thread, and old segments are evicted there once the size cap is reached, so the
+ * appending thread never waits on file I/O.
+ *
+ * A record survives a process crash as soon as append returns, since the kernel owns the mapped
+ * pages. It is only certain to survive a power loss after {@link #sync}, which {@link #close}
+ * calls.
+ *
+ * {@link #append} must only be called from a single thread. {@link #scan} may be called from any
+ * thread.
+ */
+public class SampleStore {
+
+    /**
+     * Receives stored records in append order
+     */
+    public interface Visitor {
+        void onRecord(long timestamp, float value);
+    }
+
+    static final int MAGIC = 0x4D475331; // "MGS1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 16;
+
+    private static final int CHECKSUM_SEED = 0x9E3779B9;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File directory;
+    private final int segmentSize;
+    private final int recordsPerSegment;
+    private final int maxSegments;
+    private final ExecutorService ioExecutor;
+
+    // ids of the segments on disk, oldest first
+    private final ArrayDeque<Long> segmentIds = new ArrayDeque<Long>();
+
+    // active segment; the buffer and request flag are only touched by the appending thread
+    private MappedByteBuffer active;
+    private boolean nextRequested = false;
+    private volatile long activeId;
+    private volatile int activeCount;
+
+    // segment mapped ahead of time by the I/O thread; a failed mapping hands the request back
+    private volatile MappedByteBuffer next;
+    private volatile long nextId;
+    private volatile boolean prepareFailed = false;
+
+    private volatile long dropped;
+    private volatile boolean closed = false;
+
+    private SampleStore(File directory, int segmentSize, long maxBytes) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.recordsPerSegment = (segmentSize - HEADER_SIZE) / RECORD_SIZE;
+        this.maxSegments = (int) Math.max(2, maxBytes / segmentSize);
+        this.ioExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SampleStoreIO");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Open (or create) a store, recovering the tail of the newest segment
+     *
+     * @param directory   directory that holds the segment files
+     * @param segmentSize size of each segment file in bytes
+     * @param maxBytes    total disk budget; the oldest segments are deleted beyond it
+     * @return the opened store
+     * @throws IOException if the directory or the active segment cannot be set up
+     */
+    public static SampleStore open(File directory, int segmentSize, long maxBytes) throws IOException {
+        if (segmentSize < HEADER_SIZE + RECORD_SIZE) {
+            throw new IllegalArgumentException("segment too small: " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+
+        SampleStore store = new SampleStore(directory, segmentSize, maxBytes);
+        store.recover();
+        return store;
+    }
+
+    /**
+     * Find the existing segments and resume appending after the last intact record
+     */
+    private void recover() throws IOException {
+        long[] ids = listSegmentIds();
+        for (long id : ids) {
+            segmentIds.addLast(id);
+        }
+
+        if (ids.length == 0) {
+            activeId = 0;
+            active = mapSegment(0);
+            segmentIds.addLast(0L);
+            activeCount = 0;
+        } else {
+            activeId = ids[ids.length - 1];
+            active = mapSegment(activeId);
+            activeCount = countValidRecords(active, recordsPerSegment);
+        }
+
+        evictOldSegments();
+
+        // a segment recovered at or past half full would otherwise fill before the next is mapped
+        if (activeCount >= recordsPerSegment / 2) {
+            requestNextSegment();
+        }
+    }
+
+    /**
+     * Append a record. O(1) and never blocks on I/O; if the active segment is full and the next
+     * one is not mapped yet, the record is dropped and counted instead.
+     *
+     * @return false if the record was dropped
+     */
+    public boolean append(long timestamp, float value) {
+        if (closed || (activeCount == recordsPerSegment && !rollover())) {
+            dropped++;
+            return false;
+        }
+
+        int count = activeCount;
+        int offset = HEADER_SIZE + count * RECORD_SIZE;
+        int valueBits = Float.floatToRawIntBits(value);
+        active.putLong(offset, timestamp);
+        active.putInt(offset + 8, valueBits);
+        active.putInt(offset + 12, checksum(timestamp, valueBits));
+
+        // publish the record to readers
+        activeCount = count + 1;
+
+        // get the next segment mapped well before this one fills up
+        if (!nextRequested && count + 1 >= recordsPerSegment / 2) {
+            requestNextSegment();
+        }
+        return true;
+    }
+
+    private void requestNextSegment() {
+        nextRequested = true;
+        nextId = activeId + 1;
+        ioExecutor.execute(prepareNextSegment);
+    }
+
+    /**
+     * Switch to the segment prepared in the background
+     *
+     * @return false if it is not ready yet
+     */
+    private boolean rollover() {
+        MappedByteBuffer prepared = next;
+        if (prepared == null) {
+            if (prepareFailed) {
+                // try again; the disk error may have cleared
+                prepareFailed = false;
+                nextRequested = false;
+            }
+            if (!nextRequested) {
+                requestNextSegment();
+            }
+            return false;
+        }
+
+        next = null;
+        active = prepared;
+        activeId = nextId;
+        activeCount = 0;
+        nextRequested = false;
+        return true;
+    }
+
+    private final Runnable prepareNextSegment = new Runnable() {
+        @Override
+        public void run() {
+            long id = nextId;
+            try {
+                MappedByteBuffer buffer = mapSegment(id);
+                synchronized (segmentIds) {
+                    segmentIds.addLast(id);
+                }
+                evictOldSegments();
+                next = buffer;
+            } catch (IOException e) {
+                // leave next unset; the appender drops records and asks again on its next rollover
+                synchronized (segmentIds) {
+                    segmentIds.remove(id);
+                }
+                prepareFailed = true;
+            }
+        }
+    };
+
+    /**
+     * Visit every intact record, oldest first
+     *
+     * @param visitor receives each record
+     * @throws IOException if a segment cannot be read
+     */
+    public void scan(Visitor visitor) throws IOException {
+        Long[] ids;
+        synchronized (segmentIds) {
+            ids = segmentIds.toArray(new Long[segmentIds.size()]);
+        }
+
+        long currentId = activeId;
+        int currentCount = activeCount;
+        for (Long id : ids) {
+            if (id > currentId) {
+                // mapped ahead of time, nothing written yet
+                break;
+            }
+
+            RandomAccessFile file;
+            try {
+                file = new RandomAccessFile(segmentFile(id), "r");
+            } catch (IOException e) {
+                // evicted while we were scanning
+                continue;
+            }
+            try {
+                FileChannel channel = file.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                int limit = (int) Math.min(recordsPerSegment, (channel.size() - HEADER_SIZE) / RECORD_SIZE);
+                if (id == currentId) {
+                    limit = Math.min(limit, currentCount);
+                }
+                readRecords(buffer, limit, visitor);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Flush dirty pages of the active segment to disk in the background. Records already survive
+     * a process crash without this; it only matters for power loss.
+     */
+    public void sync() {
+        final MappedByteBuffer buffer = active;
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                buffer.force();
+            }
+        });
+    }
+
+    /**
+     * Sync and stop the background thread. Must be called from the appending thread.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        sync();
+        ioExecutor.shutdown();
+        try {
+            ioExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return number of records rejected because no segment was ready
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    public int getSegmentCount() {
+        synchronized (segmentIds) {
+            return segmentIds.size();
+        }
+    }
+
+    public int getRecordsPerSegment() {
+        return recordsPerSegment;
+    }
+
+    /**
+     * Delete the oldest segments beyond the size cap, never touching the active one
+     */
+    private void evictOldSegments() {
+        while (true) {
+            long oldest;
+            synchronized (segmentIds) {
+                if (segmentIds.size() <= maxSegments || segmentIds.peekFirst() >= activeId) {
+                    return;
+                }
+                oldest = segmentIds.pollFirst();
+            }
+            segmentFile(oldest).delete();
+        }
+    }
+
+    /**
+     * Map a segment file read/write, creating it and writing the header if needed
+     */
+    private MappedByteBuffer mapSegment(long id) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(id), "rw");
+        try {
+            if (file.length() != segmentSize) {
+                file.setLength(segmentSize);
+            }
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                // new file, or the header never made it to disk; nothing after it can be trusted
+                for (int i = 0; i < segmentSize; i += 8) {
+                    buffer.putLong(i, 0L);
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, RECORD_SIZE);
+            }
+            return buffer;
+        } finally {
+            // the mapping stays valid after the file is closed
+            file.close();
+        }
+    }
+
+    private File segmentFile(long id) {
+        return new File(directory, String.format("%016x%s", id, SEGMENT_SUFFIX));
+    }
+
+    private long[] listSegmentIds() {
+        String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (names == null) {
+            return new long[0];
+        }
+
+        long[] ids = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            try {
+                ids[count] = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()), 16);
+                count++;
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        ids = Arrays.copyOf(ids, count);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Count the intact records at the start of a segment; the first bad checksum marks the tail
+     */
+    static int countValidRecords(MappedByteBuffer buffer, int limit) {
+        for (int i = 0; i < limit; i++) {
+            int offset = HEADER_SIZE + i * RECORD_SIZE;
+            if (buffer.getInt(offset + 12) != checksum(buffer.getLong(offset), buffer.getInt(offset + 8))) {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    private static void readRecords(MappedByteBuffer buffer, int limit, Visitor visitor) {
+        for (int i = 0; i < limit; i++) {
+            int offset = HEADER_SIZE + i * RECORD_SIZE;
+            long timestamp = buffer.getLong(offset);
+            int valueBits = buffer.getInt(offset + 8);
+            if (buffer.getInt(offset + 12) != checksum(timestamp, valueBits)) {
+                return;
+            }
+            visitor.onRecord(timestamp, Float.intBitsToFloat(valueBits));
+        }
+    }
+
+    /**
+     * Mix the record fields into a check value. The seed keeps an all-zero (never written) record
+     * from passing.
+     */
+    static int checksum(long timestamp, int valueBits) {
+        int h = CHECKSUM_SEED;
+        h = mix(h ^ (int) timestamp);
+        h = mix(h ^ (int) (timestamp >>> 32));
+        h = mix(h ^ valueBits);
+        return h;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
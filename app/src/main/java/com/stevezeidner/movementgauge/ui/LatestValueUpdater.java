@@ -0,0 +1,98 @@
+package com.stevezeidner.movementgauge.ui;
+
+/**
+ * Hands a value to the UI at most once per display frame. Values submitted between two frames
+ * overwrite each other and only the latest one is applied, so UI work stays fixed per frame no
+ * matter how fast values arrive.
+ *
+ * Create and use from the main thread.
+ */
+public class LatestValueUpdater implements VsyncScheduler.FrameListener {
+
+    /**
+     * Applies a value to the views
+     */
+    public interface Target {
+        void onValue(float value);
+    }
+
+    private final Target target;
+    private final VsyncScheduler scheduler;
+
+    private float latest;
+    private boolean pending = false;
+
+    // counters
+    private long submitted = 0;
+    private long applied = 0;
+    private long coalesced = 0;
+    private long skipped = 0;
+
+    public LatestValueUpdater(Target target) {
+        this.target = target;
+        this.scheduler = VsyncScheduler.create(this);
+    }
+
+    /**
+     * Queue a value for the next frame, replacing any value still waiting
+     *
+     * @param value value to show
+     */
+    public void submit(float value) {
+        submitted++;
+        if (pending) {
+            coalesced++;
+        }
+        latest = value;
+        pending = true;
+        scheduler.schedule();
+    }
+
+    /**
+     * Drop the waiting value, if any, e.g. when the views are going away
+     */
+    public void cancel() {
+        if (pending) {
+            pending = false;
+            skipped++;
+        }
+        scheduler.cancel();
+    }
+
+    @Override
+    public void onFrame(long frameTimeNanos) {
+        if (pending) {
+            pending = false;
+            applied++;
+            target.onValue(latest);
+        }
+    }
+
+    /**
+     * @return number of values submitted
+     */
+    public long getSubmittedCount() {
+        return submitted;
+    }
+
+    /**
+     * @return number of values pushed to the views
+     */
+    public long getAppliedCount() {
+        return applied;
+    }
+
+    /**
+     * @return number of values replaced by a newer one before their frame came
+     */
+    public long getCoalescedCount() {
+        return coalesced;
+    }
+
+    /**
+     * @return number of values dropped by {@link #cancel()}
+     */
+    public long getSkippedCount() {
+        return skipped;
+    }
+}
@@ -0,0 +1,196 @@
+package com.stevezeidner.movementgauge.ui;
+
+/**
+ * Timing counters for a view's rendering path: how long each drawing stage takes, how far apart
+ * animation frames land, and how many frames were dropped while animating. Recording allocates
+ * nothing, so the counters can stay on in release builds.
+ *
+ * Use from the main thread.
+ */
+public class RenderStats {
+    public static final int STAGE_DRAW = 0;
+    public static final int STAGE_BACKGROUND = 1;
+    public static final int STAGE_NEEDLE = 2;
+    public static final int STAGE_REGENERATE = 3;
+    private static final String[] STAGE_NAMES = {"draw", "background", "needle", "regenerate"};
+
+    // frame interval histogram: 2ms bins, the last one also catches everything slower
+    public static final long HISTOGRAM_BIN_NANOS = 2000000L;
+    public static final int HISTOGRAM_BINS = 32;
+
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+    private final long[] stageCount = new long[STAGE_NAMES.length];
+    private final long[] stageTotalNanos = new long[STAGE_NAMES.length];
+    private final long[] stageMaxNanos = new long[STAGE_NAMES.length];
+    private final long[] stageLastNanos = new long[STAGE_NAMES.length];
+
+    private final int[] frameIntervals = new int[HISTOGRAM_BINS];
+    private long frameCount = 0;
+    private long droppedFrames = 0;
+    private long frameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+
+    private long layersRendered = 0;
+
+    /**
+     * Set the display's frame interval, used to tell a dropped frame from a normal one
+     *
+     * @param refreshRate display refresh rate in Hz
+     */
+    public void setRefreshRate(float refreshRate) {
+        if (refreshRate > 0) {
+            frameIntervalNanos = (long) (1000000000L / refreshRate);
+        }
+    }
+
+    /**
+     * Record how long one run of a stage took
+     *
+     * @param stage      one of the STAGE_ constants
+     * @param startNanos System.nanoTime() when the stage started
+     * @param endNanos   System.nanoTime() when it ended
+     */
+    public void recordStage(int stage, long startNanos, long endNanos) {
+        long duration = endNanos - startNanos;
+        stageCount[stage]++;
+        stageTotalNanos[stage] += duration;
+        stageLastNanos[stage] = duration;
+        if (duration > stageMaxNanos[stage]) {
+            stageMaxNanos[stage] = duration;
+        }
+    }
+
+    /**
+     * Record the time between two consecutive animation frames. Anything longer than one and a
+     * half display frames counts the frames that were skipped in between as dropped.
+     *
+     * @param intervalNanos time since the previous animation frame
+     */
+    public void recordFrameInterval(long intervalNanos) {
+        frameCount++;
+        int bin = (int) Math.min(HISTOGRAM_BINS - 1, intervalNanos / HISTOGRAM_BIN_NANOS);
+        frameIntervals[Math.max(0, bin)]++;
+
+        if (intervalNanos * 2 > frameIntervalNanos * 3) {
+            droppedFrames += (intervalNanos + frameIntervalNanos / 2) / frameIntervalNanos - 1;
+        }
+    }
+
+    /**
+     * Count a layer rasterized from scratch (as opposed to taken from a cache)
+     */
+    public void recordLayerRendered() {
+        layersRendered++;
+    }
+
+    public long getStageCount(int stage) {
+        return stageCount[stage];
+    }
+
+    public long getStageAverageNanos(int stage) {
+        return stageCount[stage] == 0 ? 0 : stageTotalNanos[stage] / stageCount[stage];
+    }
+
+    public long getStageMaxNanos(int stage) {
+        return stageMaxNanos[stage];
+    }
+
+    public long getStageLastNanos(int stage) {
+        return stageLastNanos[stage];
+    }
+
+    /**
+     * @return number of animation frame intervals recorded
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return number of frames missed while animating
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrames;
+    }
+
+    public long getLayersRendered() {
+        return layersRendered;
+    }
+
+    /**
+     * Copy the frame interval histogram
+     *
+     * @param out receives HISTOGRAM_BINS counts; bin i covers [i, i + 1) * HISTOGRAM_BIN_NANOS
+     */
+    public void getFrameIntervalHistogram(int[] out) {
+        System.arraycopy(frameIntervals, 0, out, 0, HISTOGRAM_BINS);
+    }
+
+    /**
+     * Approximate frame interval percentile, from the histogram
+     *
+     * @param percentile 0 to 100
+     * @return upper edge of the bin holding the percentile, in nanoseconds, or 0 with no frames
+     */
+    public long getFrameIntervalPercentileNanos(float percentile) {
+        if (frameCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(frameCount * percentile / 100.0f);
+        long seen = 0;
+        for (int i = 0; i < HISTOGRAM_BINS; i++) {
+            seen += frameIntervals[i];
+            if (seen >= rank) {
+                return (i + 1) * HISTOGRAM_BIN_NANOS;
+            }
+        }
+        return HISTOGRAM_BINS * HISTOGRAM_BIN_NANOS;
+    }
+
+    public void reset() {
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            stageCount[i] = 0;
+            stageTotalNanos[i] = 0;
+            stageMaxNanos[i] = 0;
+            stageLastNanos[i] = 0;
+        }
+        for (int i = 0; i < HISTOGRAM_BINS; i++) {
+            frameIntervals[i] = 0;
+        }
+        frameCount = 0;
+        droppedFrames = 0;
+        layersRendered = 0;
+    }
+
+    /**
+     * Write a short human-readable summary, one line per item
+     *
+     * @param out builder to append to
+     */
+    public void appendSummary(StringBuilder out) {
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            out.append(STAGE_NAMES[i]).append(": n=").append(stageCount[i]);
+            appendMillis(out.append(" avg="), getStageAverageNanos(i));
+            appendMillis(out.append(" max="), stageMaxNanos[i]);
+            out.append('\n');
+        }
+        out.append("frames: n=").append(frameCount).append(" dropped=").append(droppedFrames);
+        appendMillis(out.append(" p50<"), getFrameIntervalPercentileNanos(50));
+        appendMillis(out.append(" p99<"), getFrameIntervalPercentileNanos(99));
+        out.append('\n');
+        out.append("layers rendered: ").append(layersRendered);
+    }
+
+    /**
+     * Append nanoseconds as milliseconds with two decimals, without going through a float string
+     */
+    private static void appendMillis(StringBuilder out, long nanos) {
+        long hundredths = (nanos + 5000) / 10000;
+        out.append(hundredths / 100).append('.');
+        long fraction = hundredths % 100;
+        if (fraction < 10) {
+            out.append('0');
+        }
+        out.append(fraction).append("ms");
+    }
+}
@@ -0,0 +1,125 @@
+package com.stevezeidner.movementgauge.ui;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * Runs a listener once on the next display frame. Uses Choreographer frame callbacks on API 16+
+ * and falls back to a Handler ticking at roughly 60Hz on older devices. Nothing runs unless a
+ * frame has been asked for, so an idle listener costs nothing.
+ *
+ * Create and use from the main thread.
+ */
+public abstract class VsyncScheduler {
+    private static final long FALLBACK_FRAME_MS = 16;
+
+    /**
+     * Receives frame callbacks
+     */
+    public interface FrameListener {
+        /**
+         * @param frameTimeNanos time the frame started rendering, in the System.nanoTime() base
+         */
+        void onFrame(long frameTimeNanos);
+    }
+
+    protected final FrameListener listener;
+    protected boolean scheduled = false;
+
+    protected VsyncScheduler(FrameListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Pick the best scheduler for this device
+     */
+    public static VsyncScheduler create(FrameListener listener) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return new ChoreographerScheduler(listener);
+        }
+        return new HandlerScheduler(listener);
+    }
+
+    /**
+     * Ask for one callback on the next frame. Asking again before it runs has no effect.
+     */
+    public void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            post();
+        }
+    }
+
+    /**
+     * Drop a pending callback, if any
+     */
+    public void cancel() {
+        if (scheduled) {
+            scheduled = false;
+            remove();
+        }
+    }
+
+    public boolean isScheduled() {
+        return scheduled;
+    }
+
+    protected void dispatch(long frameTimeNanos) {
+        scheduled = false;
+        listener.onFrame(frameTimeNanos);
+    }
+
+    protected abstract void post();
+
+    protected abstract void remove();
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class ChoreographerScheduler extends VsyncScheduler implements Choreographer.FrameCallback {
+        private final Choreographer choreographer = Choreographer.getInstance();
+
+        ChoreographerScheduler(FrameListener listener) {
+            super(listener);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            dispatch(frameTimeNanos);
+        }
+
+        @Override
+        protected void post() {
+            choreographer.postFrameCallback(this);
+        }
+
+        @Override
+        protected void remove() {
+            choreographer.removeFrameCallback(this);
+        }
+    }
+
+    private static class HandlerScheduler extends VsyncScheduler implements Runnable {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        HandlerScheduler(FrameListener listener) {
+            super(listener);
+        }
+
+        @Override
+        public void run() {
+            dispatch(System.nanoTime());
+        }
+
+        @Override
+        protected void post() {
+            handler.postDelayed(this, FALLBACK_FRAME_MS);
+        }
+
+        @Override
+        protected void remove() {
+            handler.removeCallbacks(this);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.stevezeidner.movementgauge.ui.view;
+
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+/**
+ * Process-wide LRU cache of rendered gauge layers, shared by every GaugeView so that a mode
+ * toggle or a configuration change reuses bitmaps instead of rasterizing the dial again.
+ *
+ * Cached bitmaps may be drawn by several views at once, so they are never recycled; evicted
+ * ones are left to the garbage collector.
+ */
+class GaugeLayerCache {
+    private static final LruCache<String, Bitmap> cache =
+            new LruCache<String, Bitmap>((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 16)) {
+                @Override
+                protected int sizeOf(String key, Bitmap bitmap) {
+                    return bitmap.getRowBytes() * bitmap.getHeight();
+                }
+            };
+
+    private GaugeLayerCache() {
+    }
+
+    /**
+     * Key for the static scale (ticks and labels)
+     */
+    static String scaleKey(int size, float density) {
+        return "scale:" + size + ":" + density;
+    }
+
+    /**
+     * Key for the tintable face
+     */
+    static String faceKey(int size, float density, int color) {
+        return "face:" + size + ":" + density + ":" + Integer.toHexString(color);
+    }
+
+    static Bitmap get(String key) {
+        return cache.get(key);
+    }
+
+    static void put(String key, Bitmap bitmap) {
+        cache.put(key, bitmap);
+    }
+
+    static void clear() {
+        cache.evictAll();
+    }
+}
@@ -3,6 +3,7 @@ package com.stevezeidner.movementgauge.ui.view;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.RectF;
@@ -11,14 +12,27 @@ import android.os.Build;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
+import android.view.WindowManager;
 
 import com.stevezeidner.movementgauge.R;
-import com.stevezeidner.movementgauge.core.Utility;
+import com.stevezeidner.movementgauge.ui.RenderStats;
+import com.stevezeidner.movementgauge.ui.VsyncScheduler;
 
 /**
- * View that draws a gauge and controls the needle
+ * View that draws a gauge and controls the needle. Needle motion is driven by vsync frame
+ * callbacks and stops asking for frames as soon as the needle comes to rest.
+ *
+ * The static dial is rasterized once into a bitmap, which the hardware renderer keeps as a
+ * texture. Each frame only draws that texture plus the needle paths, pre-scaled to pixels so the
+ * GPU can reuse their cached masks and just rotate them. A software layer is available as a
+ * fallback through {@link #setSoftwareRendering(boolean)}.
+ *
+ * Stage timings, animation frame intervals and layer rendering are recorded in a
+ * {@link RenderStats}, readable through {@link #getRenderStats()} or drawn on top of the gauge
+ * with {@link #setDebugOverlay(boolean)}, along with any text the owner adds through
+ * {@link #setDebugOverlayText(CharSequence)}.
  */
-public class GaugeView extends View {
+public class GaugeView extends View implements VsyncScheduler.FrameListener {
 
     private static final String TAG = GaugeView.class.getSimpleName();
 
@@ -39,7 +53,28 @@ public class GaugeView extends View {
     private Path needleShadowPath;
     private Paint backgroundPaint;
 
-    private Bitmap background;
+    // needle paths in pixel coordinates for the current size
+    private final Path scaledNeedlePath = new Path();
+    private final Path scaledNeedleShadowPath = new Path();
+    private final Matrix needleScaleMatrix = new Matrix();
+    private boolean softwareRendering = false;
+
+    // rendered layers, shared through GaugeLayerCache; never recycle these
+    private Bitmap scaleLayer;
+    private Bitmap faceLayer;
+    private float faceLayerOffset;
+
+    // dial geometry in unit coordinates, computed once: tick segments as drawLines() input and
+    // the angle and value of every label
+    private float[] majorTickLines;
+    private float[] minorTickLines;
+    private float[] labelAngles;
+    private int[] labelValues;
+    private static final float labelBaseline = 0.16f;
+
+    // label glyphs for the current size
+    private GlyphAtlas labelAtlas;
+    private int labelAtlasSize = 0;
 
     // scale config
     private static final int totalNicks = 80;
@@ -48,12 +83,23 @@ public class GaugeView extends View {
     private static final int minDegrees = 0;
     private static final int maxDegrees = 100;
 
-    // needle dynamics
+    // needle dynamics, integrated in fixed steps so motion doesn't depend on the frame rate
+    private static final float needleStep = 1.0f / 240.0f; // seconds
+    private static final float maxFrameDelta = 0.1f; // seconds, so a stalled frame doesn't fling the needle
     private float needlePosition = 0.0f;
     private float needleTarget = centerDegree;
     private float needleVelocity = 0.0f;
     private float needleAcceleration = 1.0f;
-    private long lastNeedleMoveTime = -1L;
+    private float needleTimeAccumulator = 0.0f;
+    private long lastFrameTimeNanos = -1L;
+    private VsyncScheduler frameScheduler;
+
+    // instrumentation
+    private final RenderStats renderStats = new RenderStats();
+    private boolean debugOverlay = false;
+    private Paint debugOverlayPaint;
+    private final StringBuilder debugOverlayText = new StringBuilder();
+    private CharSequence debugOverlayExtra;
 
     public GaugeView(Context context) {
         super(context);
@@ -72,6 +118,7 @@ public class GaugeView extends View {
 
     private void init() {
         initDrawingTools();
+        frameScheduler = VsyncScheduler.create(this);
     }
 
     /**
@@ -157,8 +204,125 @@ public class GaugeView extends View {
         backgroundPaint = new Paint();
         backgroundPaint.setFilterBitmap(true);
 
+        debugOverlayPaint = new Paint();
+        debugOverlayPaint.setAntiAlias(true);
+        debugOverlayPaint.setColor(getResources().getColor(R.color.needle));
+        debugOverlayPaint.setTypeface(Typeface.MONOSPACE);
+        debugOverlayPaint.setTextSize(10.0f * getResources().getDisplayMetrics().scaledDensity);
+
+        buildScaleGeometry();
+    }
+
+    /**
+     * Lay out every tick and label of the scale once, so drawing the scale needs no per-tick
+     * canvas rotation
+     */
+    private void buildScaleGeometry() {
+        float y1Major = scaleRect.top;
+        float y1Minor = scaleRect.top - 0.015f;
+        float y2Major = y1Major - 0.050f;
+        float y2Minor = y2Major + 0.015f;
+
+        int majorCount = 0;
+        int minorCount = 0;
+        for (int i = 0; i < totalNicks; ++i) {
+            int value = nickToDegree(i);
+            if (value >= minDegrees && value <= maxDegrees) {
+                if (i % 5 == 0) {
+                    majorCount++;
+                } else {
+                    minorCount++;
+                }
+            }
+        }
+
+        majorTickLines = new float[majorCount * 4];
+        minorTickLines = new float[minorCount * 4];
+        labelAngles = new float[majorCount];
+        labelValues = new int[majorCount];
+
+        int major = 0;
+        int minor = 0;
+        for (int i = 0; i < totalNicks; ++i) {
+            int value = nickToDegree(i);
+            if (value < minDegrees || value > maxDegrees) {
+                continue;
+            }
+
+            float angle = i * degreesPerNick;
+            if (i % 5 == 0) {
+                putRotatedLine(majorTickLines, major * 4, angle, y1Major, y2Major);
+                labelAngles[major] = angle;
+                labelValues[major] = value;
+                major++;
+            } else {
+                putRotatedLine(minorTickLines, minor * 4, angle, y1Minor, y2Minor);
+                minor++;
+            }
+        }
+    }
+
+    /**
+     * Store a vertical segment on the center line, rotated clockwise about the center of the gauge
+     */
+    private static void putRotatedLine(float[] lines, int offset, float angle, float y1, float y2) {
+        double radians = Math.toRadians(angle);
+        float sin = (float) Math.sin(radians);
+        float cos = (float) Math.cos(radians);
+        lines[offset] = 0.5f - (y1 - 0.5f) * sin;
+        lines[offset + 1] = 0.5f + (y1 - 0.5f) * cos;
+        lines[offset + 2] = 0.5f - (y2 - 0.5f) * sin;
+        lines[offset + 3] = 0.5f + (y2 - 0.5f) * cos;
+    }
+
+    /**
+     * Force the view onto a software layer, e.g. for devices whose GPU driver renders the gauge
+     * badly. Hardware rendering is the default.
+     *
+     * @param software true to rasterize on the CPU
+     */
+    public void setSoftwareRendering(boolean software) {
+        softwareRendering = software;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-            setLayerType(LAYER_TYPE_SOFTWARE, needlePaint);
+            setLayerType(software ? LAYER_TYPE_SOFTWARE : LAYER_TYPE_NONE, null);
+        }
+    }
+
+    public boolean isSoftwareRendering() {
+        return softwareRendering;
+    }
+
+    /**
+     * @return rendering counters for this view
+     */
+    public RenderStats getRenderStats() {
+        return renderStats;
+    }
+
+    /**
+     * Show the rendering counters on top of the gauge
+     *
+     * @param enabled
+     */
+    public void setDebugOverlay(boolean enabled) {
+        debugOverlay = enabled;
+        invalidate();
+    }
+
+    public boolean isDebugOverlay() {
+        return debugOverlay;
+    }
+
+    /**
+     * Set extra lines to draw below the rendering counters while the overlay is shown. The text
+     * is read on every draw, so a reused builder can be passed once and refreshed in place.
+     *
+     * @param text lines separated by '\n', or null for none
+     */
+    public void setDebugOverlayText(CharSequence text) {
+        debugOverlayExtra = text;
+        if (debugOverlay) {
+            invalidate();
         }
     }
 
@@ -189,35 +353,42 @@ public class GaugeView extends View {
     }
 
     /**
-     * Draw the scale for the guage based on configuration values
+     * Draw the scale for the guage from the precomputed geometry
      *
-     * @param canvas
+     * @param canvas canvas in pixel coordinates
+     * @param size   width of the gauge in pixels
      */
-    private void drawScale(Canvas canvas) {
+    private void drawScale(Canvas canvas, int size) {
+        float scale = (float) size;
         canvas.save(Canvas.MATRIX_SAVE_FLAG);
-        for (int i = 0; i < totalNicks; ++i) {
-            float y1Major = scaleRect.top;
-            float y1Minor = scaleRect.top - 0.015f;
-            float y2Major = y1Major - 0.050f;
-            float y2Minor = y2Major + 0.015f;
-
-            int value = nickToDegree(i);
+        canvas.scale(scale, scale);
+        canvas.drawLines(minorTickLines, scaleMinorTickPaint);
+        canvas.drawLines(majorTickLines, scaleMajorTickPaint);
+        canvas.restore();
 
-            if (i % 5 == 0) {
-                if (value >= minDegrees && value <= maxDegrees) {
-                    canvas.drawLine(0.5f, y1Major, 0.5f, y2Major, scaleMajorTickPaint);
-                    String valueString = Integer.toString(value);
-                    Utility.drawTextOnCanvasWithMagnifier(canvas, valueString, 0.5f, y1Major + 0.06f, scaleValuePaint);
-                }
-            } else {
-                if (value >= minDegrees && value <= maxDegrees) {
-                    canvas.drawLine(0.5f, y1Minor, 0.5f, y2Minor, scaleMinorTickPaint);
-                }
-            }
+        // labels are drawn in pixels, straight from the atlas
+        GlyphAtlas atlas = getLabelAtlas(size);
+        float center = scale * 0.5f;
+        float baseline = scale * labelBaseline;
+        for (int i = 0; i < labelValues.length; i++) {
+            canvas.save(Canvas.MATRIX_SAVE_FLAG);
+            canvas.rotate(labelAngles[i], center, center);
+            atlas.drawNumber(canvas, labelValues[i], center, baseline, backgroundPaint);
+            canvas.restore();
+        }
+    }
 
-            canvas.rotate(degreesPerNick, 0.5f, 0.5f);
+    /**
+     * Get the label glyphs for a gauge size, building them on the first use of that size
+     */
+    private GlyphAtlas getLabelAtlas(int size) {
+        if (labelAtlas == null || labelAtlasSize != size) {
+            Paint paint = new Paint(scaleValuePaint);
+            paint.setTextSize(scaleValuePaint.getTextSize() * size);
+            labelAtlas = new GlyphAtlas(paint);
+            labelAtlasSize = size;
         }
-        canvas.restore();
+        return labelAtlas;
     }
 
     /**
@@ -261,30 +432,73 @@ public class GaugeView extends View {
 
 
     /**
-     * Draw background bitmap and move needle if needed
+     * Draw background bitmap and the needle at its current position
      *
      * @param canvas
      */
     @Override
     protected void onDraw(Canvas canvas) {
+        long start = System.nanoTime();
         drawBackground(canvas);
+        long backgroundEnd = System.nanoTime();
+        drawNeedle(canvas);
+        long end = System.nanoTime();
 
-        float scale = (float) getWidth();
-        canvas.save(Canvas.MATRIX_SAVE_FLAG);
-        canvas.scale(scale, scale);
+        renderStats.recordStage(RenderStats.STAGE_BACKGROUND, start, backgroundEnd);
+        renderStats.recordStage(RenderStats.STAGE_NEEDLE, backgroundEnd, end);
+        renderStats.recordStage(RenderStats.STAGE_DRAW, start, end);
 
-        drawNeedle(canvas);
+        if (debugOverlay) {
+            drawDebugOverlay(canvas);
+        }
+    }
 
-        canvas.restore();
+    /**
+     * Draw the rendering counters in the top left corner
+     *
+     * @param canvas
+     */
+    private void drawDebugOverlay(Canvas canvas) {
+        debugOverlayText.setLength(0);
+        renderStats.appendSummary(debugOverlayText);
+        if (debugOverlayExtra != null && debugOverlayExtra.length() > 0) {
+            debugOverlayText.append('\n').append(debugOverlayExtra);
+        }
 
-        if (needleNeedsToMove()) {
-            moveNeedle();
+        float lineHeight = debugOverlayPaint.getFontSpacing();
+        float y = lineHeight;
+        int lineStart = 0;
+        int length = debugOverlayText.length();
+        for (int i = 0; i <= length; i++) {
+            if (i == length || debugOverlayText.charAt(i) == '\n') {
+                canvas.drawText(debugOverlayText, lineStart, i, 0, y, debugOverlayPaint);
+                lineStart = i + 1;
+                y += lineHeight;
+            }
         }
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        WindowManager windowManager = (WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE);
+        if (windowManager != null) {
+            renderStats.setRefreshRate(windowManager.getDefaultDisplay().getRefreshRate());
+        }
+        startNeedleAnimation();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        frameScheduler.cancel();
+        lastFrameTimeNanos = -1L;
+        super.onDetachedFromWindow();
+    }
+
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         Log.d(TAG, "Size changed to " + w + "x" + h);
+        scaleNeedle();
         regenerateBackground();
     }
 
@@ -294,29 +508,71 @@ public class GaugeView extends View {
      * @param canvas
      */
     private void drawBackground(Canvas canvas) {
-        if (background == null) {
+        if (scaleLayer == null || faceLayer == null) {
             Log.w(TAG, "Background not created");
         } else {
-            canvas.drawBitmap(background, 0, 0, backgroundPaint);
+            canvas.drawBitmap(scaleLayer, 0, 0, backgroundPaint);
+            canvas.drawBitmap(faceLayer, faceLayerOffset, faceLayerOffset, backgroundPaint);
         }
     }
 
     /**
-     * Create scale and face of the gauge as a bitmap
+     * Fetch the scale and face layers of the gauge, rendering whichever isn't cached yet
      */
     private void regenerateBackground() {
-        // free the old bitmap
-        if (background != null) {
-            background.recycle();
+        long start = System.nanoTime();
+        regenerateScaleLayer();
+        regenerateFaceLayer();
+        renderStats.recordStage(RenderStats.STAGE_REGENERATE, start, System.nanoTime());
+    }
+
+    /**
+     * Fetch or render the static scale layer (ticks and labels) for the current size
+     */
+    private void regenerateScaleLayer() {
+        int width = getWidth();
+        int height = getHeight();
+        if (width == 0 || height == 0) {
+            return;
         }
 
-        background = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas backgroundCanvas = new Canvas(background);
-        float scale = (float) getWidth();
-        backgroundCanvas.scale(scale, scale);
+        String key = GaugeLayerCache.scaleKey(width, getResources().getDisplayMetrics().density);
+        Bitmap layer = GaugeLayerCache.get(key);
+        if (layer == null) {
+            layer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            drawScale(new Canvas(layer), width);
+            GaugeLayerCache.put(key, layer);
+            renderStats.recordLayerRendered();
+        }
+        scaleLayer = layer;
+    }
+
+    /**
+     * Fetch or render the face layer for the current size and face color. The layer only covers
+     * the face itself, plus a pixel of margin for antialiasing.
+     */
+    private void regenerateFaceLayer() {
+        int width = getWidth();
+        if (width == 0) {
+            return;
+        }
 
-        drawScale(backgroundCanvas);
-        drawFace(backgroundCanvas);
+        float scale = (float) width;
+        faceLayerOffset = (float) Math.floor(faceRect.left * scale) - 1;
+
+        String key = GaugeLayerCache.faceKey(width, getResources().getDisplayMetrics().density, facePaint.getColor());
+        Bitmap layer = GaugeLayerCache.get(key);
+        if (layer == null) {
+            int size = (int) Math.ceil(faceRect.right * scale) + 1 - (int) faceLayerOffset;
+            layer = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            Canvas layerCanvas = new Canvas(layer);
+            layerCanvas.translate(-faceLayerOffset, -faceLayerOffset);
+            layerCanvas.scale(scale, scale);
+            drawFace(layerCanvas);
+            GaugeLayerCache.put(key, layer);
+            renderStats.recordLayerRendered();
+        }
+        faceLayer = layer;
     }
 
     /**
@@ -326,13 +582,25 @@ public class GaugeView extends View {
      */
     private void drawNeedle(Canvas canvas) {
         float needleAngle = degreeToAngle(needlePosition);
+        float center = getWidth() * 0.5f;
         canvas.save(Canvas.MATRIX_SAVE_FLAG);
-        canvas.rotate(needleAngle, 0.5f, 0.5f);
-        canvas.drawPath(needleShadowPath, needleShadowPaint);
-        canvas.drawPath(needlePath, needlePaint);
+        canvas.rotate(needleAngle, center, center);
+        canvas.drawPath(scaledNeedleShadowPath, needleShadowPaint);
+        canvas.drawPath(scaledNeedlePath, needlePaint);
         canvas.restore();
     }
 
+    /**
+     * Bake the view size into the needle paths. Drawing unit-sized paths under a large canvas
+     * scale makes the hardware renderer rasterize them at the wrong size.
+     */
+    private void scaleNeedle() {
+        float scale = (float) getWidth();
+        needleScaleMatrix.setScale(scale, scale);
+        needlePath.transform(needleScaleMatrix, scaledNeedlePath);
+        needleShadowPath.transform(needleScaleMatrix, scaledNeedleShadowPath);
+    }
+
     /**
      * See if the position has changed enough that we should actually move the needle
      *
@@ -343,37 +611,61 @@ public class GaugeView extends View {
     }
 
     /**
-     * Move the needle smoothly
+     * Ask for frame callbacks if the needle has somewhere to go
      */
-    private void moveNeedle() {
-        if (!needleNeedsToMove()) {
-            return;
+    private void startNeedleAnimation() {
+        if (needleNeedsToMove() && !frameScheduler.isScheduled()) {
+            frameScheduler.schedule();
         }
+    }
 
-        if (lastNeedleMoveTime != -1L) {
-            long currentTime = System.currentTimeMillis();
-            float delta = (currentTime - lastNeedleMoveTime) / 1000.0f;
-
-            float direction = Math.signum(needleVelocity);
-            if (Math.abs(needleVelocity) < 90.0f) {
-                needleAcceleration = 5.0f * (needleTarget - needlePosition);
-            } else {
-                needleAcceleration = 0.0f;
-            }
-            needlePosition += needleVelocity * delta;
-            needleVelocity += needleAcceleration * delta;
-            if ((needleTarget - needlePosition) * direction < 0.01f * direction) {
-                needlePosition = needleTarget;
-                needleVelocity = 0.0f;
-                needleAcceleration = 0.0f;
-                lastNeedleMoveTime = -1L;
-            } else {
-                lastNeedleMoveTime = System.currentTimeMillis();
+    /**
+     * Advance the needle by the time since the last frame and redraw. Stops requesting frames
+     * once the needle is at rest.
+     *
+     * @param frameTimeNanos vsync timestamp of this frame
+     */
+    @Override
+    public void onFrame(long frameTimeNanos) {
+        if (lastFrameTimeNanos != -1L) {
+            renderStats.recordFrameInterval(frameTimeNanos - lastFrameTimeNanos);
+            float delta = (frameTimeNanos - lastFrameTimeNanos) / 1000000000.0f;
+            needleTimeAccumulator += Math.min(delta, maxFrameDelta);
+            while (needleTimeAccumulator >= needleStep && needleNeedsToMove()) {
+                stepNeedle(needleStep);
+                needleTimeAccumulator -= needleStep;
             }
-            invalidate();
+        }
+        invalidate();
+
+        if (needleNeedsToMove()) {
+            lastFrameTimeNanos = frameTimeNanos;
+            frameScheduler.schedule();
+        } else {
+            // at rest: no more callbacks until the target changes
+            lastFrameTimeNanos = -1L;
+            needleTimeAccumulator = 0.0f;
+        }
+    }
+
+    /**
+     * Move the needle smoothly, one fixed time step
+     *
+     * @param delta step length in seconds
+     */
+    private void stepNeedle(float delta) {
+        float direction = Math.signum(needleVelocity);
+        if (Math.abs(needleVelocity) < 90.0f) {
+            needleAcceleration = 5.0f * (needleTarget - needlePosition);
         } else {
-            lastNeedleMoveTime = System.currentTimeMillis();
-            moveNeedle();
+            needleAcceleration = 0.0f;
+        }
+        needlePosition += needleVelocity * delta;
+        needleVelocity += needleAcceleration * delta;
+        if ((needleTarget - needlePosition) * direction < 0.01f * direction) {
+            needlePosition = needleTarget;
+            needleVelocity = 0.0f;
+            needleAcceleration = 0.0f;
         }
     }
 
@@ -389,7 +681,7 @@ public class GaugeView extends View {
             value = maxDegrees;
         }
         needleTarget = value;
-        invalidate();
+        startNeedleAnimation();
     }
 
     /**
@@ -399,7 +691,9 @@ public class GaugeView extends View {
      */
     public void setFaceColor(int color) {
         facePaint.setColor(color);
-        regenerateBackground();
+        long start = System.nanoTime();
+        regenerateFaceLayer();
+        renderStats.recordStage(RenderStats.STAGE_REGENERATE, start, System.nanoTime());
         invalidate();
     }
 
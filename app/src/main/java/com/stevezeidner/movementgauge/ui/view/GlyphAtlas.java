@@ -0,0 +1,109 @@
+package com.stevezeidner.movementgauge.ui.view;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * The digits 0-9 rasterized once into a single bitmap at a fixed pixel size, so numbers can be
+ * drawn as bitmap copies instead of laying out text every time. Drawing allocates nothing.
+ */
+class GlyphAtlas {
+    private static final String DIGITS = "0123456789";
+    private static final int PADDING = 1; // pixels around each glyph for antialiasing
+
+    private final Bitmap bitmap;
+    private final Rect[] glyphRects = new Rect[DIGITS.length()];
+    private final float[] advances = new float[DIGITS.length()];
+    private final float ascent;
+
+    // scratch space for drawing
+    private final Rect src = new Rect();
+    private final RectF dst = new RectF();
+    private final int[] digits = new int[10];
+
+    /**
+     * Rasterize the digits
+     *
+     * @param textPaint paint with the text size in pixels, color and typeface to use
+     */
+    GlyphAtlas(Paint textPaint) {
+        Paint paint = new Paint(textPaint);
+        paint.setTextAlign(Paint.Align.LEFT);
+        paint.getTextWidths(DIGITS, advances);
+
+        Paint.FontMetrics metrics = paint.getFontMetrics();
+        ascent = metrics.ascent;
+        int height = (int) Math.ceil(metrics.descent - metrics.ascent) + 2 * PADDING;
+
+        int width = 0;
+        for (int i = 0; i < advances.length; i++) {
+            int cellWidth = (int) Math.ceil(advances[i]) + 2 * PADDING;
+            glyphRects[i] = new Rect(width, 0, width + cellWidth, height);
+            width += cellWidth;
+        }
+
+        bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        for (int i = 0; i < advances.length; i++) {
+            canvas.drawText(DIGITS, i, i + 1, glyphRects[i].left + PADDING, PADDING - ascent, paint);
+        }
+    }
+
+    /**
+     * Width of a non-negative number as drawn by {@link #drawNumber}
+     */
+    float measureNumber(int value) {
+        int count = splitDigits(value);
+        float width = 0;
+        for (int i = 0; i < count; i++) {
+            width += advances[digits[i]];
+        }
+        return width;
+    }
+
+    /**
+     * Draw a non-negative number centered horizontally on x
+     *
+     * @param canvas   canvas in pixel coordinates
+     * @param value    number to draw
+     * @param x        horizontal center
+     * @param baseline text baseline
+     * @param paint    paint used for the bitmap copies
+     */
+    void drawNumber(Canvas canvas, int value, float x, float baseline, Paint paint) {
+        float pen = x - measureNumber(value) / 2.0f;
+        int count = splitDigits(value);
+        for (int i = 0; i < count; i++) {
+            int digit = digits[i];
+            src.set(glyphRects[digit]);
+            float left = pen - PADDING;
+            float top = baseline + ascent - PADDING;
+            dst.set(left, top, left + src.width(), top + src.height());
+            canvas.drawBitmap(bitmap, src, dst, paint);
+            pen += advances[digit];
+        }
+    }
+
+    /**
+     * Fill digits with the decimal digits of value, most significant first
+     *
+     * @return number of digits
+     */
+    private int splitDigits(int value) {
+        int count = 0;
+        do {
+            digits[count++] = value % 10;
+            value /= 10;
+        } while (value > 0);
+
+        for (int i = 0, j = count - 1; i < j; i++, j--) {
+            int swap = digits[i];
+            digits[i] = digits[j];
+            digits[j] = swap;
+        }
+        return count;
+    }
+}
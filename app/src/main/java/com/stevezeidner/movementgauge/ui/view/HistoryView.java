@@ -0,0 +1,256 @@
+package com.stevezeidner.movementgauge.ui.view;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.stevezeidner.movementgauge.R;
+import com.stevezeidner.movementgauge.core.Constants;
+import com.stevezeidner.movementgauge.engine.SampleHistory;
+
+/**
+ * View that plots the recent history of samples as a scrolling sparkline, newest on the right.
+ *
+ * Every pixel column covers a fixed slice of time and is drawn as a bar from the minimum to the
+ * maximum sample in that slice, so the cost of drawing doesn't depend on how many samples there
+ * are. Columns live in a cached bitmap used as a ring: scrolling just moves the ring's start,
+ * and each frame only repaints the newest column. The whole plot is rebuilt from the sample
+ * history only when the size or the range changes.
+ */
+public class HistoryView extends View {
+
+    private final SampleHistory history = new SampleHistory(Constants.HISTORY_CAPACITY);
+    private final long windowNanos = Constants.HISTORY_WINDOW_MS * 1000000L;
+    private float minValue = 0.0f;
+    private float maxValue = 100.0f;
+
+    private Paint linePaint;
+    private Paint clearPaint;
+
+    // plotted columns; column c (absolute, timestamp / columnNanos) lives at x = c mod width
+    private Bitmap plot;
+    private Canvas plotCanvas;
+    private long columnNanos = 1;
+    private long currentColumn;
+    private boolean hasColumns = false;
+
+    // the newest column, still taking samples
+    private float columnMin;
+    private float columnMax;
+    private boolean columnDirty = false;
+
+    // scratch space for rebuilding and drawing
+    private float[] rebuildMin = new float[0];
+    private float[] rebuildMax = new float[0];
+    private final Rect src = new Rect();
+    private final Rect dst = new Rect();
+
+    public HistoryView(Context context) {
+        super(context);
+        initDrawingTools();
+    }
+
+    public HistoryView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        initDrawingTools();
+    }
+
+    public HistoryView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        initDrawingTools();
+    }
+
+    /**
+     * Initiate drawing tools
+     */
+    private void initDrawingTools() {
+        // the plot is an alpha mask; this paint colors it when drawn
+        linePaint = new Paint();
+        linePaint.setColor(getResources().getColor(R.color.history_line));
+        linePaint.setStyle(Paint.Style.FILL);
+
+        clearPaint = new Paint();
+        clearPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+    }
+
+    /**
+     * Add a sample to the history. Only the newest column is marked for repainting.
+     *
+     * @param timestamp sample time in nanoseconds
+     * @param value     sample value
+     */
+    public void addSample(long timestamp, float value) {
+        if (history.size() > 0 && timestamp < history.getLatestTimestamp()) {
+            // the clock went backwards, e.g. a new trace replay; start over
+            history.clear();
+            history.add(timestamp, value);
+            rebuild();
+            invalidate();
+            return;
+        }
+        history.add(timestamp, value);
+        if (plot == null) {
+            return;
+        }
+
+        long column = timestamp / columnNanos;
+        if (!hasColumns) {
+            hasColumns = true;
+            currentColumn = column;
+            columnMin = value;
+            columnMax = value;
+        } else if (column != currentColumn) {
+            // finish the previous column and blank any columns that got no samples
+            paintColumn(currentColumn, columnMin, columnMax);
+            long firstGap = Math.max(currentColumn + 1, column - plot.getWidth() + 1);
+            for (long c = firstGap; c < column; c++) {
+                paintColumn(c, Float.NaN, Float.NaN);
+            }
+            currentColumn = column;
+            columnMin = value;
+            columnMax = value;
+        } else if (value < columnMin) {
+            columnMin = value;
+        } else if (value > columnMax) {
+            columnMax = value;
+        }
+
+        if (!columnDirty) {
+            columnDirty = true;
+            invalidate();
+        }
+    }
+
+    /**
+     * Set the values shown at the bottom and top of the view
+     *
+     * @param min
+     * @param max
+     */
+    public void setRange(float min, float max) {
+        if (max <= min) {
+            throw new IllegalArgumentException("max must be above min");
+        }
+        minValue = min;
+        maxValue = max;
+        rebuild();
+        invalidate();
+    }
+
+    /**
+     * Forget all samples
+     */
+    public void clear() {
+        history.clear();
+        rebuild();
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        rebuild();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (plot == null || !hasColumns) {
+            return;
+        }
+
+        if (columnDirty) {
+            paintColumn(currentColumn, columnMin, columnMax);
+            columnDirty = false;
+        }
+
+        // unroll the ring: the columns after the newest one are the oldest
+        int width = plot.getWidth();
+        int height = plot.getHeight();
+        int newest = columnX(currentColumn);
+        int olderWidth = width - newest - 1;
+
+        src.set(newest + 1, 0, width, height);
+        dst.set(0, 0, olderWidth, height);
+        canvas.drawBitmap(plot, src, dst, linePaint);
+
+        src.set(0, 0, newest + 1, height);
+        dst.set(olderWidth, 0, width, height);
+        canvas.drawBitmap(plot, src, dst, linePaint);
+    }
+
+    /**
+     * Repaint every column from the sample history
+     */
+    private void rebuild() {
+        int width = getWidth();
+        int height = getHeight();
+        hasColumns = false;
+        columnDirty = false;
+        if (width == 0 || height == 0) {
+            plot = null;
+            plotCanvas = null;
+            return;
+        }
+
+        if (plot == null || plot.getWidth() != width || plot.getHeight() != height) {
+            if (plot != null) {
+                plot.recycle();
+            }
+            plot = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+            plotCanvas = new Canvas(plot);
+            rebuildMin = new float[width];
+            rebuildMax = new float[width];
+        } else {
+            plot.eraseColor(0);
+        }
+        columnNanos = Math.max(1, windowNanos / width);
+
+        if (history.size() == 0) {
+            return;
+        }
+
+        currentColumn = history.getLatestTimestamp() / columnNanos;
+        long firstColumn = currentColumn - width + 1;
+        history.decimate(firstColumn, columnNanos, width, rebuildMin, rebuildMax);
+        for (int i = 0; i < width; i++) {
+            if (!Float.isNaN(rebuildMin[i])) {
+                paintColumn(firstColumn + i, rebuildMin[i], rebuildMax[i]);
+            }
+        }
+        hasColumns = true;
+        columnMin = rebuildMin[width - 1];
+        columnMax = rebuildMax[width - 1];
+    }
+
+    /**
+     * Clear a column and draw its min to max bar; a NaN range leaves it blank
+     */
+    private void paintColumn(long column, float min, float max) {
+        int x = columnX(column);
+        int height = plot.getHeight();
+        plotCanvas.drawRect(x, 0, x + 1, height, clearPaint);
+        if (Float.isNaN(min)) {
+            return;
+        }
+
+        float top = valueToY(max, height);
+        float bottom = Math.max(valueToY(min, height), top + 1);
+        plotCanvas.drawRect(x, top, x + 1, bottom, linePaint);
+    }
+
+    private int columnX(long column) {
+        int width = plot.getWidth();
+        return (int) (((column % width) + width) % width);
+    }
+
+    private float valueToY(float value, int height) {
+        float fraction = (value - minValue) / (maxValue - minValue);
+        fraction = Math.max(0.0f, Math.min(1.0f, fraction));
+        return (1.0f - fraction) * (height - 1);
+    }
+}
@@ -0,0 +1,82 @@
+package com.stevezeidner.movementgauge.benchmarks;
+
+import com.stevezeidner.movementgauge.engine.MovementEngine;
+import com.stevezeidner.movementgauge.engine.SampleBatchCodec;
+import com.stevezeidner.movementgauge.engine.SampleSink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The shared movement engine and batch codec. Scores are per sample.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EngineBenchmark {
+    private static final int SAMPLES = 1000;
+
+    private long[] timestamps;
+    private float[] x;
+    private float[] y;
+    private float[] z;
+    private float[] values;
+
+    private MovementEngine engine;
+    private SampleBatchCodec codec;
+    private float sum;
+    private final SampleSink sink = new SampleSink() {
+        @Override
+        public void onSample(long timestamp, float sample, float cumulative) {
+            sum += sample;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        timestamps = new long[SAMPLES];
+        x = new float[SAMPLES];
+        y = new float[SAMPLES];
+        z = new float[SAMPLES];
+        values = new float[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            timestamps[i] = 98765432109876L + i * 60000000L;
+            x[i] = (float) random.nextGaussian() * 2.0f;
+            y[i] = (float) random.nextGaussian() * 2.0f;
+            z[i] = (float) random.nextGaussian() * 2.0f;
+        }
+        MovementEngine.normalize(x, y, z, 0, SAMPLES, values);
+
+        engine = new MovementEngine();
+        codec = new SampleBatchCodec();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public float process() {
+        engine.process(timestamps, x, y, z, 0, SAMPLES, sink);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public String encode() {
+        return codec.encode(timestamps, values, SAMPLES);
+    }
+}
@@ -0,0 +1,73 @@
+package com.stevezeidner.movementgauge.benchmarks;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building one publish batch of samples, the way MainActivity.addToQueue and flushQueue did it
+ * before the binary codec, against the primitive queue that replaced it
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueueBenchmark {
+    private static final int BATCH = 100;
+
+    private long[] timestamps;
+    private float[] values;
+
+    // primitive queue
+    private long[] queueTimestamps;
+    private float[] queueValues;
+
+    @Setup
+    public void setUp() {
+        timestamps = new long[BATCH];
+        values = new float[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            timestamps[i] = 98765432109876L + i * 60000000L;
+            values[i] = i % 30;
+        }
+        queueTimestamps = new long[BATCH];
+        queueValues = new float[BATCH];
+    }
+
+    @Benchmark
+    public String jsonBatch() throws JSONException {
+        JSONArray queue = new JSONArray();
+        for (int i = 0; i < BATCH; i++) {
+            JSONObject data = new JSONObject();
+            data.put("time", timestamps[i]);
+            data.put("value", values[i]);
+            queue.put(data);
+        }
+        return queue.toString();
+    }
+
+    @Benchmark
+    public int primitiveQueue() {
+        int size = 0;
+        for (int i = 0; i < BATCH; i++) {
+            queueTimestamps[size] = timestamps[i];
+            queueValues[size] = values[i];
+            size++;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,128 @@
+package com.stevezeidner.movementgauge.benchmarks;
+
+import com.stevezeidner.movementgauge.engine.MovementEngine;
+import com.stevezeidner.movementgauge.engine.SampleBatcher;
+import com.stevezeidner.movementgauge.engine.SampleSink;
+import com.stevezeidner.movementgauge.engine.TraceReader;
+import com.stevezeidner.movementgauge.engine.TraceReplayer;
+import com.stevezeidner.movementgauge.engine.TraceWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a trace through the engine and the publish batcher as fast as possible. Pass a trace
+ * recorded on a device with -p trace=/path/to/trace.bin, otherwise a synthetic one is used.
+ * Scores are per sample.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReplayBenchmark {
+    private static final int SYNTHETIC_SAMPLES = 100000;
+
+    @Param("")
+    public String trace;
+
+    private byte[] traceBytes;
+    private long sampleCount;
+    private long published;
+
+    @Setup
+    public void setUp() throws IOException {
+        if (trace.length() > 0) {
+            traceBytes = readFile(new File(trace));
+        } else {
+            traceBytes = syntheticTrace();
+        }
+        sampleCount = TraceReplayer.replayBlocks(traceReader(), new MovementEngine(), new SampleSink() {
+            @Override
+            public void onSample(long timestamp, float sample, float cumulative) {
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SYNTHETIC_SAMPLES)
+    public long replayThroughBatcher() throws IOException {
+        final SampleBatcher batcher = new SampleBatcher(1000, 5, 10, new SampleBatcher.BatchPublisher() {
+            @Override
+            public void publish(String batch) {
+                published += batch.length();
+            }
+        });
+
+        // scale so the score stays per sample whatever the trace length
+        long replayed = 0;
+        while (replayed < SYNTHETIC_SAMPLES) {
+            replayed += TraceReplayer.replayBlocks(traceReader(), new MovementEngine(), new SampleSink() {
+                @Override
+                public void onSample(long timestamp, float sample, float cumulative) {
+                    batcher.add(timestamp, sample, timestamp / 1000000L);
+                }
+            });
+            if (sampleCount == 0) {
+                break;
+            }
+        }
+        return published;
+    }
+
+    private TraceReader traceReader() throws IOException {
+        return new TraceReader(new ByteArrayInputStream(traceBytes));
+    }
+
+    private static byte[] syntheticTrace() throws IOException {
+        Random random = new Random(42);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(bytes);
+        long timestamp = 1000000000L;
+        for (int i = 0; i < SYNTHETIC_SAMPLES; i++) {
+            // 50Hz with a little jitter, like a phone in a pocket
+            timestamp += 20000000L + random.nextInt(1000000);
+            writer.write(timestamp,
+                    (float) random.nextGaussian() * 1.5f,
+                    (float) random.nextGaussian() * 1.5f,
+                    (float) random.nextGaussian() * 1.5f);
+        }
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
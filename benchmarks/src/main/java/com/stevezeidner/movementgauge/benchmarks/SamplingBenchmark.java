@@ -0,0 +1,110 @@
+package com.stevezeidner.movementgauge.benchmarks;
+
+import com.stevezeidner.movementgauge.engine.IntervalFlushPolicy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-sample math from the sampling service, run over a recorded-looking stream of x/y/z values
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SamplingBenchmark {
+    private static final int SAMPLES = 1024;
+
+    private float[] x;
+    private float[] y;
+    private float[] z;
+    private float[] values;
+    private int index;
+    private final FixedPointFormatter formatter = new FixedPointFormatter(2);
+    private final IntervalFlushPolicy intervalPolicy = new IntervalFlushPolicy(50, 5, 10);
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        x = new float[SAMPLES];
+        y = new float[SAMPLES];
+        z = new float[SAMPLES];
+        values = new float[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            x[i] = (float) random.nextGaussian() * 2.0f;
+            y[i] = (float) random.nextGaussian() * 2.0f;
+            z[i] = (float) random.nextGaussian() * 2.0f;
+            values[i] = random.nextFloat() * 100.0f;
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (SAMPLES - 1);
+        return index;
+    }
+
+    @Benchmark
+    public float totalAcceleration() {
+        int i = next();
+        return SamplingKernels.totalAcceleration(x[i], y[i], z[i]);
+    }
+
+    @Benchmark
+    public void processSample(Blackhole blackhole) {
+        int i = next();
+        float norm = SamplingKernels.totalAcceleration(x[i], y[i], z[i]);
+        blackhole.consume(SamplingKernels.scaleSample(norm));
+        blackhole.consume(SamplingKernels.accumulate(values[i], norm));
+    }
+
+    @Benchmark
+    public float roundBigDecimal() {
+        return SamplingKernels.roundBigDecimal(values[next()], 2);
+    }
+
+    @Benchmark
+    public float round() {
+        return SamplingKernels.round(values[next()], 2);
+    }
+
+    /**
+     * The value readout as MainActivity used to build it for every sample
+     */
+    @Benchmark
+    public String formatString() {
+        return "" + SamplingKernels.roundBigDecimal(values[next()], 2);
+    }
+
+    @Benchmark
+    public boolean formatFixedPoint() {
+        return formatter.format(values[next()]);
+    }
+
+    @Benchmark
+    public int randomBetween() {
+        return SamplingKernels.randomBetween(5, 10);
+    }
+
+    /**
+     * What replaced randomBetween: the next 5-10s send interval, drawn from the policy's Jitter
+     */
+    @Benchmark
+    public boolean drawSendInterval() {
+        intervalPolicy.onFlushed(0, 0, 0);
+        return intervalPolicy.isDue(0, 0, 0, 7500);
+    }
+}
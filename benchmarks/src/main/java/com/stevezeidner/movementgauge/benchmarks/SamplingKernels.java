@@ -0,0 +1,93 @@
+package com.stevezeidner.movementgauge.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+/**
+ * JVM copies of the per-sample math from the app, so it can be measured without a device. Keep
+ * these in step with the originals in core.Utility and service.SamplingService.
+ */
+public class SamplingKernels {
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9
+    };
+
+    /**
+     * Utility.totalAcceleration; FloatMath.sqrt is a float cast around Math.sqrt
+     */
+    public static float totalAcceleration(float x, float y, float z) {
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+
+    /**
+     * Scaling step of SamplingService.processSample; FloatMath.floor is a float cast around
+     * Math.floor
+     *
+     * @return the instantaneous sample value
+     */
+    public static float scaleSample(float normAccel) {
+        return (float) Math.floor(normAccel * 10);
+    }
+
+    /**
+     * Cumulative step of SamplingService.processSample
+     */
+    public static float accumulate(float cumulative, float normAccel) {
+        return (float) (cumulative + Math.floor(normAccel) * 0.01);
+    }
+
+    /**
+     * Utility.round as it was, through BigDecimal; kept as the baseline for {@link #round}
+     */
+    public static float roundBigDecimal(float d, int decimalPlace) {
+        BigDecimal bd = new BigDecimal(Float.toString(d));
+        bd = bd.setScale(decimalPlace, BigDecimal.ROUND_HALF_UP);
+        return bd.floatValue();
+    }
+
+    /**
+     * Utility.round, for decimal counts from 0 to 9
+     */
+    public static float round(float d, int decimalPlace) {
+        if (Float.isNaN(d) || Float.isInfinite(d)) {
+            return d;
+        }
+        return (float) (roundScaled(d, decimalPlace) / POWERS_OF_TEN[decimalPlace]);
+    }
+
+    /**
+     * Utility.roundScaled, for decimal counts from 0 to 9
+     */
+    public static double roundScaled(float d, int decimalPlace) {
+        double magnitude = Math.abs((double) d);
+        for (int digits = 0; digits < POWERS_OF_TEN.length; digits++) {
+            double shortest = Math.rint(magnitude * POWERS_OF_TEN[digits]);
+            if ((float) (shortest / POWERS_OF_TEN[digits]) != (float) magnitude) {
+                continue;
+            }
+
+            double whole;
+            if (digits <= decimalPlace) {
+                whole = shortest * POWERS_OF_TEN[decimalPlace - digits];
+            } else {
+                double divisor = POWERS_OF_TEN[digits - decimalPlace];
+                whole = Math.floor(shortest / divisor);
+                if (shortest - whole * divisor >= divisor / 2) {
+                    whole += 1.0;
+                }
+            }
+            return d < 0 && whole != 0 ? -whole : whole;
+        }
+
+        double whole = Math.floor(magnitude * POWERS_OF_TEN[decimalPlace] + 0.5);
+        return d < 0 && whole != 0 ? -whole : whole;
+    }
+
+    /**
+     * Utility.randomBetween
+     */
+    public static int randomBetween(int low, int high) {
+        Random r = new Random();
+        return r.nextInt(high - low) + low;
+    }
+}
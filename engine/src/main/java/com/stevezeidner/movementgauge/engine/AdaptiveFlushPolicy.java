@@ -0,0 +1,122 @@
+package com.stevezeidner.movementgauge.engine;
+
+/**
+ * Flush policy that sizes batches to a byte budget and times them against an end-to-end latency
+ * target, adjusting to how the network behaves.
+ *
+ * A batch is full once its estimated encoded size reaches the byte budget; the bytes per sample
+ * are learned from the batches already published. Otherwise the oldest sample is held for at
+ * most the latency target minus the expected publish round trip (smoothed RTT plus four times
+ * its deviation, as TCP estimates its retransmit timeout), so it normally arrives within the
+ * target. While publishes fail, the hold time is stretched to send fewer, bigger batches. Each
+ * batch's hold time is shortened by a random fraction so devices don't publish in lockstep.
+ *
+ * {@link #onPublishResult} may be called from any thread; everything else from the batching
+ * thread.
+ */
+public class AdaptiveFlushPolicy implements FlushPolicy {
+    private static final float INITIAL_BYTES_PER_SAMPLE = 4.0f;
+    private static final float BYTES_GAIN = 0.25f;
+    private static final float ERROR_GAIN = 0.1f;
+    private static final float ERROR_STRETCH = 3.0f;
+    private static final float JITTER_FRACTION = 0.2f;
+
+    private final int byteBudget;
+    private final long maxLatencyMs;
+    private final long minIntervalMs;
+
+    // batching thread
+    private final Jitter jitter = new Jitter(System.nanoTime());
+    private float bytesPerSample = INITIAL_BYTES_PER_SAMPLE;
+    private float jitterScale;
+
+    // publish feedback
+    private boolean haveRoundTrip = false;
+    private volatile float smoothedRoundTripMs = 0.0f;
+    private volatile float roundTripDeviationMs = 0.0f;
+    private volatile float errorRate = 0.0f;
+
+    /**
+     * @param byteBudget    encoded batch size to aim for
+     * @param maxLatencyMs  target time from a sample being added to its publish being acknowledged
+     * @param minIntervalMs shortest time between two timed publishes
+     */
+    public AdaptiveFlushPolicy(int byteBudget, long maxLatencyMs, long minIntervalMs) {
+        if (byteBudget <= 0 || maxLatencyMs <= 0 || minIntervalMs < 0) {
+            throw new IllegalArgumentException("budget and latency must be positive");
+        }
+        this.byteBudget = byteBudget;
+        this.maxLatencyMs = maxLatencyMs;
+        this.minIntervalMs = minIntervalMs;
+        drawJitter();
+    }
+
+    @Override
+    public boolean isFull(int count) {
+        return count * bytesPerSample >= byteBudget;
+    }
+
+    @Override
+    public boolean isDue(int count, long oldestSampleMs, long lastFlushMs, long nowMs) {
+        return nowMs - lastFlushMs >= minIntervalMs && nowMs - oldestSampleMs >= getHoldMs();
+    }
+
+    @Override
+    public void onFlushed(int count, int encodedBytes, long nowMs) {
+        if (count > 0) {
+            bytesPerSample += BYTES_GAIN * ((float) encodedBytes / count - bytesPerSample);
+        }
+        drawJitter();
+    }
+
+    /**
+     * Feed back the outcome of one publish
+     *
+     * @param roundTripMs time from sending to the acknowledgment or error
+     * @param success     whether the publish was acknowledged
+     */
+    public synchronized void onPublishResult(long roundTripMs, boolean success) {
+        errorRate += ERROR_GAIN * ((success ? 0.0f : 1.0f) - errorRate);
+        if (!success) {
+            // a failure's duration says little about the link's round trip
+            return;
+        }
+
+        if (!haveRoundTrip) {
+            haveRoundTrip = true;
+            smoothedRoundTripMs = roundTripMs;
+            roundTripDeviationMs = roundTripMs / 2.0f;
+        } else {
+            roundTripDeviationMs += 0.25f * (Math.abs(smoothedRoundTripMs - roundTripMs) - roundTripDeviationMs);
+            smoothedRoundTripMs += 0.125f * (roundTripMs - smoothedRoundTripMs);
+        }
+    }
+
+    /**
+     * @return how long the oldest sample of the current batch may wait before a timed publish
+     */
+    public long getHoldMs() {
+        float allowance = maxLatencyMs - (smoothedRoundTripMs + 4.0f * roundTripDeviationMs);
+        float stretched = allowance * (1.0f + ERROR_STRETCH * errorRate);
+        return (long) (Math.max(minIntervalMs, stretched) * jitterScale);
+    }
+
+    public float getBytesPerSample() {
+        return bytesPerSample;
+    }
+
+    public float getSmoothedRoundTripMs() {
+        return smoothedRoundTripMs;
+    }
+
+    /**
+     * @return smoothed fraction of publishes that failed
+     */
+    public float getErrorRate() {
+        return errorRate;
+    }
+
+    private void drawJitter() {
+        jitterScale = 1.0f - JITTER_FRACTION * jitter.nextFloat();
+    }
+}
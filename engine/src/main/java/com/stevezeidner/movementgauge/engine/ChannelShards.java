@@ -0,0 +1,121 @@
+package com.stevezeidner.movementgauge.engine;
+
+/**
+ * Spreads devices over a fixed number of channels and spreads those channels over consumers.
+ *
+ * A device always publishes to the shard its id hashes to, so each channel carries about
+ * 1/shardCount of the fleet. Consumers split the shards among themselves with rendezvous
+ * hashing: every consumer ranks each shard by a hash of (consumer, shard), and the top-ranked
+ * consumer takes it. Every consumer that sees the same member list reaches the same answer
+ * without coordinating. When a consumer joins or leaves, only the shards it gains or loses
+ * change hands.
+ *
+ * Uses String.hashCode, whose value is fixed by the language spec, so app and server agree.
+ */
+public class ChannelShards {
+    private final String baseChannel;
+    private final int shardCount;
+
+    /**
+     * @param baseChannel channel name the shard channels are derived from
+     * @param shardCount  number of channels; 1 keeps everything on baseChannel
+     */
+    public ChannelShards(String baseChannel, int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        }
+        this.baseChannel = baseChannel;
+        this.shardCount = shardCount;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * @return shard the device publishes to
+     */
+    public int shardOf(String deviceId) {
+        long hash = mix(deviceId.hashCode());
+        return (int) ((hash >>> 1) % shardCount);
+    }
+
+    /**
+     * @return name of a shard's channel
+     */
+    public String channelOf(int shard) {
+        if (shard < 0 || shard >= shardCount) {
+            throw new IllegalArgumentException("No shard " + shard);
+        }
+        return shardCount == 1 ? baseChannel : baseChannel + "-" + shard;
+    }
+
+    /**
+     * @return channel the device publishes to
+     */
+    public String channelFor(String deviceId) {
+        return channelOf(shardOf(deviceId));
+    }
+
+    /**
+     * @return channel names of the given shards
+     */
+    public String[] channelsOf(int[] shards) {
+        String[] channels = new String[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            channels[i] = channelOf(shards[i]);
+        }
+        return channels;
+    }
+
+    /**
+     * Work out which shards a consumer should read
+     *
+     * @param consumerId this consumer
+     * @param consumers  every live consumer, in any order; should include consumerId
+     * @return the shards this consumer owns, in increasing order
+     */
+    public int[] assign(String consumerId, String[] consumers) {
+        int[] owned = new int[shardCount];
+        int count = 0;
+        long self = mix(consumerId.hashCode());
+        for (int shard = 0; shard < shardCount; shard++) {
+            long weight = weight(self, shard);
+            boolean best = true;
+            for (String other : consumers) {
+                if (other.equals(consumerId)) {
+                    continue;
+                }
+                long otherWeight = weight(mix(other.hashCode()), shard);
+                // equal weights go to the smaller id so exactly one consumer wins
+                if (otherWeight > weight || (otherWeight == weight && other.compareTo(consumerId) < 0)) {
+                    best = false;
+                    break;
+                }
+            }
+            if (best) {
+                owned[count++] = shard;
+            }
+        }
+
+        int[] result = new int[count];
+        System.arraycopy(owned, 0, result, 0, count);
+        return result;
+    }
+
+    private static long weight(long consumerHash, int shard) {
+        return mix(consumerHash ^ (shard * 0x9E3779B97F4A7C15L));
+    }
+
+    /**
+     * 64-bit finalizer from MurmurHash3, so similar ids land far apart
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,372 @@
+package com.stevezeidner.movementgauge.engine;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Subscriber-side rollup of the movement published by a fleet of devices. It decodes sample
+ * batches as they arrive and keeps, per device, the latest level and a moving average of its
+ * activity, and fleet wide, a rolling histogram of every value received in the last window for
+ * the average and percentiles. Devices that stay silent for ten windows are forgotten, by
+ * ingestion as its stripe rolls into a new slot or by {@link #sweep}.
+ *
+ * State is split into stripes by device id, each with its own lock, so batches from different
+ * devices are ingested in parallel and a batch is decoded before any lock is taken. A snapshot
+ * visits the stripes one at a time and holds each lock only while copying that stripe's primitive
+ * state into reusable buffers; merging and ranking happen after the lock is released.
+ */
+public class FleetAggregator {
+    private static final int FORGET_AFTER_WINDOWS = 10;
+
+    private static final Comparator<FleetSnapshot.DeviceLevel> BY_ACTIVITY = new Comparator<FleetSnapshot.DeviceLevel>() {
+        @Override
+        public int compare(FleetSnapshot.DeviceLevel a, FleetSnapshot.DeviceLevel b) {
+            return Float.compare(a.activity, b.activity);
+        }
+    };
+
+    private static final class Device {
+        float level;
+        float activity;
+        long lastSampleTime; // device clock, nanoseconds
+        long lastSeenMs;
+    }
+
+    private static final class Stripe {
+        final Map<String, Device> devices = new HashMap<String, Device>();
+
+        // rolling histogram: slot i holds the values received during period slotPeriod[i]
+        final long[] slotPeriod;
+        final int[][] slotBins;
+        final double[] slotSums;
+        final long[] slotCounts;
+
+        long batches = 0;
+        long samples = 0;
+
+        Stripe(int slots, int binCount) {
+            slotPeriod = new long[slots];
+            Arrays.fill(slotPeriod, Long.MIN_VALUE);
+            slotBins = new int[slots][binCount];
+            slotSums = new double[slots];
+            slotCounts = new long[slots];
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final int mask;
+    private final long windowMs;
+    private final long slotMs;
+    private final int slots;
+    private final float binWidth;
+    private final int binCount;
+    private final double activityNanos;
+    private final AtomicLong batchesRejected = new AtomicLong();
+
+    // snapshot copy buffers, reused across snapshots and guarded by snapshotLock
+    private final Object snapshotLock = new Object();
+    private final long[] copyPeriod;
+    private final int[][] copyBins;
+    private final double[] copySums;
+    private final long[] copyCounts;
+    private final int[] mergedBins;
+    private String[] copyIds = new String[64];
+    private float[] copyLevels = new float[64];
+    private float[] copyActivities = new float[64];
+    private long[] copyLastSeen = new long[64];
+
+    /**
+     * @param windowMs    length of the rolling window in milliseconds
+     * @param slots       number of steps the window rolls forward in; more is smoother
+     * @param binWidth    width of a histogram bin; percentiles are accurate to this
+     * @param binCount    number of histogram bins starting at zero
+     * @param stripeCount number of independently locked stripes, rounded up to a power of two;
+     *                    a few per ingesting thread keeps contention low
+     */
+    public FleetAggregator(long windowMs, int slots, float binWidth, int binCount, int stripeCount) {
+        if (windowMs <= 0 || slots <= 0 || windowMs < slots || binWidth <= 0 || binCount <= 0 || stripeCount <= 0) {
+            throw new IllegalArgumentException("window, slots, bins and stripes must be positive");
+        }
+        int size = Integer.highestOneBit(stripeCount);
+        if (size < stripeCount) {
+            size <<= 1;
+        }
+
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe(slots, binCount);
+        }
+        this.mask = size - 1;
+        this.windowMs = windowMs;
+        this.slotMs = windowMs / slots;
+        this.slots = slots;
+        this.binWidth = binWidth;
+        this.binCount = binCount;
+        this.activityNanos = windowMs * 1000000.0;
+
+        this.copyPeriod = new long[slots];
+        this.copyBins = new int[slots][binCount];
+        this.copySums = new double[slots];
+        this.copyCounts = new long[slots];
+        this.mergedBins = new int[binCount];
+    }
+
+    /**
+     * Decode a batch and add its samples
+     *
+     * @param deviceId     device that published the batch
+     * @param encodedBatch batch from {@link SampleBatchCodec#encode}
+     * @param nowMs        current wall clock time in milliseconds
+     * @return false if the batch was malformed and dropped
+     */
+    public boolean ingest(String deviceId, String encodedBatch, long nowMs) {
+        SampleBatchCodec.Batch batch;
+        try {
+            batch = SampleBatchCodec.decode(encodedBatch);
+        } catch (IllegalArgumentException e) {
+            batchesRejected.incrementAndGet();
+            return false;
+        }
+        ingest(deviceId, batch.timestamps, batch.values, batch.count, nowMs);
+        return true;
+    }
+
+    /**
+     * Add a batch of samples from one device
+     *
+     * @param deviceId   device the samples came from
+     * @param timestamps sample timestamps in nanoseconds, on the device's clock
+     * @param values     sample values
+     * @param count      number of samples
+     * @param nowMs      current wall clock time in milliseconds
+     */
+    public void ingest(String deviceId, long[] timestamps, float[] values, int count, long nowMs) {
+        if (count <= 0) {
+            return;
+        }
+        Stripe stripe = stripeFor(deviceId);
+        long period = nowMs / slotMs;
+        int slot = (int) (period % slots);
+
+        synchronized (stripe) {
+            if (stripe.slotPeriod[slot] != period) {
+                Arrays.fill(stripe.slotBins[slot], 0);
+                stripe.slotSums[slot] = 0;
+                stripe.slotCounts[slot] = 0;
+                stripe.slotPeriod[slot] = period;
+                // at most once a slot, so the sweep's cost is spread thin
+                evict(stripe, nowMs);
+            }
+
+            Device device = stripe.devices.get(deviceId);
+            if (device == null) {
+                device = new Device();
+                device.activity = values[0];
+                device.lastSampleTime = timestamps[0];
+                stripe.devices.put(deviceId, device);
+            }
+
+            int[] bins = stripe.slotBins[slot];
+            double sum = 0;
+            for (int i = 0; i < count; i++) {
+                float value = values[i];
+                bins[bin(value)]++;
+                sum += value;
+
+                // each value holds until the next one, weighted by how long that was
+                long elapsed = timestamps[i] - device.lastSampleTime;
+                if (elapsed > 0) {
+                    device.activity += (1 - Math.exp(-elapsed / activityNanos)) * (value - device.activity);
+                }
+                device.lastSampleTime = timestamps[i];
+            }
+            device.level = values[count - 1];
+            device.lastSeenMs = nowMs;
+
+            stripe.slotSums[slot] += sum;
+            stripe.slotCounts[slot] += count;
+            stripe.batches++;
+            stripe.samples += count;
+        }
+    }
+
+    /**
+     * @return the device's latest level and activity, or null if it isn't tracked
+     */
+    public FleetSnapshot.DeviceLevel getDevice(String deviceId) {
+        Stripe stripe = stripeFor(deviceId);
+        synchronized (stripe) {
+            Device device = stripe.devices.get(deviceId);
+            return device == null ? null
+                    : new FleetSnapshot.DeviceLevel(deviceId, device.level, device.activity, device.lastSeenMs);
+        }
+    }
+
+    /**
+     * Forget devices that have been silent for too long, one stripe at a time. Ingestion already
+     * does this for the stripes it touches; call this periodically to cover idle ones.
+     *
+     * @param nowMs current wall clock time in milliseconds
+     */
+    public void sweep(long nowMs) {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                evict(stripe, nowMs);
+            }
+        }
+    }
+
+    /**
+     * Roll up the whole fleet
+     *
+     * @param mostActive number of most active devices to list
+     * @param nowMs      current wall clock time in milliseconds
+     */
+    public FleetSnapshot snapshot(int mostActive, long nowMs) {
+        long period = nowMs / slotMs;
+        long oldestPeriod = period - slots + 1;
+        long activeSince = nowMs - windowMs;
+        long forgetBefore = nowMs - windowMs * FORGET_AFTER_WINDOWS;
+
+        FleetSnapshot snapshot = new FleetSnapshot();
+        PriorityQueue<FleetSnapshot.DeviceLevel> top =
+                new PriorityQueue<FleetSnapshot.DeviceLevel>(Math.max(1, mostActive), BY_ACTIVITY);
+
+        synchronized (snapshotLock) {
+            int[] bins = mergedBins;
+            Arrays.fill(bins, 0);
+            double sum = 0;
+
+            for (Stripe stripe : stripes) {
+                int deviceCount;
+                synchronized (stripe) {
+                    System.arraycopy(stripe.slotPeriod, 0, copyPeriod, 0, slots);
+                    for (int s = 0; s < slots; s++) {
+                        if (copyPeriod[s] >= oldestPeriod && copyPeriod[s] <= period) {
+                            System.arraycopy(stripe.slotBins[s], 0, copyBins[s], 0, binCount);
+                        }
+                    }
+                    System.arraycopy(stripe.slotSums, 0, copySums, 0, slots);
+                    System.arraycopy(stripe.slotCounts, 0, copyCounts, 0, slots);
+
+                    deviceCount = stripe.devices.size();
+                    ensureDeviceCapacity(deviceCount);
+                    int d = 0;
+                    for (Map.Entry<String, Device> entry : stripe.devices.entrySet()) {
+                        Device device = entry.getValue();
+                        copyIds[d] = entry.getKey();
+                        copyLevels[d] = device.level;
+                        copyActivities[d] = device.activity;
+                        copyLastSeen[d] = device.lastSeenMs;
+                        d++;
+                    }
+
+                    snapshot.batchesIngested += stripe.batches;
+                    snapshot.samplesIngested += stripe.samples;
+                }
+
+                for (int s = 0; s < slots; s++) {
+                    if (copyPeriod[s] < oldestPeriod || copyPeriod[s] > period) {
+                        continue;
+                    }
+                    int[] slotBins = copyBins[s];
+                    for (int b = 0; b < binCount; b++) {
+                        bins[b] += slotBins[b];
+                    }
+                    sum += copySums[s];
+                    snapshot.samples += copyCounts[s];
+                }
+
+                for (int d = 0; d < deviceCount; d++) {
+                    long lastSeenMs = copyLastSeen[d];
+                    // silent devices not yet swept away
+                    if (lastSeenMs < forgetBefore) {
+                        continue;
+                    }
+                    snapshot.devices++;
+                    if (lastSeenMs < activeSince) {
+                        continue;
+                    }
+                    snapshot.activeDevices++;
+                    float activity = copyActivities[d];
+                    if (mostActive > 0 && (top.size() < mostActive || activity > top.peek().activity)) {
+                        if (top.size() == mostActive) {
+                            top.poll();
+                        }
+                        top.offer(new FleetSnapshot.DeviceLevel(copyIds[d], copyLevels[d], activity, lastSeenMs));
+                    }
+                }
+                // don't keep ids of forgotten devices reachable
+                Arrays.fill(copyIds, 0, deviceCount, null);
+            }
+
+            if (snapshot.samples > 0) {
+                snapshot.average = (float) (sum / snapshot.samples);
+                snapshot.p50 = percentile(bins, snapshot.samples, 0.50f);
+                snapshot.p90 = percentile(bins, snapshot.samples, 0.90f);
+                snapshot.p99 = percentile(bins, snapshot.samples, 0.99f);
+            }
+        }
+
+        snapshot.timeMs = nowMs;
+        snapshot.windowMs = windowMs;
+        snapshot.batchesRejected = batchesRejected.get();
+        snapshot.mostActive = new FleetSnapshot.DeviceLevel[top.size()];
+        for (int i = snapshot.mostActive.length - 1; i >= 0; i--) {
+            snapshot.mostActive[i] = top.poll();
+        }
+        return snapshot;
+    }
+
+    private void ensureDeviceCapacity(int count) {
+        if (count <= copyIds.length) {
+            return;
+        }
+        int capacity = Math.max(count, copyIds.length * 2);
+        copyIds = new String[capacity];
+        copyLevels = new float[capacity];
+        copyActivities = new float[capacity];
+        copyLastSeen = new long[capacity];
+    }
+
+    private void evict(Stripe stripe, long nowMs) {
+        long forgetBefore = nowMs - windowMs * FORGET_AFTER_WINDOWS;
+        Iterator<Device> devices = stripe.devices.values().iterator();
+        while (devices.hasNext()) {
+            if (devices.next().lastSeenMs < forgetBefore) {
+                devices.remove();
+            }
+        }
+    }
+
+    private Stripe stripeFor(String deviceId) {
+        int hash = deviceId.hashCode();
+        hash ^= hash >>> 16;
+        return stripes[hash & mask];
+    }
+
+    private int bin(float value) {
+        int bin = (int) (value / binWidth);
+        if (bin < 0) {
+            return 0;
+        }
+        return bin < binCount ? bin : binCount - 1;
+    }
+
+    private float percentile(int[] bins, long count, float fraction) {
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < bins.length; i++) {
+            seen += bins[i];
+            if (seen >= rank) {
+                return (i + 0.5f) * binWidth;
+            }
+        }
+        return bins.length * binWidth;
+    }
+}
@@ -0,0 +1,68 @@
+package com.stevezeidner.movementgauge.engine;
+
+/**
+ * Fleet-wide movement at a point in time, taken from a {@link FleetAggregator}
+ */
+public class FleetSnapshot {
+
+    /**
+     * Where one device stands
+     */
+    public static class DeviceLevel {
+        public final String deviceId;
+        public final float level; // latest value received
+        public final float activity; // value averaged over about one window
+        public final long lastSeenMs;
+
+        public DeviceLevel(String deviceId, float level, float activity, long lastSeenMs) {
+            this.deviceId = deviceId;
+            this.level = level;
+            this.activity = activity;
+            this.lastSeenMs = lastSeenMs;
+        }
+
+        @Override
+        public String toString() {
+            return deviceId + "{level=" + level + ", activity=" + activity + '}';
+        }
+    }
+
+    public long timeMs;
+    public long windowMs;
+    public int devices; // tracked, including ones that went quiet
+    public int activeDevices; // heard from within the window
+    public long samples; // received within the window
+    public float average;
+    public float p50;
+    public float p90;
+    public float p99;
+    public DeviceLevel[] mostActive; // most active first
+
+    // totals since the aggregator was created
+    public long batchesIngested;
+    public long samplesIngested;
+    public long batchesRejected;
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("FleetSnapshot{")
+                .append("window=").append(windowMs).append("ms")
+                .append(", devices=").append(devices)
+                .append(", active=").append(activeDevices)
+                .append(", samples=").append(samples)
+                .append(", average=").append(average)
+                .append(", p50=").append(p50)
+                .append(", p90=").append(p90)
+                .append(", p99=").append(p99)
+                .append(", batches=").append(batchesIngested)
+                .append(", rejected=").append(batchesRejected)
+                .append(", mostActive=[");
+        for (int i = 0; mostActive != null && i < mostActive.length; i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append(mostActive[i]);
+        }
+        return out.append("]}").toString();
+    }
+}
@@ -0,0 +1,33 @@
+package com.stevezeidner.movementgauge.engine;
+
+/**
+ * Decides when {@link SampleBatcher} hands its batch to the publisher. Called for every sample,
+ * so implementations must not allocate.
+ */
+public interface FlushPolicy {
+
+    /**
+     * @param count samples in the batch
+     * @return true if the batch is as big as it should get; full batches are published even
+     * under backpressure
+     */
+    boolean isFull(int count);
+
+    /**
+     * @param count         samples in the batch, at least one
+     * @param oldestSampleMs wall clock time the oldest sample in the batch was added
+     * @param lastFlushMs   wall clock time of the last publish
+     * @param nowMs         current wall clock time
+     * @return true if the batch should be published now to stay on schedule
+     */
+    boolean isDue(int count, long oldestSampleMs, long lastFlushMs, long nowMs);
+
+    /**
+     * Called after every publish
+     *
+     * @param count        samples in the published batch
+     * @param encodedBytes size of the encoded batch
+     * @param nowMs        current wall clock time
+     */
+    void onFlushed(int count, int encodedBytes, long nowMs);
+}
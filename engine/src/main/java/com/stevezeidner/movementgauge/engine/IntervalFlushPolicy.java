@@ -0,0 +1,44 @@
+package com.stevezeidner.movementgauge.engine;
+
+/**
+ * Publishes once a batch reaches a fixed sample count, or once a randomized interval has passed
+ * since the last publish. The interval is drawn once per batch.
+ */
+public class IntervalFlushPolicy implements FlushPolicy {
+    private final int maxBatch;
+    private final long lowIntervalMs;
+    private final long highIntervalMs;
+    private final Jitter jitter = new Jitter(System.nanoTime());
+    private long intervalMs;
+
+    /**
+     * @param maxBatch            publish as soon as this many samples are queued
+     * @param lowSendTimeSeconds  lower bound of the randomized send interval
+     * @param highSendTimeSeconds upper bound of the randomized send interval
+     */
+    public IntervalFlushPolicy(int maxBatch, int lowSendTimeSeconds, int highSendTimeSeconds) {
+        this.maxBatch = maxBatch;
+        this.lowIntervalMs = lowSendTimeSeconds * 1000L;
+        this.highIntervalMs = highSendTimeSeconds * 1000L;
+        drawInterval();
+    }
+
+    @Override
+    public boolean isFull(int count) {
+        return count >= maxBatch;
+    }
+
+    @Override
+    public boolean isDue(int count, long oldestSampleMs, long lastFlushMs, long nowMs) {
+        return nowMs - lastFlushMs >= intervalMs;
+    }
+
+    @Override
+    public void onFlushed(int count, int encodedBytes, long nowMs) {
+        drawInterval();
+    }
+
+    private void drawInterval() {
+        intervalMs = lowIntervalMs + (long) (jitter.nextFloat() * (highIntervalMs - lowIntervalMs));
+    }
+}
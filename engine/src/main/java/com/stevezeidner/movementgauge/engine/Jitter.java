@@ -0,0 +1,27 @@
+package com.stevezeidner.movementgauge.engine;
+
+/**
+ * Small xorshift generator for spreading out timers. Keeps its state in one int, so drawing a
+ * value never allocates. Not thread safe and not suitable for anything but jitter.
+ */
+class Jitter {
+    private int state;
+
+    Jitter(long seed) {
+        int mixed = (int) (seed ^ (seed >>> 32));
+        // xorshift never leaves the all-zero state
+        state = mixed == 0 ? 0x2545F491 : mixed;
+    }
+
+    /**
+     * @return a value in [0, 1)
+     */
+    float nextFloat() {
+        int x = state;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        state = x;
+        return (x >>> 8) / (float) (1 << 24);
+    }
+}
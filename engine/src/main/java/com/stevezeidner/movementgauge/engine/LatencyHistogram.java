@@ -0,0 +1,107 @@
+package com.stevezeidner.movementgauge.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative durations with logarithmic buckets, so percentiles stay within about
+ * 6% of the true value anywhere from nanoseconds to hours. Values below 32 get a bucket each;
+ * above that every power of two is split into 16 buckets.
+ *
+ * Recording is lock free and allocates nothing, so any number of threads can record at once.
+ * Reads taken while others record are approximate.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS) * SUB_BUCKETS + LINEAR_LIMIT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value duration in any unit; negative values count as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : total.get() / n;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return upper edge of the bucket holding the percentile, capped at the largest value
+     * recorded, or 0 when empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperEdge(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Forget everything recorded. Not atomic with respect to concurrent recording.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        // top holds the leading bit plus SUB_BUCKET_BITS more, so it is in [16, 32)
+        int top = (int) (value >>> shift);
+        return shift * SUB_BUCKETS + top;
+    }
+
+    static long upperEdge(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long top = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        long edge = ((top + 1) << shift) - 1;
+        return edge < 0 ? Long.MAX_VALUE : edge;
+    }
+}
@@ -0,0 +1,89 @@
+package com.stevezeidner.movementgauge.engine;
+
+/**
+ * Turns raw 3-axis acceleration into the app's movement values: an instantaneous sample and a
+ * running cumulative total. Plain Java with primitive inputs, so the same math runs in the app,
+ * on a server, or under a profiler.
+ *
+ * Not thread safe; feed it from one thread.
+ */
+public class MovementEngine {
+    private float cumulative;
+
+    public MovementEngine() {
+        this(0.0f);
+    }
+
+    public MovementEngine(float cumulative) {
+        this.cumulative = cumulative;
+    }
+
+    /**
+     * Process one raw sample
+     *
+     * @param timestamp sample timestamp in nanoseconds
+     * @param x         acceleration along x
+     * @param y         acceleration along y
+     * @param z         acceleration along z
+     * @param sink      receives the normalized sample
+     */
+    public void process(long timestamp, float x, float y, float z, SampleSink sink) {
+        // normalize the 3D accelerometer data into just one value
+        float normAccel = totalAcceleration(x, y, z);
+        float scaledAccel = scale(normAccel);
+        cumulative += Math.floor(normAccel) * 0.01; // scale this back so we have more interesting numbers to look at
+
+        sink.onSample(timestamp, scaledAccel, cumulative);
+    }
+
+    /**
+     * Process a block of raw samples, e.g. a batch delivered from a sensor FIFO or a trace
+     *
+     * @param timestamps sample timestamps in nanoseconds
+     * @param x          acceleration along x
+     * @param y          acceleration along y
+     * @param z          acceleration along z
+     * @param offset     index of the first sample to process
+     * @param count      number of samples to process
+     * @param sink       receives each normalized sample in order
+     */
+    public void process(long[] timestamps, float[] x, float[] y, float[] z, int offset, int count, SampleSink sink) {
+        for (int i = offset; i < offset + count; i++) {
+            process(timestamps[i], x[i], y[i], z[i], sink);
+        }
+    }
+
+    /**
+     * Normalize a block of raw samples into instantaneous values without touching the cumulative
+     * total
+     *
+     * @param out receives count values starting at index 0
+     */
+    public static void normalize(float[] x, float[] y, float[] z, int offset, int count, float[] out) {
+        for (int i = 0; i < count; i++) {
+            out[i] = scale(totalAcceleration(x[offset + i], y[offset + i], z[offset + i]));
+        }
+    }
+
+    public float getCumulative() {
+        return cumulative;
+    }
+
+    public void setCumulative(float cumulative) {
+        this.cumulative = cumulative;
+    }
+
+    /**
+     * Get total acceleration from 3-axis of acceleration
+     */
+    public static float totalAcceleration(float x, float y, float z) {
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+
+    /**
+     * Scale a total acceleration into the instantaneous gauge value
+     */
+    public static float scale(float normAccel) {
+        return (float) Math.floor(normAccel * 10);
+    }
+}
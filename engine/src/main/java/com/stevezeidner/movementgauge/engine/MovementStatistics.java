@@ -0,0 +1,51 @@
+package com.stevezeidner.movementgauge.engine;
+
+/**
+ * Several sliding windows of statistics over the same sample stream, e.g. 1s, 10s and 60s.
+ * Updates come from the sampling thread; snapshots may be read from any thread.
+ */
+public class MovementStatistics {
+    // gauge values are floor(|a| * 10), so unit bins up to 1000 cover everything short of a crash
+    private static final float BIN_WIDTH = 1.0f;
+    private static final int BIN_COUNT = 1000;
+
+    private final SlidingWindowStats[] windows;
+
+    /**
+     * @param windowMillis      length of each window in milliseconds
+     * @param maxSamplesPerSecond highest sample rate to size the windows for
+     */
+    public MovementStatistics(long[] windowMillis, int maxSamplesPerSecond) {
+        windows = new SlidingWindowStats[windowMillis.length];
+        for (int i = 0; i < windowMillis.length; i++) {
+            long capacity = Math.max(1, windowMillis[i] * maxSamplesPerSecond / 1000);
+            windows[i] = new SlidingWindowStats(windowMillis[i] * 1000000L,
+                    (int) Math.min(capacity, 1 << 20), BIN_WIDTH, BIN_COUNT);
+        }
+    }
+
+    /**
+     * Add a sample to every window
+     *
+     * @param timestamp sample timestamp in nanoseconds
+     * @param value     sample value
+     */
+    public synchronized void add(long timestamp, float value) {
+        for (SlidingWindowStats window : windows) {
+            window.add(timestamp, value);
+        }
+    }
+
+    /**
+     * @param window index of the window, in the order given to the constructor
+     * @param now    current time on the sample clock in nanoseconds; older samples slide out
+     * @param out    snapshot to overwrite
+     */
+    public synchronized void snapshot(int window, long now, WindowSnapshot out) {
+        windows[window].snapshot(now, out);
+    }
+
+    public int getWindowCount() {
+        return windows.length;
+    }
+}
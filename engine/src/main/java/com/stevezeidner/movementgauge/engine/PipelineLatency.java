@@ -0,0 +1,98 @@
+package com.stevezeidner.movementgauge.engine;
+
+/**
+ * Latency histograms for each hop a sample takes on its way from the sensor to a PubNub
+ * acknowledgment:
+ *
+ * sensor to service: from the sensor event timestamp until the sampling thread sees the event,
+ * hardware FIFO batching included;
+ * service to UI: from the service queueing the sample until the UI drains it;
+ * enqueue to flush: how long the oldest sample in each batch waited in the batcher;
+ * flush to ack: from handing a batch to the publisher until PubNub acknowledged it, retries
+ * included.
+ *
+ * All values are nanoseconds. Recording is lock free, so each stage can record from its own
+ * thread.
+ */
+public class PipelineLatency {
+    public static final int STAGE_SENSOR_TO_SERVICE = 0;
+    public static final int STAGE_SERVICE_TO_UI = 1;
+    public static final int STAGE_ENQUEUE_TO_FLUSH = 2;
+    public static final int STAGE_FLUSH_TO_ACK = 3;
+    private static final String[] STAGE_NAMES = {"sensor>service", "service>ui", "enqueue>flush", "flush>ack"};
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGE_NAMES.length];
+
+    public PipelineLatency() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @param stage one of the STAGE_ constants
+     * @param nanos time the stage took; negative values count as 0
+     */
+    public void record(int stage, long nanos) {
+        histograms[stage].record(nanos);
+    }
+
+    /**
+     * @param stage one of the STAGE_ constants
+     * @return the live histogram of the stage
+     */
+    public LatencyHistogram getHistogram(int stage) {
+        return histograms[stage];
+    }
+
+    public static int getStageCount() {
+        return STAGE_NAMES.length;
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     * Forget everything recorded, e.g. after each periodic report
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Write a compact summary, one line per stage with its count and percentiles
+     *
+     * @param out builder to append to
+     */
+    public void appendSummary(StringBuilder out) {
+        for (int i = 0; i < histograms.length; i++) {
+            LatencyHistogram histogram = histograms[i];
+            if (i > 0) {
+                out.append('\n');
+            }
+            out.append(STAGE_NAMES[i]).append(": n=").append(histogram.getCount());
+            appendMillis(out.append(" p50="), histogram.getValueAtPercentile(50));
+            appendMillis(out.append(" p90="), histogram.getValueAtPercentile(90));
+            appendMillis(out.append(" p99="), histogram.getValueAtPercentile(99));
+            appendMillis(out.append(" max="), histogram.getMax());
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        appendSummary(out);
+        return out.toString();
+    }
+
+    /**
+     * Append nanoseconds as milliseconds with one decimal
+     */
+    private static void appendMillis(StringBuilder out, long nanos) {
+        long tenths = (nanos + 50000) / 100000;
+        out.append(tenths / 10).append('.').append(tenths % 10).append("ms");
+    }
+}
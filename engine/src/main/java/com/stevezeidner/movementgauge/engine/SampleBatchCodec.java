@@ -0,0 +1,248 @@
+package com.stevezeidner.movementgauge.engine;
+
+/**
+ * Compact binary encoding for batches of (timestamp, value) samples, wrapped in Base64 so a batch
+ * travels as a plain string inside a PubNub message.
+ *
+ * Layout (version 1):
+ * <pre>
+ * byte    version
+ * varint  sample count
+ * varint  time quantum in nanoseconds
+ * varint  value scale (quantized value = round(value * scale))
+ * varlong base timestamp in quanta (zigzag)
+ * per sample:
+ *   varlong timestamp delta from the previous sample in quanta (zigzag)
+ *   varint  quantized value delta from the previous sample (zigzag)
+ * </pre>
+ *
+ * An encoder instance reuses its scratch buffer and is not thread safe. Decoding is stateless.
+ */
+public class SampleBatchCodec {
+
+    public static final int VERSION = 1;
+
+    // sensor timestamps are nanoseconds; microseconds are plenty for movement data
+    public static final int DEFAULT_TIME_QUANTUM_NS = 1000;
+    public static final int DEFAULT_VALUE_SCALE = 100;
+
+    // worst case bytes per sample: 10 for the timestamp delta plus 5 for the value delta
+    private static final int MAX_SAMPLE_BYTES = 15;
+    private static final int MAX_HEADER_BYTES = 1 + 5 + 5 + 5 + 10;
+
+    private static final char[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] BASE64_INDEX = new int[128];
+
+    static {
+        for (int i = 0; i < BASE64_INDEX.length; i++) {
+            BASE64_INDEX[i] = -1;
+        }
+        for (int i = 0; i < BASE64_ALPHABET.length; i++) {
+            BASE64_INDEX[BASE64_ALPHABET[i]] = i;
+        }
+    }
+
+    /**
+     * Decoded batch of samples
+     */
+    public static class Batch {
+        public final long[] timestamps;
+        public final float[] values;
+        public final int count;
+
+        public Batch(long[] timestamps, float[] values, int count) {
+            this.timestamps = timestamps;
+            this.values = values;
+            this.count = count;
+        }
+    }
+
+    private final int timeQuantumNs;
+    private final int valueScale;
+    private byte[] scratch = new byte[MAX_HEADER_BYTES + 128 * MAX_SAMPLE_BYTES];
+    private char[] chars = new char[base64Length(scratch.length)];
+    private int position;
+
+    public SampleBatchCodec() {
+        this(DEFAULT_TIME_QUANTUM_NS, DEFAULT_VALUE_SCALE);
+    }
+
+    public SampleBatchCodec(int timeQuantumNs, int valueScale) {
+        if (timeQuantumNs <= 0 || valueScale <= 0) {
+            throw new IllegalArgumentException("time quantum and value scale must be positive");
+        }
+        this.timeQuantumNs = timeQuantumNs;
+        this.valueScale = valueScale;
+    }
+
+    /**
+     * Encode the first count samples as a Base64 string
+     *
+     * @param timestamps sample timestamps in nanoseconds
+     * @param values     sample values
+     * @param count      number of samples to encode
+     * @return Base64 encoded batch
+     */
+    public String encode(long[] timestamps, float[] values, int count) {
+        int length = encodeBinary(timestamps, values, count);
+        return toBase64(scratch, length);
+    }
+
+    /**
+     * Encode the first count samples into the scratch buffer
+     *
+     * @return number of bytes written
+     */
+    int encodeBinary(long[] timestamps, float[] values, int count) {
+        ensureCapacity(MAX_HEADER_BYTES + count * MAX_SAMPLE_BYTES);
+        position = 0;
+
+        long base = count > 0 ? timestamps[0] / timeQuantumNs : 0;
+        scratch[position++] = (byte) VERSION;
+        writeVarLong(count);
+        writeVarLong(timeQuantumNs);
+        writeVarLong(valueScale);
+        writeVarLong(zigzag(base));
+
+        long previousTime = base;
+        int previousValue = 0;
+        for (int i = 0; i < count; i++) {
+            long time = timestamps[i] / timeQuantumNs;
+            int value = Math.round(values[i] * valueScale);
+            writeVarLong(zigzag(time - previousTime));
+            writeVarLong(zigzag(value - previousValue));
+            previousTime = time;
+            previousValue = value;
+        }
+        return position;
+    }
+
+    /**
+     * Decode a batch produced by {@link #encode}
+     *
+     * @param encoded Base64 encoded batch
+     * @return the decoded samples
+     * @throws IllegalArgumentException if the batch is malformed or from an unknown version
+     */
+    public static Batch decode(String encoded) {
+        byte[] bytes = fromBase64(encoded);
+        int[] cursor = new int[1];
+
+        int version = bytes.length > 0 ? bytes[0] & 0xFF : -1;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported batch version " + version);
+        }
+        cursor[0] = 1;
+
+        int count = (int) readVarLong(bytes, cursor);
+        long timeQuantum = readVarLong(bytes, cursor);
+        long scale = readVarLong(bytes, cursor);
+        long time = unzigzag(readVarLong(bytes, cursor));
+        if (count < 0 || count > bytes.length || timeQuantum <= 0 || scale <= 0) {
+            throw new IllegalArgumentException("Malformed batch header");
+        }
+
+        long[] timestamps = new long[count];
+        float[] values = new float[count];
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            time += unzigzag(readVarLong(bytes, cursor));
+            value += unzigzag(readVarLong(bytes, cursor));
+            timestamps[i] = time * timeQuantum;
+            values[i] = (float) value / scale;
+        }
+        return new Batch(timestamps, values, count);
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (scratch.length < bytes) {
+            scratch = new byte[bytes];
+            chars = new char[base64Length(bytes)];
+        }
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            scratch[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        scratch[position++] = (byte) value;
+    }
+
+    private static long readVarLong(byte[] bytes, int[] cursor) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (cursor[0] >= bytes.length) {
+                throw new IllegalArgumentException("Truncated batch");
+            }
+            byte b = bytes[cursor[0]++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int base64Length(int bytes) {
+        return (bytes + 2) / 3 * 4;
+    }
+
+    private String toBase64(byte[] bytes, int length) {
+        int out = 0;
+        int i = 0;
+        while (i + 2 < length) {
+            int bits = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+            chars[out++] = BASE64_ALPHABET[bits >>> 18];
+            chars[out++] = BASE64_ALPHABET[(bits >>> 12) & 0x3F];
+            chars[out++] = BASE64_ALPHABET[(bits >>> 6) & 0x3F];
+            chars[out++] = BASE64_ALPHABET[bits & 0x3F];
+            i += 3;
+        }
+
+        int remaining = length - i;
+        if (remaining > 0) {
+            int bits = (bytes[i] & 0xFF) << 16 | (remaining == 2 ? (bytes[i + 1] & 0xFF) << 8 : 0);
+            chars[out++] = BASE64_ALPHABET[bits >>> 18];
+            chars[out++] = BASE64_ALPHABET[(bits >>> 12) & 0x3F];
+            chars[out++] = remaining == 2 ? BASE64_ALPHABET[(bits >>> 6) & 0x3F] : '=';
+            chars[out++] = '=';
+        }
+        return new String(chars, 0, out);
+    }
+
+    private static byte[] fromBase64(String encoded) {
+        int length = encoded.length();
+        while (length > 0 && encoded.charAt(length - 1) == '=') {
+            length--;
+        }
+
+        byte[] bytes = new byte[length * 3 / 4];
+        int out = 0;
+        int bits = 0;
+        int bitCount = 0;
+        for (int i = 0; i < length; i++) {
+            char c = encoded.charAt(i);
+            int index = c < 128 ? BASE64_INDEX[c] : -1;
+            if (index < 0) {
+                throw new IllegalArgumentException("Invalid Base64 character " + c);
+            }
+            bits = (bits << 6) | index;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                bytes[out++] = (byte) (bits >>> bitCount);
+            }
+        }
+        return bytes;
+    }
+}
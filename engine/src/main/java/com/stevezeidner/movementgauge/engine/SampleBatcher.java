@@ -0,0 +1,179 @@
+package com.stevezeidner.movementgauge.engine;
+
+/**
+ * Collects normalized samples into publish batches. Repeated values are skipped, or, with a
+ * {@link SwingingDoorCompressor} set, only the points needed to redraw the signal within its
+ * error bound are kept, and every publish ends the current segment so no sample is held back
+ * past a batch boundary. A
+ * {@link FlushPolicy} decides when a batch is handed to the publisher. While the publisher
+ * reports backpressure, timed publishes are held back so samples coalesce into fuller batches;
+ * a full batch is always published.
+ *
+ * Not thread safe; feed it from one thread.
+ */
+public class SampleBatcher {
+
+    /**
+     * Receives each encoded batch
+     */
+    public interface BatchPublisher {
+        void publish(String batch);
+    }
+
+    /**
+     * Tells the batcher the publisher is falling behind
+     */
+    public interface Backpressure {
+        boolean isSaturated();
+    }
+
+    private final int capacity;
+    private final FlushPolicy policy;
+    private final BatchPublisher publisher;
+    private Backpressure backpressure;
+    private SwingingDoorCompressor reducer;
+    private PipelineLatency latency;
+    private final SampleBatchCodec codec = new SampleBatchCodec();
+
+    private final long[] timestamps;
+    private final float[] values;
+    private int size = 0;
+    private float lastValue;
+    private long lastPushedTime;
+    private long oldestSampleTime;
+    private boolean batchOpen = false; // samples arrived since the last publish
+
+    private final SwingingDoorCompressor.PointSink appendPoint = new SwingingDoorCompressor.PointSink() {
+        @Override
+        public void onPoint(long timestamp, float value) {
+            append(timestamp, value);
+        }
+    };
+
+    /**
+     * Batch by sample count and a randomized send interval
+     *
+     * @param maxBatch            publish as soon as this many samples are queued
+     * @param lowSendTimeSeconds  lower bound of the randomized send interval
+     * @param highSendTimeSeconds upper bound of the randomized send interval
+     * @param publisher           receives encoded batches
+     */
+    public SampleBatcher(int maxBatch, int lowSendTimeSeconds, int highSendTimeSeconds, BatchPublisher publisher) {
+        this(maxBatch, new IntervalFlushPolicy(maxBatch, lowSendTimeSeconds, highSendTimeSeconds), publisher);
+    }
+
+    /**
+     * @param capacity  most samples a batch can hold; a batch this big is always published
+     * @param policy    decides when to publish
+     * @param publisher receives encoded batches
+     */
+    public SampleBatcher(int capacity, FlushPolicy policy, BatchPublisher publisher) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.publisher = publisher;
+        // one spare slot for the segment end point a flush may add
+        this.timestamps = new long[capacity + 1];
+        this.values = new float[capacity + 1];
+    }
+
+    /**
+     * @param backpressure checked before each timed publish, or null to always publish on time
+     */
+    public void setBackpressure(Backpressure backpressure) {
+        this.backpressure = backpressure;
+    }
+
+    /**
+     * @param reducer lossy point reduction applied before batching, or null to only skip
+     *                repeated values
+     */
+    public void setReducer(SwingingDoorCompressor reducer) {
+        this.reducer = reducer;
+    }
+
+    /**
+     * @param latency records how long the oldest sample of each batch waited for its flush, or
+     *                null to not measure
+     */
+    public void setLatency(PipelineLatency latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Add a sample and publish if the batch is due
+     *
+     * @param timestamp sample timestamp in nanoseconds
+     * @param value     sample value
+     * @param nowMs     current wall clock time in milliseconds
+     */
+    public void add(long timestamp, float value, long nowMs) {
+        if (reducer != null) {
+            openBatch(nowMs);
+            reducer.add(timestamp, value, appendPoint);
+        } else if (value != lastValue) {
+            // add data to queue if the value has changed
+            openBatch(nowMs);
+            append(timestamp, value);
+        }
+
+        lastValue = value;
+
+        // publish a full batch right away, and a due one unless the publisher is backed up
+        if (size >= capacity || policy.isFull(size) ||
+                (batchOpen && policy.isDue(Math.max(1, size), oldestSampleTime, lastPushedTime, nowMs)
+                        && (backpressure == null || !backpressure.isSaturated()))) {
+            flush(nowMs);
+        }
+    }
+
+    /**
+     * Publish everything queued so far as one encoded batch
+     *
+     * @param nowMs current wall clock time in milliseconds
+     */
+    public void flush(long nowMs) {
+        boolean wasOpen = batchOpen;
+        lastPushedTime = nowMs;
+        batchOpen = false;
+        if (reducer != null) {
+            reducer.flush(appendPoint);
+        }
+        if (size == 0) {
+            return;
+        }
+
+        String batch = codec.encode(timestamps, values, size);
+        if (latency != null && wasOpen) {
+            latency.record(PipelineLatency.STAGE_ENQUEUE_TO_FLUSH, (nowMs - oldestSampleTime) * 1000000L);
+        }
+        publisher.publish(batch);
+        policy.onFlushed(size, batch.length(), nowMs);
+        size = 0;
+    }
+
+    /**
+     * Restart the send interval, e.g. when sampling resumes
+     *
+     * @param nowMs current wall clock time in milliseconds
+     */
+    public void resetSendTimer(long nowMs) {
+        lastPushedTime = nowMs;
+    }
+
+    private void openBatch(long nowMs) {
+        if (!batchOpen) {
+            batchOpen = true;
+            oldestSampleTime = nowMs;
+        }
+    }
+
+    private void append(long timestamp, float value) {
+        timestamps[size] = timestamp;
+        values[size] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,107 @@
+package com.stevezeidner.movementgauge.engine;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-capacity history of the most recent samples, kept in primitive arrays. Once full, each
+ * new sample overwrites the oldest one. Samples are expected in timestamp order.
+ *
+ * Not thread safe.
+ */
+public class SampleHistory {
+    private final long[] timestamps;
+    private final float[] values;
+    private final int mask;
+    private long head = 0; // next position to write
+    private long tail = 0; // oldest sample held
+
+    /**
+     * @param capacity most samples held, rounded up to a power of two
+     */
+    public SampleHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        timestamps = new long[size];
+        values = new float[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Append a sample, evicting the oldest one if the history is full
+     *
+     * @param timestamp sample time in nanoseconds
+     * @param value     sample value
+     */
+    public void add(long timestamp, float value) {
+        if (head - tail > mask) {
+            tail++;
+        }
+        int index = (int) (head & mask);
+        timestamps[index] = timestamp;
+        values[index] = value;
+        head++;
+    }
+
+    public void clear() {
+        head = 0;
+        tail = 0;
+    }
+
+    public int size() {
+        return (int) (head - tail);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return timestamp of the newest sample, or Long.MIN_VALUE if there is none
+     */
+    public long getLatestTimestamp() {
+        return head == tail ? Long.MIN_VALUE : timestamps[(int) ((head - 1) & mask)];
+    }
+
+    /**
+     * Reduce the history to the minimum and maximum of each time column. Column i covers the
+     * samples whose timestamp / columnNanos equals firstColumn + i. Columns without samples are
+     * set to NaN.
+     *
+     * @param firstColumn absolute index of the first column
+     * @param columnNanos time span of one column in nanoseconds
+     * @param columns     number of columns to fill
+     * @param min         receives the minimum of each column
+     * @param max         receives the maximum of each column
+     */
+    public void decimate(long firstColumn, long columnNanos, int columns, float[] min, float[] max) {
+        if (columnNanos <= 0) {
+            throw new IllegalArgumentException("column span must be positive: " + columnNanos);
+        }
+        Arrays.fill(min, 0, columns, Float.NaN);
+        Arrays.fill(max, 0, columns, Float.NaN);
+
+        for (long i = tail; i < head; i++) {
+            int index = (int) (i & mask);
+            long column = timestamps[index] / columnNanos - firstColumn;
+            if (column < 0 || column >= columns) {
+                continue;
+            }
+
+            int c = (int) column;
+            float value = values[index];
+            if (Float.isNaN(min[c])) {
+                min[c] = value;
+                max[c] = value;
+            } else if (value < min[c]) {
+                min[c] = value;
+            } else if (value > max[c]) {
+                max[c] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.stevezeidner.movementgauge.engine;
+
+/**
+ * Receives normalized samples from the {@link MovementEngine}
+ */
+public interface SampleSink {
+    /**
+     * @param timestamp  timestamp of the raw sample in nanoseconds
+     * @param sample     instantaneous movement value
+     * @param cumulative running movement total including this sample
+     */
+    void onSample(long timestamp, float sample, float cumulative);
+}
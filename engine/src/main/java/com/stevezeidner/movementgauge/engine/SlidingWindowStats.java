@@ -0,0 +1,191 @@
+package com.stevezeidner.movementgauge.engine;
+
+/**
+ * Streaming statistics over a time-based sliding window, kept in primitive arrays.
+ *
+ * Each update is amortized O(1): sums and sums of squares give the mean, RMS and variance,
+ * monotonic deques track the min and max, and a fixed-width histogram gives approximate
+ * percentiles (exact to within one bin). If more samples arrive within the window than the
+ * capacity holds, the oldest are evicted early.
+ *
+ * Not thread safe.
+ */
+public class SlidingWindowStats {
+    private final long windowNanos;
+
+    // samples currently in the window, as a ring
+    private final long[] timestamps;
+    private final float[] values;
+    private final int mask;
+    private long head = 0; // next position to write
+    private long tail = 0; // oldest sample still in the window
+
+    private double sum = 0;
+    private double sumOfSquares = 0;
+
+    // positions of candidate minimums/maximums, values increasing/decreasing from front to back
+    private final long[] minQueue;
+    private long minHead = 0;
+    private long minTail = 0;
+    private final long[] maxQueue;
+    private long maxHead = 0;
+    private long maxTail = 0;
+
+    // histogram for percentiles; the last bin also catches everything beyond the range
+    private final float binWidth;
+    private final int[] bins;
+
+    /**
+     * @param windowNanos length of the window in nanoseconds
+     * @param capacity    most samples held at once, rounded up to a power of two
+     * @param binWidth    width of a histogram bin; percentiles are accurate to this
+     * @param binCount    number of histogram bins starting at zero
+     */
+    public SlidingWindowStats(long windowNanos, int capacity, float binWidth, int binCount) {
+        if (windowNanos <= 0 || capacity <= 0 || binWidth <= 0 || binCount <= 0) {
+            throw new IllegalArgumentException("window, capacity and bins must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.windowNanos = windowNanos;
+        this.timestamps = new long[size];
+        this.values = new float[size];
+        this.mask = size - 1;
+        this.minQueue = new long[size];
+        this.maxQueue = new long[size];
+        this.binWidth = binWidth;
+        this.bins = new int[binCount];
+    }
+
+    /**
+     * Add a sample and drop everything that has slid out of the window
+     *
+     * @param timestamp sample timestamp in nanoseconds, not older than the previous one
+     * @param value     sample value
+     */
+    public void add(long timestamp, float value) {
+        if (head - tail > mask) {
+            evictOldest();
+        }
+
+        int index = (int) (head & mask);
+        timestamps[index] = timestamp;
+        values[index] = value;
+
+        sum += value;
+        sumOfSquares += (double) value * value;
+        bins[bin(value)]++;
+
+        while (minTail > minHead && values[(int) (minQueue[(int) ((minTail - 1) & mask)] & mask)] >= value) {
+            minTail--;
+        }
+        minQueue[(int) (minTail++ & mask)] = head;
+        while (maxTail > maxHead && values[(int) (maxQueue[(int) ((maxTail - 1) & mask)] & mask)] <= value) {
+            maxTail--;
+        }
+        maxQueue[(int) (maxTail++ & mask)] = head;
+
+        head++;
+        expire(timestamp);
+    }
+
+    /**
+     * Drop samples older than the window relative to now, e.g. when samples stop arriving
+     *
+     * @param now current time on the sample clock in nanoseconds
+     */
+    public void expire(long now) {
+        while (tail < head && timestamps[(int) (tail & mask)] <= now - windowNanos) {
+            evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+        float value = values[(int) (tail & mask)];
+        sum -= value;
+        sumOfSquares -= (double) value * value;
+        bins[bin(value)]--;
+
+        if (minTail > minHead && minQueue[(int) (minHead & mask)] == tail) {
+            minHead++;
+        }
+        if (maxTail > maxHead && maxQueue[(int) (maxHead & mask)] == tail) {
+            maxHead++;
+        }
+        tail++;
+
+        if (tail == head) {
+            // reset the running sums so floating point error can't build up forever
+            sum = 0;
+            sumOfSquares = 0;
+        }
+    }
+
+    private int bin(float value) {
+        int bin = (int) (value / binWidth);
+        if (bin < 0) {
+            return 0;
+        }
+        return bin < bins.length ? bin : bins.length - 1;
+    }
+
+    /**
+     * @return number of samples in the window
+     */
+    public int count() {
+        return (int) (head - tail);
+    }
+
+    /**
+     * Fill a snapshot with the window statistics as of now, so a window whose samples stopped
+     * arriving empties out instead of going stale. Percentiles are O(bins); everything else is
+     * amortized O(1).
+     *
+     * @param now current time on the sample clock in nanoseconds
+     * @param out snapshot to overwrite
+     */
+    public void snapshot(long now, WindowSnapshot out) {
+        expire(now);
+        int count = count();
+        out.windowNanos = windowNanos;
+        out.count = count;
+        if (count == 0) {
+            out.mean = out.rms = out.variance = out.min = out.max = 0;
+            out.p50 = out.p90 = out.p99 = 0;
+            return;
+        }
+
+        double mean = sum / count;
+        double meanOfSquares = sumOfSquares / count;
+        out.mean = (float) mean;
+        out.rms = (float) Math.sqrt(Math.max(0, meanOfSquares));
+        out.variance = (float) Math.max(0, meanOfSquares - mean * mean);
+        out.min = values[(int) (minQueue[(int) (minHead & mask)] & mask)];
+        out.max = values[(int) (maxQueue[(int) (maxHead & mask)] & mask)];
+        out.p50 = clamp(percentile(count, 0.50f), out.min, out.max);
+        out.p90 = clamp(percentile(count, 0.90f), out.min, out.max);
+        out.p99 = clamp(percentile(count, 0.99f), out.min, out.max);
+    }
+
+    /**
+     * Approximate a percentile by the midpoint of the histogram bin that contains it
+     */
+    private float percentile(int count, float fraction) {
+        int rank = (int) Math.ceil(fraction * count);
+        int seen = 0;
+        for (int i = 0; i < bins.length; i++) {
+            seen += bins[i];
+            if (seen >= rank) {
+                return (i + 0.5f) * binWidth;
+            }
+        }
+        return bins.length * binWidth;
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+}
@@ -0,0 +1,163 @@
+package com.stevezeidner.movementgauge.engine;
+
+/**
+ * Streaming swinging-door compression. It keeps only the points needed to redraw the signal as
+ * straight lines between them, with no input sample further than the error bound from its line.
+ *
+ * The last kept point is the pivot of two "doors" that open toward each new sample plus and
+ * minus the error bound. As long as some line from the pivot fits every sample seen since, the
+ * doors stay open and nothing is emitted. Once they cross, the previous sample ends the segment
+ * and becomes the new pivot. The end point is moved onto the nearest line that still fits the
+ * whole segment, so the bound holds strictly and the redrawn signal has no gaps.
+ * {@link #flush} ends the current segment early, e.g. at a batch boundary, so the latest sample
+ * isn't held back indefinitely.
+ *
+ * Holds at most one pending sample and allocates nothing. Not thread safe.
+ */
+public class SwingingDoorCompressor {
+
+    /**
+     * Receives the points that are kept
+     */
+    public interface PointSink {
+        void onPoint(long timestamp, float value);
+    }
+
+    private final float maxError;
+
+    // last emitted point, the pivot of the doors
+    private boolean hasPivot = false;
+    private long pivotTime;
+    private float pivotValue;
+
+    // latest sample, not emitted yet
+    private boolean hasPending = false;
+    private long pendingTime;
+    private float pendingValue;
+
+    // steepest lower and flattest upper door slope so far, in value per nanosecond
+    private double lowerSlope;
+    private double upperSlope;
+
+    private long samplesIn = 0;
+    private long pointsOut = 0;
+
+    /**
+     * @param maxError largest allowed distance between a dropped sample and the redrawn line
+     */
+    public SwingingDoorCompressor(float maxError) {
+        if (maxError < 0 || Float.isNaN(maxError)) {
+            throw new IllegalArgumentException("maxError must not be negative: " + maxError);
+        }
+        this.maxError = maxError;
+    }
+
+    /**
+     * Feed a sample. Timestamps must not go backwards.
+     *
+     * @param timestamp sample time in nanoseconds
+     * @param value     sample value
+     * @param sink      receives the segment end point if this sample closes the doors
+     */
+    public void add(long timestamp, float value, PointSink sink) {
+        samplesIn++;
+        if (!hasPivot) {
+            startSegment(timestamp, value, sink);
+            return;
+        }
+
+        long elapsed = timestamp - pivotTime;
+        if (elapsed <= 0) {
+            // no slope to speak of; keep the pending point and start over from here
+            if (hasPending) {
+                emitPending(sink);
+            }
+            startSegment(timestamp, value, sink);
+            return;
+        }
+
+        double lower = (value - maxError - pivotValue) / (double) elapsed;
+        double upper = (value + maxError - pivotValue) / (double) elapsed;
+        if (!hasPending) {
+            lowerSlope = lower;
+            upperSlope = upper;
+        } else {
+            double newLower = Math.max(lowerSlope, lower);
+            double newUpper = Math.min(upperSlope, upper);
+            if (newLower > newUpper) {
+                // doors crossed: the previous sample ends the segment and pivots the next one
+                emitPending(sink);
+                elapsed = timestamp - pivotTime;
+                if (elapsed <= 0) {
+                    startSegment(timestamp, value, sink);
+                    return;
+                }
+                newLower = (value - maxError - pivotValue) / (double) elapsed;
+                newUpper = (value + maxError - pivotValue) / (double) elapsed;
+            }
+            lowerSlope = newLower;
+            upperSlope = newUpper;
+        }
+
+        hasPending = true;
+        pendingTime = timestamp;
+        pendingValue = value;
+    }
+
+    /**
+     * End the current segment by emitting the pending sample, if any. The next segment starts
+     * from it.
+     *
+     * @param sink receives the segment end point
+     */
+    public void flush(PointSink sink) {
+        if (hasPending) {
+            emitPending(sink);
+        }
+    }
+
+    /**
+     * Forget all state, e.g. when the stream restarts
+     */
+    public void reset() {
+        hasPivot = false;
+        hasPending = false;
+    }
+
+    /**
+     * @return samples fed in so far
+     */
+    public long getSamplesIn() {
+        return samplesIn;
+    }
+
+    /**
+     * @return points emitted so far
+     */
+    public long getPointsOut() {
+        return pointsOut;
+    }
+
+    private void startSegment(long timestamp, float value, PointSink sink) {
+        hasPivot = true;
+        hasPending = false;
+        pivotTime = timestamp;
+        pivotValue = value;
+        pointsOut++;
+        sink.onPoint(timestamp, value);
+    }
+
+    private void emitPending(PointSink sink) {
+        // snap the end point onto the closest slope that keeps every sample in the segment in bounds
+        long elapsed = pendingTime - pivotTime;
+        double slope = (pendingValue - pivotValue) / (double) elapsed;
+        slope = Math.max(lowerSlope, Math.min(upperSlope, slope));
+        float value = (float) (pivotValue + slope * elapsed);
+
+        hasPending = false;
+        pivotTime = pendingTime;
+        pivotValue = value;
+        pointsOut++;
+        sink.onPoint(pendingTime, value);
+    }
+}
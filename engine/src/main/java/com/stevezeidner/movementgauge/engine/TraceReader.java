@@ -0,0 +1,104 @@
+package com.stevezeidner.movementgauge.engine;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a trace written by {@link TraceWriter}. A record cut short at the end of the file, e.g.
+ * because the recording process died, is treated as the end of the trace.
+ */
+public class TraceReader implements Closeable {
+    private final DataInputStream in;
+
+    // current sample
+    private long timestamp = 0;
+    private float x;
+    private float y;
+    private float z;
+
+    /**
+     * @throws IOException if the stream is not a trace this reader understands
+     */
+    public TraceReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        int magic = this.in.readInt();
+        int version = this.in.readInt();
+        if (magic != TraceWriter.MAGIC || version != TraceWriter.VERSION) {
+            throw new IOException("Not a version " + TraceWriter.VERSION + " trace");
+        }
+    }
+
+    /**
+     * Advance to the next sample
+     *
+     * @return false at the end of the trace
+     */
+    public boolean next() throws IOException {
+        try {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (shift >= 64) {
+                    throw new IOException("Malformed timestamp");
+                }
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            float nextX = in.readFloat();
+            float nextY = in.readFloat();
+            float nextZ = in.readFloat();
+
+            timestamp += (value >>> 1) ^ -(value & 1);
+            x = nextX;
+            y = nextY;
+            z = nextZ;
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read up to max samples into the arrays
+     *
+     * @return number of samples read, 0 at the end of the trace
+     */
+    public int read(long[] timestamps, float[] xs, float[] ys, float[] zs, int max) throws IOException {
+        int count = 0;
+        while (count < max && next()) {
+            timestamps[count] = timestamp;
+            xs[count] = x;
+            ys[count] = y;
+            zs[count] = z;
+            count++;
+        }
+        return count;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getY() {
+        return y;
+    }
+
+    public float getZ() {
+        return z;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,91 @@
+package com.stevezeidner.movementgauge.engine;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays a recorded trace back into a listener, either paced against the recorded timestamps at
+ * some speed multiple or as fast as possible. Replays are deterministic: the same trace always
+ * produces the same samples in the same order.
+ */
+public class TraceReplayer {
+    public static final float AS_FAST_AS_POSSIBLE = 0.0f;
+
+    private static final int BLOCK_SIZE = 256;
+
+    /**
+     * Receives each replayed raw sample
+     */
+    public interface Listener {
+        void onRawSample(long timestamp, float x, float y, float z);
+    }
+
+    private final float speed;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param speed 1 for real time, N to play N times faster, or {@link #AS_FAST_AS_POSSIBLE}
+     */
+    public TraceReplayer(float speed) {
+        if (speed < 0 || Float.isNaN(speed)) {
+            throw new IllegalArgumentException("speed must not be negative: " + speed);
+        }
+        this.speed = speed;
+    }
+
+    /**
+     * Replay the trace on the calling thread
+     *
+     * @return number of samples replayed
+     * @throws InterruptedException if the thread is interrupted while pacing
+     */
+    public long replay(TraceReader reader, Listener listener) throws IOException, InterruptedException {
+        long count = 0;
+        long firstTimestamp = 0;
+        long startNanos = System.nanoTime();
+
+        while (!cancelled && reader.next()) {
+            long timestamp = reader.getTimestamp();
+            if (count == 0) {
+                firstTimestamp = timestamp;
+            } else if (speed != AS_FAST_AS_POSSIBLE) {
+                long due = startNanos + (long) ((timestamp - firstTimestamp) / speed);
+                long wait = due - System.nanoTime();
+                if (wait > TimeUnit.MILLISECONDS.toNanos(1)) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+
+            listener.onRawSample(timestamp, reader.getX(), reader.getY(), reader.getZ());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Replay the whole trace through an engine as fast as possible, a block at a time
+     *
+     * @return number of samples replayed
+     */
+    public static long replayBlocks(TraceReader reader, MovementEngine engine, SampleSink sink) throws IOException {
+        long[] timestamps = new long[BLOCK_SIZE];
+        float[] x = new float[BLOCK_SIZE];
+        float[] y = new float[BLOCK_SIZE];
+        float[] z = new float[BLOCK_SIZE];
+
+        long total = 0;
+        int count;
+        while ((count = reader.read(timestamps, x, y, z, BLOCK_SIZE)) > 0) {
+            engine.process(timestamps, x, y, z, 0, count, sink);
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Stop a replay in progress after the current sample
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+}
@@ -0,0 +1,72 @@
+package com.stevezeidner.movementgauge.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records raw accelerometer samples into a compact binary trace that {@link TraceReader} can play
+ * back.
+ *
+ * Layout (version 1):
+ * <pre>
+ * int     magic "MGT1"
+ * int     version
+ * per sample:
+ *   varlong timestamp delta from the previous sample in nanoseconds (zigzag)
+ *   float   x, y, z
+ * </pre>
+ */
+public class TraceWriter implements Closeable {
+    static final int MAGIC = 0x4D475431; // "MGT1"
+    static final int VERSION = 1;
+
+    private final DataOutputStream out;
+    private long lastTimestamp = 0;
+    private long count = 0;
+
+    public TraceWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(VERSION);
+    }
+
+    /**
+     * Append one raw sample
+     *
+     * @param timestamp sample timestamp in nanoseconds
+     */
+    public void write(long timestamp, float x, float y, float z) throws IOException {
+        long delta = timestamp - lastTimestamp;
+        long value = (delta << 1) ^ (delta >> 63);
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+        out.writeFloat(x);
+        out.writeFloat(y);
+        out.writeFloat(z);
+
+        lastTimestamp = timestamp;
+        count++;
+    }
+
+    /**
+     * @return number of samples written so far
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,68 @@
+package com.stevezeidner.movementgauge.engine;
+
+/**
+ * Summary of the samples in one sliding window at a point in time. Reused by callers, so a
+ * snapshot can be refreshed without allocating.
+ */
+public class WindowSnapshot {
+    public long windowNanos;
+    public int count;
+    public float mean;
+    public float rms;
+    public float variance;
+    public float min;
+    public float max;
+    public float p50;
+    public float p90;
+    public float p99;
+
+    /**
+     * Write a one-line summary without allocating, e.g. "10s: n=160 mean=1.25 rms=1.50 p90=2.00
+     * max=3.10"
+     *
+     * @param out builder to append to
+     */
+    public void appendSummary(StringBuilder out) {
+        long windowMs = windowNanos / 1000000L;
+        if (windowMs % 1000 == 0) {
+            out.append(windowMs / 1000).append('s');
+        } else {
+            out.append(windowMs).append("ms");
+        }
+        out.append(": n=").append(count);
+        appendHundredths(out.append(" mean="), mean);
+        appendHundredths(out.append(" rms="), rms);
+        appendHundredths(out.append(" p90="), p90);
+        appendHundredths(out.append(" max="), max);
+    }
+
+    private static void appendHundredths(StringBuilder out, float value) {
+        long hundredths = Math.round(value * 100.0);
+        if (hundredths < 0) {
+            out.append('-');
+            hundredths = -hundredths;
+        }
+        out.append(hundredths / 100).append('.');
+        long fraction = hundredths % 100;
+        if (fraction < 10) {
+            out.append('0');
+        }
+        out.append(fraction);
+    }
+
+    @Override
+    public String toString() {
+        return "WindowSnapshot{" +
+                "window=" + windowNanos / 1000000L + "ms" +
+                ", count=" + count +
+                ", mean=" + mean +
+                ", rms=" + rms +
+                ", variance=" + variance +
+                ", min=" + min +
+                ", max=" + max +
+                ", p50=" + p50 +
+                ", p90=" + p90 +
+                ", p99=" + p99 +
+                '}';
+    }
+}
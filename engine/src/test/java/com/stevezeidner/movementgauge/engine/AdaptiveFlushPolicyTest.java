@@ -0,0 +1,76 @@
+package com.stevezeidner.movementgauge.engine;
+
+import junit.framework.TestCase;
+
+
+public class AdaptiveFlushPolicyTest extends TestCase {
+
+    public void testFullAtByteBudget() {
+        AdaptiveFlushPolicy policy = new AdaptiveFlushPolicy(1000, 10000, 1000);
+        // 4 bytes per sample until batches say otherwise
+        assertFalse(policy.isFull(249));
+        assertTrue(policy.isFull(250));
+
+        for (int i = 0; i < 50; i++) {
+            policy.onFlushed(100, 200, 0L);
+        }
+        assertEquals(2.0f, policy.getBytesPerSample(), 0.01f);
+        assertFalse(policy.isFull(450));
+        assertTrue(policy.isFull(501));
+    }
+
+    public void testHoldsWithinLatencyTarget() {
+        AdaptiveFlushPolicy policy = new AdaptiveFlushPolicy(100000, 10000, 1000);
+        long hold = policy.getHoldMs();
+        assertTrue(hold <= 10000);
+        assertTrue(hold >= 8000);
+
+        assertFalse(policy.isDue(1, 0L, 0L, hold - 1));
+        assertTrue(policy.isDue(1, 0L, 0L, hold));
+    }
+
+    public void testRoundTripShortensHold() {
+        AdaptiveFlushPolicy policy = new AdaptiveFlushPolicy(100000, 10000, 1000);
+        for (int i = 0; i < 20; i++) {
+            policy.onPublishResult(2000, true);
+        }
+        assertEquals(2000.0f, policy.getSmoothedRoundTripMs(), 50.0f);
+        // at most the target minus the expected round trip
+        assertTrue(policy.getHoldMs() <= 8100);
+    }
+
+    public void testErrorsStretchHold() {
+        AdaptiveFlushPolicy policy = new AdaptiveFlushPolicy(100000, 10000, 1000);
+        for (int i = 0; i < 30; i++) {
+            policy.onPublishResult(5000, false);
+        }
+        assertTrue(policy.getErrorRate() > 0.9f);
+        assertTrue(policy.getHoldMs() > 20000);
+        // failures don't count as round trips
+        assertEquals(0.0f, policy.getSmoothedRoundTripMs());
+    }
+
+    public void testRespectsMinimumInterval() {
+        AdaptiveFlushPolicy policy = new AdaptiveFlushPolicy(100000, 500, 1000);
+        assertFalse(policy.isDue(1, 0L, 0L, 999));
+        assertTrue(policy.isDue(1, 0L, 0L, 1000));
+    }
+
+    public void testDrivesBatcher() {
+        final int[] published = {0};
+        AdaptiveFlushPolicy policy = new AdaptiveFlushPolicy(40, 10000, 1000);
+        SampleBatcher batcher = new SampleBatcher(1000, policy, new SampleBatcher.BatchPublisher() {
+            @Override
+            public void publish(String batch) {
+                published[0]++;
+            }
+        });
+
+        // 10 samples reach the 40 byte estimate
+        for (int i = 0; i < 10; i++) {
+            batcher.add(i, i + 1, 0L);
+        }
+        assertEquals(1, published[0]);
+        assertEquals(0, batcher.size());
+    }
+}
@@ -0,0 +1,75 @@
+package com.stevezeidner.movementgauge.engine;
+
+import junit.framework.TestCase;
+
+
+public class ChannelShardsTest extends TestCase {
+
+    public void testSingleShardKeepsBaseChannel() {
+        ChannelShards shards = new ChannelShards("accelerometer", 1);
+        assertEquals("accelerometer", shards.channelFor("any device"));
+        assertEquals(1, shards.assign("a", new String[]{"a", "b"}).length
+                + shards.assign("b", new String[]{"a", "b"}).length);
+    }
+
+    public void testDevicesSpreadEvenly() {
+        ChannelShards shards = new ChannelShards("accelerometer", 16);
+        int[] counts = new int[16];
+        for (int i = 0; i < 16000; i++) {
+            int shard = shards.shardOf("device-" + i);
+            assertEquals(shard, shards.shardOf("device-" + i));
+            counts[shard]++;
+        }
+        for (int count : counts) {
+            assertTrue("uneven shard: " + count, count > 800 && count < 1200);
+        }
+        assertEquals("accelerometer-" + shards.shardOf("device-1"), shards.channelFor("device-1"));
+    }
+
+    public void testEveryShardHasExactlyOneOwner() {
+        ChannelShards shards = new ChannelShards("accelerometer", 64);
+        String[] consumers = {"c1", "c2", "c3", "c4", "c5"};
+        int[] owners = new int[64];
+        for (String consumer : consumers) {
+            int[] owned = shards.assign(consumer, consumers);
+            assertTrue(owned.length > 0);
+            for (int shard : owned) {
+                owners[shard]++;
+            }
+        }
+        for (int shard = 0; shard < 64; shard++) {
+            assertEquals("shard " + shard, 1, owners[shard]);
+        }
+    }
+
+    public void testJoiningConsumerOnlyTakesShards() {
+        ChannelShards shards = new ChannelShards("accelerometer", 64);
+        String[] before = {"c1", "c2", "c3"};
+        String[] after = {"c1", "c2", "c3", "c4"};
+
+        boolean[] c4Owns = new boolean[64];
+        for (int shard : shards.assign("c4", after)) {
+            c4Owns[shard] = true;
+        }
+        for (String consumer : before) {
+            boolean[] ownedAfter = new boolean[64];
+            for (int shard : shards.assign(consumer, after)) {
+                ownedAfter[shard] = true;
+            }
+            // a remaining consumer keeps everything except what moved to the new one
+            boolean[] ownedBefore = new boolean[64];
+            for (int shard : shards.assign(consumer, before)) {
+                ownedBefore[shard] = true;
+            }
+            for (int shard = 0; shard < 64; shard++) {
+                assertEquals(ownedBefore[shard] && !c4Owns[shard], ownedAfter[shard]);
+            }
+        }
+    }
+
+    public void testAloneOwnsEverything() {
+        ChannelShards shards = new ChannelShards("accelerometer", 8);
+        assertEquals(8, shards.assign("only", new String[]{"only"}).length);
+        assertEquals(8, shards.assign("only", new String[0]).length);
+    }
+}
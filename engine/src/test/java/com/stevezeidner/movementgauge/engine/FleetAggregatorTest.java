@@ -0,0 +1,162 @@
+package com.stevezeidner.movementgauge.engine;
+
+import junit.framework.TestCase;
+
+
+public class FleetAggregatorTest extends TestCase {
+    private static final long SECOND = 1000000000L;
+    private static final long WINDOW_MS = 60000;
+
+    private static FleetAggregator newAggregator() {
+        return new FleetAggregator(WINDOW_MS, 60, 1.0f, 200, 8);
+    }
+
+    private static void ingest(FleetAggregator aggregator, String device, float value, int count, long nowMs) {
+        long[] timestamps = new long[count];
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = nowMs * 1000000L + i * SECOND / 10;
+            values[i] = value;
+        }
+        aggregator.ingest(device, timestamps, values, count, nowMs);
+    }
+
+    public void testDecodesBatches() {
+        FleetAggregator aggregator = newAggregator();
+        String batch = new SampleBatchCodec().encode(new long[]{0, SECOND, 2 * SECOND},
+                new float[]{10, 20, 30}, 3);
+
+        assertTrue(aggregator.ingest("a", batch, 1000));
+        assertFalse(aggregator.ingest("a", "not a batch", 1000));
+
+        FleetSnapshot.DeviceLevel device = aggregator.getDevice("a");
+        assertEquals(30.0f, device.level);
+        assertEquals(1000, device.lastSeenMs);
+        assertNull(aggregator.getDevice("b"));
+
+        FleetSnapshot snapshot = aggregator.snapshot(5, 1000);
+        assertEquals(1, snapshot.batchesIngested);
+        assertEquals(3, snapshot.samplesIngested);
+        assertEquals(1, snapshot.batchesRejected);
+        assertEquals(20.0f, snapshot.average, 0.001f);
+    }
+
+    public void testFleetAverageAndPercentiles() {
+        FleetAggregator aggregator = newAggregator();
+        for (int i = 0; i < 100; i++) {
+            ingest(aggregator, "device-" + i, i, 1, 1000);
+        }
+
+        FleetSnapshot snapshot = aggregator.snapshot(0, 1000);
+        assertEquals(100, snapshot.devices);
+        assertEquals(100, snapshot.activeDevices);
+        assertEquals(100, snapshot.samples);
+        assertEquals(49.5f, snapshot.average, 0.001f);
+        assertEquals(49.5f, snapshot.p50, 1.0f);
+        assertEquals(89.5f, snapshot.p90, 1.0f);
+        assertEquals(98.5f, snapshot.p99, 1.0f);
+        assertEquals(0, snapshot.mostActive.length);
+    }
+
+    public void testMostActiveFirst() {
+        FleetAggregator aggregator = newAggregator();
+        ingest(aggregator, "still", 0, 10, 1000);
+        ingest(aggregator, "walking", 40, 10, 1000);
+        ingest(aggregator, "running", 90, 10, 1000);
+        ingest(aggregator, "strolling", 20, 10, 1000);
+
+        FleetSnapshot snapshot = aggregator.snapshot(2, 1000);
+        assertEquals(2, snapshot.mostActive.length);
+        assertEquals("running", snapshot.mostActive[0].deviceId);
+        assertEquals("walking", snapshot.mostActive[1].deviceId);
+        assertEquals(90.0f, snapshot.mostActive[0].level);
+    }
+
+    public void testActivityFollowsLevelOverTime() {
+        FleetAggregator aggregator = newAggregator();
+        ingest(aggregator, "a", 0, 2, 0);
+        // one window later at a new level, the average has moved most of the way there
+        long[] timestamps = {WINDOW_MS * 1000000L};
+        aggregator.ingest("a", timestamps, new float[]{100}, 1, WINDOW_MS);
+
+        FleetSnapshot.DeviceLevel device = aggregator.getDevice("a");
+        assertEquals(100.0f, device.level);
+        assertTrue(device.activity > 60 && device.activity < 70);
+    }
+
+    public void testWindowRollsOff() {
+        FleetAggregator aggregator = newAggregator();
+        ingest(aggregator, "old", 10, 5, 0);
+        ingest(aggregator, "new", 50, 5, WINDOW_MS / 2);
+
+        FleetSnapshot snapshot = aggregator.snapshot(5, WINDOW_MS + 1000);
+        assertEquals(2, snapshot.devices);
+        assertEquals(1, snapshot.activeDevices);
+        assertEquals(5, snapshot.samples);
+        assertEquals(50.0f, snapshot.average);
+        assertEquals(1, snapshot.mostActive.length);
+        assertEquals("new", snapshot.mostActive[0].deviceId);
+    }
+
+    public void testForgetsSilentDevices() {
+        FleetAggregator aggregator = newAggregator();
+        ingest(aggregator, "gone", 10, 1, 0);
+        ingest(aggregator, "here", 10, 1, 11 * WINDOW_MS);
+
+        FleetSnapshot snapshot = aggregator.snapshot(5, 11 * WINDOW_MS);
+        assertEquals(1, snapshot.devices);
+
+        aggregator.sweep(11 * WINDOW_MS);
+        assertNull(aggregator.getDevice("gone"));
+        assertNotNull(aggregator.getDevice("here"));
+    }
+
+    public void testConcurrentIngestionWithSnapshots() throws InterruptedException {
+        final FleetAggregator aggregator = newAggregator();
+        final int threads = 4;
+        final int devicesPerThread = 500;
+        final int batchesPerDevice = 20;
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long[] timestamps = new long[10];
+                    float[] values = new float[10];
+                    for (int b = 0; b < batchesPerDevice; b++) {
+                        for (int d = 0; d < devicesPerThread; d++) {
+                            for (int i = 0; i < timestamps.length; i++) {
+                                timestamps[i] = (b * timestamps.length + i) * SECOND;
+                                values[i] = d % 100;
+                            }
+                            aggregator.ingest("device-" + thread + "-" + d, timestamps, values,
+                                    timestamps.length, 1000);
+                        }
+                    }
+                }
+            });
+            workers[t].start();
+        }
+
+        // snapshots taken during ingestion must never see more than was ingested
+        long previous = 0;
+        for (int i = 0; i < 50; i++) {
+            FleetSnapshot snapshot = aggregator.snapshot(10, 1000);
+            assertTrue(snapshot.samplesIngested >= previous);
+            assertTrue(snapshot.samplesIngested <= (long) threads * devicesPerThread * batchesPerDevice * 10);
+            previous = snapshot.samplesIngested;
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        FleetSnapshot snapshot = aggregator.snapshot(10, 1000);
+        assertEquals(threads * devicesPerThread, snapshot.devices);
+        assertEquals((long) threads * devicesPerThread * batchesPerDevice, snapshot.batchesIngested);
+        assertEquals(snapshot.samplesIngested, snapshot.samples);
+        assertEquals(10, snapshot.mostActive.length);
+        assertEquals(99.0f, snapshot.mostActive[0].activity);
+    }
+}
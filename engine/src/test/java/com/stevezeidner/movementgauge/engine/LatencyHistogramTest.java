@@ -0,0 +1,99 @@
+package com.stevezeidner.movementgauge.engine;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+public class LatencyHistogramTest extends TestCase {
+
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 20; i++) {
+            histogram.record(i);
+        }
+        assertEquals(20, histogram.getCount());
+        assertEquals(10, histogram.getValueAtPercentile(50));
+        assertEquals(20, histogram.getValueAtPercentile(100));
+        assertEquals(20, histogram.getMax());
+        assertEquals(10, histogram.getMean());
+    }
+
+    public void testNegativeCountsAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+
+    public void testBucketsAreContiguous() {
+        long previousEdge = -1;
+        for (long value = 0; value < 100000; value++) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            long edge = LatencyHistogram.upperEdge(bucket);
+            assertTrue(value <= edge);
+            assertTrue(edge >= previousEdge);
+            previousEdge = edge;
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperEdge(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    public void testPercentilesWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[10000];
+        Random random = new Random(3);
+        for (int i = 0; i < values.length; i++) {
+            // spread over six orders of magnitude
+            values[i] = (long) Math.pow(10, 3 + random.nextDouble() * 6);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        double[] percentiles = {50, 90, 99, 99.9};
+        for (double percentile : percentiles) {
+            long exact = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+            long estimate = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + estimate + " vs " + exact,
+                    estimate >= exact && estimate <= exact + exact / 16 + 1);
+        }
+        assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100));
+    }
+
+    public void testConcurrentRecording() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, histogram.getCount());
+        assertEquals(99999, histogram.getMax());
+    }
+
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+}
@@ -0,0 +1,60 @@
+package com.stevezeidner.movementgauge.engine;
+
+import junit.framework.TestCase;
+
+
+public class MovementEngineTest extends TestCase {
+
+    private static class LastSample implements SampleSink {
+        int count = 0;
+        long timestamp;
+        float sample;
+        float cumulative;
+
+        @Override
+        public void onSample(long timestamp, float sample, float cumulative) {
+            count++;
+            this.timestamp = timestamp;
+            this.sample = sample;
+            this.cumulative = cumulative;
+        }
+    }
+
+    public void testTotalAcceleration() {
+        float expected = 7.37427962583464826398574235482869871113557793289521f;
+        assertEquals(expected, MovementEngine.totalAcceleration(1.5f, 3.7f, 6.2f));
+    }
+
+    public void testProcessScalesAndAccumulates() {
+        MovementEngine engine = new MovementEngine(1.0f);
+        LastSample sink = new LastSample();
+
+        // |(1.5, 3.7, 6.2)| = 7.374...
+        engine.process(42L, 1.5f, 3.7f, 6.2f, sink);
+
+        assertEquals(42L, sink.timestamp);
+        assertEquals(73.0f, sink.sample);
+        assertEquals(1.07f, sink.cumulative, 0.0001f);
+        assertEquals(sink.cumulative, engine.getCumulative());
+    }
+
+    public void testProcessBlock() {
+        long[] timestamps = {1L, 2L, 3L};
+        float[] x = {0.0f, 3.0f, 0.0f};
+        float[] y = {0.0f, 4.0f, 0.0f};
+        float[] z = {0.0f, 0.0f, 2.0f};
+
+        MovementEngine engine = new MovementEngine();
+        LastSample sink = new LastSample();
+        engine.process(timestamps, x, y, z, 1, 2, sink);
+
+        assertEquals(2, sink.count);
+        assertEquals(3L, sink.timestamp);
+        assertEquals(20.0f, sink.sample);
+        assertEquals(0.07f, sink.cumulative, 0.0001f);
+
+        float[] normalized = new float[3];
+        MovementEngine.normalize(x, y, z, 0, 3, normalized);
+        assertEquals(50.0f, normalized[1]);
+    }
+}
@@ -0,0 +1,42 @@
+package com.stevezeidner.movementgauge.engine;
+
+import junit.framework.TestCase;
+
+
+public class PipelineLatencyTest extends TestCase {
+
+    public void testStagesAreKeptApart() {
+        PipelineLatency latency = new PipelineLatency();
+        latency.record(PipelineLatency.STAGE_SENSOR_TO_SERVICE, 1000000L);
+        latency.record(PipelineLatency.STAGE_FLUSH_TO_ACK, 80000000L);
+        latency.record(PipelineLatency.STAGE_FLUSH_TO_ACK, 120000000L);
+
+        assertEquals(1, latency.getHistogram(PipelineLatency.STAGE_SENSOR_TO_SERVICE).getCount());
+        assertEquals(0, latency.getHistogram(PipelineLatency.STAGE_SERVICE_TO_UI).getCount());
+        assertEquals(0, latency.getHistogram(PipelineLatency.STAGE_ENQUEUE_TO_FLUSH).getCount());
+        assertEquals(2, latency.getHistogram(PipelineLatency.STAGE_FLUSH_TO_ACK).getCount());
+        assertEquals(120000000L, latency.getHistogram(PipelineLatency.STAGE_FLUSH_TO_ACK).getMax());
+    }
+
+    public void testSummaryHasOneLinePerStage() {
+        PipelineLatency latency = new PipelineLatency();
+        latency.record(PipelineLatency.STAGE_ENQUEUE_TO_FLUSH, 2500000000L);
+
+        String[] lines = latency.toString().split("\n");
+        assertEquals(PipelineLatency.getStageCount(), lines.length);
+        assertEquals("enqueue>flush: n=1 p50=2500.0ms p90=2500.0ms p99=2500.0ms max=2500.0ms",
+                lines[PipelineLatency.STAGE_ENQUEUE_TO_FLUSH]);
+        assertEquals("sensor>service: n=0 p50=0.0ms p90=0.0ms p99=0.0ms max=0.0ms", lines[0]);
+    }
+
+    public void testResetClearsEveryStage() {
+        PipelineLatency latency = new PipelineLatency();
+        for (int stage = 0; stage < PipelineLatency.getStageCount(); stage++) {
+            latency.record(stage, 5000000L);
+        }
+        latency.reset();
+        for (int stage = 0; stage < PipelineLatency.getStageCount(); stage++) {
+            assertEquals(0, latency.getHistogram(stage).getCount());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.stevezeidner.movementgauge.engine;
+
+import junit.framework.TestCase;
+
+
+public class SampleBatchCodecTest extends TestCase {
+
+    public void testRoundTrip() {
+        long base = 123456789012345L;
+        int count = 200;
+        long[] timestamps = new long[count];
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = base + i * 60000000L;
+            values[i] = (i * 7) % 50;
+        }
+
+        String encoded = new SampleBatchCodec().encode(timestamps, values, count);
+        SampleBatchCodec.Batch batch = SampleBatchCodec.decode(encoded);
+
+        assertEquals(count, batch.count);
+        for (int i = 0; i < count; i++) {
+            assertEquals(timestamps[i] / 1000 * 1000, batch.timestamps[i]);
+            assertEquals(values[i], batch.values[i], 0.005f);
+        }
+    }
+
+    public void testNegativeDeltasAndFractions() {
+        long[] timestamps = {5000000L, 4000000L, 9000000L};
+        float[] values = {-1.25f, 3.5f, 0.01f};
+
+        SampleBatchCodec.Batch batch = SampleBatchCodec.decode(new SampleBatchCodec().encode(timestamps, values, 3));
+
+        assertEquals(4000000L, batch.timestamps[1]);
+        assertEquals(-1.25f, batch.values[0], 0.005f);
+        assertEquals(0.01f, batch.values[2], 0.005f);
+    }
+
+    public void testEmptyBatch() {
+        SampleBatchCodec.Batch batch = SampleBatchCodec.decode(new SampleBatchCodec().encode(new long[0], new float[0], 0));
+        assertEquals(0, batch.count);
+    }
+
+    public void testMuchSmallerThanJson() {
+        int count = 100;
+        long[] timestamps = new long[count];
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = 98765432109876L + i * 60000000L;
+            values[i] = i % 30;
+        }
+
+        // {"time":98765432109876,"value":12.0} is roughly 36 characters per sample
+        String encoded = new SampleBatchCodec().encode(timestamps, values, count);
+        assertTrue(encoded.length() < count * 36 / 4);
+    }
+
+    public void testRejectsUnknownVersion() {
+        try {
+            SampleBatchCodec.decode("AgA=");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.stevezeidner.movementgauge.engine;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class SampleBatcherTest extends TestCase {
+    private final List<String> published = new ArrayList<String>();
+    private final SampleBatcher.BatchPublisher publisher = new SampleBatcher.BatchPublisher() {
+        @Override
+        public void publish(String batch) {
+            published.add(batch);
+        }
+    };
+
+    public void testRepeatedValuesAreSkipped() {
+        SampleBatcher batcher = new SampleBatcher(100, 5, 10, publisher);
+        batcher.add(1L, 3.0f, 0L);
+        batcher.add(2L, 3.0f, 0L);
+        batcher.add(3L, 4.0f, 0L);
+        assertEquals(2, batcher.size());
+    }
+
+    public void testPublishesWhenFull() {
+        SampleBatcher batcher = new SampleBatcher(3, 5, 10, publisher);
+        for (int i = 0; i < 3; i++) {
+            batcher.add(i, i + 1, 0L);
+        }
+
+        assertEquals(1, published.size());
+        assertEquals(0, batcher.size());
+        assertEquals(3, SampleBatchCodec.decode(published.get(0)).count);
+    }
+
+    public void testPublishesAfterSendInterval() {
+        SampleBatcher batcher = new SampleBatcher(100, 5, 10, publisher);
+        batcher.resetSendTimer(0L);
+        batcher.add(1L, 1.0f, 1000L);
+        assertTrue(published.isEmpty());
+
+        batcher.add(2L, 2.0f, 10000L);
+        assertEquals(1, published.size());
+    }
+
+    public void testBackpressureHoldsTimedPublishes() {
+        final boolean[] saturated = {true};
+        SampleBatcher batcher = new SampleBatcher(3, 5, 10, publisher);
+        batcher.setBackpressure(new SampleBatcher.Backpressure() {
+            @Override
+            public boolean isSaturated() {
+                return saturated[0];
+            }
+        });
+        batcher.resetSendTimer(0L);
+
+        batcher.add(1L, 1.0f, 20000L);
+        assertTrue(published.isEmpty());
+
+        // a full batch goes out regardless
+        batcher.add(2L, 2.0f, 20000L);
+        batcher.add(3L, 3.0f, 20000L);
+        assertEquals(1, published.size());
+
+        saturated[0] = false;
+        batcher.add(4L, 4.0f, 40000L);
+        assertEquals(2, published.size());
+    }
+
+    public void testReducerKeepsOnlySegmentEnds() {
+        SampleBatcher batcher = new SampleBatcher(100, 5, 10, publisher);
+        batcher.setReducer(new SwingingDoorCompressor(0.5f));
+        for (int i = 0; i < 50; i++) {
+            // a ramp with noise well inside the bound
+            batcher.add(i * 1000000L, i + ((i % 2 == 0) ? 0.2f : -0.2f), 0L);
+        }
+        assertEquals(1, batcher.size());
+
+        // publishing ends the segment
+        batcher.flush(0L);
+        assertEquals(1, published.size());
+        SampleBatchCodec.Batch batch = SampleBatchCodec.decode(published.get(0));
+        assertEquals(2, batch.count);
+        assertEquals(49000000L, batch.timestamps[1]);
+    }
+
+    public void testReducerPendingSampleMakesBatchDue() {
+        SampleBatcher batcher = new SampleBatcher(100, 5, 10, publisher);
+        batcher.setReducer(new SwingingDoorCompressor(0.5f));
+        batcher.resetSendTimer(0L);
+        batcher.add(0L, 1.0f, 0L);
+        batcher.flush(0L);
+        assertEquals(1, published.size());
+
+        // the pending sample alone is enough to publish on time
+        batcher.add(1000000L, 1.0f, 20000L);
+        assertEquals(2, published.size());
+    }
+
+    public void testFlushSkipsEmptyBatch() {
+        SampleBatcher batcher = new SampleBatcher(100, 5, 10, publisher);
+        batcher.flush(0L);
+        assertTrue(published.isEmpty());
+    }
+
+    public void testRecordsHowLongTheOldestSampleWaited() {
+        PipelineLatency latency = new PipelineLatency();
+        SampleBatcher batcher = new SampleBatcher(100, 5, 10, publisher);
+        batcher.setLatency(latency);
+        batcher.add(1L, 1.0f, 1000L);
+        batcher.add(2L, 2.0f, 1500L);
+        batcher.flush(3000L);
+        batcher.flush(4000L);
+
+        LatencyHistogram enqueueToFlush = latency.getHistogram(PipelineLatency.STAGE_ENQUEUE_TO_FLUSH);
+        assertEquals(1, enqueueToFlush.getCount());
+        assertEquals(2000000000L, enqueueToFlush.getMax());
+    }
+}
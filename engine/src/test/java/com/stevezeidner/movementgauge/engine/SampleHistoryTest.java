@@ -0,0 +1,66 @@
+package com.stevezeidner.movementgauge.engine;
+
+import junit.framework.TestCase;
+
+
+public class SampleHistoryTest extends TestCase {
+    private static final long SECOND = 1000000000L;
+
+    public void testDecimatesToColumnMinAndMax() {
+        SampleHistory history = new SampleHistory(64);
+        history.add(0, 5.0f);
+        history.add(SECOND / 2, 1.0f);
+        history.add(SECOND, 3.0f);
+        history.add(3 * SECOND, 7.0f);
+        history.add(3 * SECOND + 1, 9.0f);
+
+        float[] min = new float[4];
+        float[] max = new float[4];
+        history.decimate(0, SECOND, 4, min, max);
+
+        assertEquals(1.0f, min[0]);
+        assertEquals(5.0f, max[0]);
+        assertEquals(3.0f, min[1]);
+        assertEquals(3.0f, max[1]);
+        assertTrue(Float.isNaN(min[2]));
+        assertTrue(Float.isNaN(max[2]));
+        assertEquals(7.0f, min[3]);
+        assertEquals(9.0f, max[3]);
+    }
+
+    public void testSkipsSamplesOutsideTheColumns() {
+        SampleHistory history = new SampleHistory(64);
+        for (int i = 0; i < 10; i++) {
+            history.add(i * SECOND, i);
+        }
+
+        float[] min = new float[3];
+        float[] max = new float[3];
+        history.decimate(5, SECOND, 3, min, max);
+        assertEquals(5.0f, min[0]);
+        assertEquals(7.0f, max[2]);
+    }
+
+    public void testOverwritesOldestWhenFull() {
+        SampleHistory history = new SampleHistory(4);
+        for (int i = 0; i < 6; i++) {
+            history.add(i * SECOND, i);
+        }
+        assertEquals(4, history.size());
+        assertEquals(5 * SECOND, history.getLatestTimestamp());
+
+        float[] min = new float[6];
+        float[] max = new float[6];
+        history.decimate(0, SECOND, 6, min, max);
+        assertTrue(Float.isNaN(min[0]));
+        assertTrue(Float.isNaN(min[1]));
+        assertEquals(2.0f, min[2]);
+        assertEquals(5.0f, max[5]);
+    }
+
+    public void testEmptyHistory() {
+        SampleHistory history = new SampleHistory(4);
+        assertEquals(0, history.size());
+        assertEquals(Long.MIN_VALUE, history.getLatestTimestamp());
+    }
+}
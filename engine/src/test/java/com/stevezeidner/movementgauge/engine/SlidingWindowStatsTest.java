@@ -0,0 +1,105 @@
+package com.stevezeidner.movementgauge.engine;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+public class SlidingWindowStatsTest extends TestCase {
+    private static final long SECOND = 1000000000L;
+
+    public void testBasicStatistics() {
+        SlidingWindowStats stats = new SlidingWindowStats(10 * SECOND, 64, 1.0f, 100);
+        float[] values = {2, 4, 4, 4, 5, 5, 7, 9};
+        for (int i = 0; i < values.length; i++) {
+            stats.add(i * SECOND / 10, values[i]);
+        }
+
+        WindowSnapshot snapshot = new WindowSnapshot();
+        stats.snapshot(SECOND, snapshot);
+        assertEquals(8, snapshot.count);
+        assertEquals(5.0f, snapshot.mean, 0.0001f);
+        assertEquals(4.0f, snapshot.variance, 0.0001f);
+        assertEquals((float) Math.sqrt(29.0), snapshot.rms, 0.0001f);
+        assertEquals(2.0f, snapshot.min);
+        assertEquals(9.0f, snapshot.max);
+        assertEquals(4.5f, snapshot.p50, 1.0f);
+    }
+
+    public void testSummaryLine() {
+        WindowSnapshot snapshot = new WindowSnapshot();
+        snapshot.windowNanos = 10 * SECOND;
+        snapshot.count = 160;
+        snapshot.mean = 1.25f;
+        snapshot.rms = 1.5f;
+        snapshot.p90 = 2.0f;
+        snapshot.max = 3.104f;
+
+        StringBuilder out = new StringBuilder();
+        snapshot.appendSummary(out);
+        assertEquals("10s: n=160 mean=1.25 rms=1.50 p90=2.00 max=3.10", out.toString());
+    }
+
+    public void testOldSamplesSlideOut() {
+        SlidingWindowStats stats = new SlidingWindowStats(SECOND, 64, 1.0f, 100);
+        stats.add(0, 50.0f);
+        stats.add(SECOND / 2, 10.0f);
+        stats.add(SECOND + SECOND / 4, 20.0f);
+
+        WindowSnapshot snapshot = new WindowSnapshot();
+        stats.snapshot(SECOND + SECOND / 4, snapshot);
+        assertEquals(2, snapshot.count);
+        assertEquals(20.0f, snapshot.max);
+        assertEquals(10.0f, snapshot.min);
+
+        // no new samples, but the window has moved on
+        stats.snapshot(2 * SECOND, snapshot);
+        assertEquals(1, snapshot.count);
+        assertEquals(20.0f, snapshot.min);
+        stats.snapshot(3 * SECOND, snapshot);
+        assertEquals(0, snapshot.count);
+    }
+
+    public void testCapacityEvictsOldest() {
+        SlidingWindowStats stats = new SlidingWindowStats(100 * SECOND, 4, 1.0f, 100);
+        for (int i = 0; i < 10; i++) {
+            stats.add(i, i);
+        }
+
+        WindowSnapshot snapshot = new WindowSnapshot();
+        stats.snapshot(9, snapshot);
+        assertEquals(4, snapshot.count);
+        assertEquals(6.0f, snapshot.min);
+        assertEquals(7.5f, snapshot.mean, 0.0001f);
+    }
+
+    public void testMatchesBruteForce() {
+        Random random = new Random(7);
+        int window = 50;
+        SlidingWindowStats stats = new SlidingWindowStats(window, 256, 1.0f, 200);
+        float[] history = new float[1000];
+        WindowSnapshot snapshot = new WindowSnapshot();
+
+        for (int i = 0; i < history.length; i++) {
+            history[i] = random.nextInt(150);
+            stats.add(i, history[i]);
+
+            int from = Math.max(0, i - window + 1);
+            float[] inWindow = Arrays.copyOfRange(history, from, i + 1);
+            Arrays.sort(inWindow);
+            double sum = 0;
+            for (float v : inWindow) {
+                sum += v;
+            }
+
+            stats.snapshot(i, snapshot);
+            assertEquals(inWindow.length, snapshot.count);
+            assertEquals(inWindow[0], snapshot.min);
+            assertEquals(inWindow[inWindow.length - 1], snapshot.max);
+            assertEquals(sum / inWindow.length, snapshot.mean, 0.001);
+            float median = inWindow[(int) Math.ceil(0.5 * inWindow.length) - 1];
+            assertEquals(median, snapshot.p50, 1.0f);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.stevezeidner.movementgauge.engine;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+
+public class SwingingDoorCompressorTest extends TestCase {
+    private static final long MS = 1000000L;
+
+    /**
+     * Collects emitted points
+     */
+    private static class Points implements SwingingDoorCompressor.PointSink {
+        long[] timestamps = new long[100000];
+        float[] values = new float[100000];
+        int count = 0;
+
+        @Override
+        public void onPoint(long timestamp, float value) {
+            timestamps[count] = timestamp;
+            values[count] = value;
+            count++;
+        }
+
+        /**
+         * Linear interpolation between the kept points
+         */
+        float valueAt(long timestamp) {
+            for (int i = 1; i < count; i++) {
+                if (timestamp <= timestamps[i]) {
+                    double fraction = (timestamp - timestamps[i - 1]) / (double) (timestamps[i] - timestamps[i - 1]);
+                    return (float) (values[i - 1] + fraction * (values[i] - values[i - 1]));
+                }
+            }
+            return values[count - 1];
+        }
+    }
+
+    public void testStraightLineKeepsOnlyEnds() {
+        SwingingDoorCompressor compressor = new SwingingDoorCompressor(0.1f);
+        Points points = new Points();
+        for (int i = 0; i <= 100; i++) {
+            compressor.add(i * MS, i * 0.5f, points);
+        }
+        compressor.flush(points);
+
+        assertEquals(2, points.count);
+        assertEquals(0L, points.timestamps[0]);
+        assertEquals(100 * MS, points.timestamps[1]);
+        assertEquals(50.0f, points.values[1], 0.001f);
+    }
+
+    public void testNoisySignalStaysWithinBound() {
+        float maxError = 1.0f;
+        SwingingDoorCompressor compressor = new SwingingDoorCompressor(maxError);
+        Points points = new Points();
+        Random random = new Random(7);
+        int samples = 20000;
+        long[] timestamps = new long[samples];
+        float[] values = new float[samples];
+        for (int i = 0; i < samples; i++) {
+            timestamps[i] = i * 5 * MS;
+            values[i] = (float) (20 + 15 * Math.sin(i / 200.0) + random.nextGaussian() * 0.3);
+            compressor.add(timestamps[i], values[i], points);
+        }
+        compressor.flush(points);
+
+        for (int i = 0; i < samples; i++) {
+            assertEquals(values[i], points.valueAt(timestamps[i]), maxError + 0.0001f);
+        }
+        assertTrue("kept " + points.count, points.count * 10 < samples);
+        assertEquals(samples, compressor.getSamplesIn());
+        assertEquals(points.count, compressor.getPointsOut());
+    }
+
+    public void testFlushEndsSegmentAndContinues() {
+        SwingingDoorCompressor compressor = new SwingingDoorCompressor(0.1f);
+        Points points = new Points();
+        compressor.add(0, 1.0f, points);
+        compressor.add(MS, 1.0f, points);
+        assertEquals(1, points.count);
+
+        compressor.flush(points);
+        assertEquals(2, points.count);
+        compressor.flush(points);
+        assertEquals(2, points.count);
+
+        compressor.add(2 * MS, 1.0f, points);
+        compressor.flush(points);
+        assertEquals(3, points.count);
+    }
+
+    public void testZeroErrorKeepsEveryCorner() {
+        SwingingDoorCompressor compressor = new SwingingDoorCompressor(0.0f);
+        Points points = new Points();
+        float[] values = {0, 1, 2, 0, 0, 3};
+        for (int i = 0; i < values.length; i++) {
+            compressor.add(i * MS, values[i], points);
+        }
+        compressor.flush(points);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], points.valueAt(i * MS), 0.0001f);
+        }
+        assertEquals(5, points.count);
+    }
+}
@@ -0,0 +1,106 @@
+package com.stevezeidner.movementgauge.engine;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+public class TraceTest extends TestCase {
+
+    private static byte[] record(int samples) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(bytes);
+        for (int i = 0; i < samples; i++) {
+            writer.write(1000000000L + i * 20000000L, i, -i, i * 0.5f);
+        }
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    public void testRoundTrip() throws IOException {
+        TraceReader reader = new TraceReader(new ByteArrayInputStream(record(3)));
+
+        assertTrue(reader.next());
+        assertEquals(1000000000L, reader.getTimestamp());
+        assertTrue(reader.next());
+        assertEquals(1020000000L, reader.getTimestamp());
+        assertEquals(1.0f, reader.getX());
+        assertEquals(-1.0f, reader.getY());
+        assertEquals(0.5f, reader.getZ());
+        assertTrue(reader.next());
+        assertFalse(reader.next());
+    }
+
+    public void testTruncatedTailEndsTrace() throws IOException {
+        byte[] trace = record(5);
+        TraceReader reader = new TraceReader(new ByteArrayInputStream(Arrays.copyOf(trace, trace.length - 3)));
+
+        int count = 0;
+        while (reader.next()) {
+            count++;
+        }
+        assertEquals(4, count);
+    }
+
+    public void testRejectsForeignFile() {
+        try {
+            new TraceReader(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}));
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testReplayIsDeterministic() throws Exception {
+        byte[] trace = record(500);
+
+        final float[] paced = new float[1];
+        final MovementEngine pacedEngine = new MovementEngine();
+        new TraceReplayer(TraceReplayer.AS_FAST_AS_POSSIBLE).replay(
+                new TraceReader(new ByteArrayInputStream(trace)),
+                new TraceReplayer.Listener() {
+                    @Override
+                    public void onRawSample(long timestamp, float x, float y, float z) {
+                        pacedEngine.process(timestamp, x, y, z, new SampleSink() {
+                            @Override
+                            public void onSample(long timestamp, float sample, float cumulative) {
+                                paced[0] += sample;
+                            }
+                        });
+                    }
+                });
+
+        final float[] blocks = new float[1];
+        long count = TraceReplayer.replayBlocks(
+                new TraceReader(new ByteArrayInputStream(trace)),
+                new MovementEngine(),
+                new SampleSink() {
+                    @Override
+                    public void onSample(long timestamp, float sample, float cumulative) {
+                        blocks[0] += sample;
+                    }
+                });
+
+        assertEquals(500, count);
+        assertEquals(paced[0], blocks[0]);
+        assertTrue(pacedEngine.getCumulative() > 0);
+    }
+
+    public void testPacedReplayFollowsTimestamps() throws Exception {
+        // 10 samples 20ms apart played at 4x should take about 45ms
+        long start = System.nanoTime();
+        long count = new TraceReplayer(4.0f).replay(
+                new TraceReader(new ByteArrayInputStream(record(10))),
+                new TraceReplayer.Listener() {
+                    @Override
+                    public void onRawSample(long timestamp, float x, float y, float z) {
+                    }
+                });
+        long elapsedMs = (System.nanoTime() - start) / 1000000L;
+
+        assertEquals(10, count);
+        assertTrue(elapsedMs >= 40);
+    }
+}